@@ -0,0 +1,45 @@
+package edu.fit.estimator1D;
+
+/**
+ * A single benchmarked operation with fixed parameters.
+ * 
+ * @author Daniel Weinand & Gedeon Nyengele
+ */
+public abstract class Benchmark {
+	
+	private final String name;		// What is measured, e.g. "updateCoefficients"
+	private final String params;	// The parameters it is measured with
+	
+	/**
+	 * Constructor.
+	 * @param name   : what is measured.
+	 * @param params : the parameters, as "key=value" pairs separated by commas.
+	 */
+	protected Benchmark(String name, String params) {
+		this.name   = name;
+		this.params = params;
+	}
+	
+	public String getName()   { return name; }
+	public String getParams() { return params; }
+	
+	/**
+	 * @return the name and parameters, identifying the benchmark in reports.
+	 */
+	public String getId() {
+		return params.isEmpty() ? name : name + "(" + params + ")";
+	}
+	
+	/**
+	 * Prepares the state used by op. Called once before the benchmark is run.
+	 * @throws Exception if the state cannot be prepared.
+	 */
+	public void setup() throws Exception {}
+	
+	/**
+	 * Performs the measured operation once.
+	 * @return a value depending on the work done, so that it cannot be optimized away.
+	 */
+	public abstract double op();
+
+} // end class Benchmark.
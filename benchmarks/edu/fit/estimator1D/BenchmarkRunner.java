@@ -0,0 +1,279 @@
+package edu.fit.estimator1D;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Measures the throughput and allocation of benchmarks, writes the results
+ * as JSON and compares them with the results of an earlier run.
+ * 
+ * Each benchmark is warmed up and then measured over several fixed-length
+ * iterations on the calling thread. Allocation is read from the thread's
+ * allocated byte counter, when the JVM provides one, and reported per
+ * operation.
+ * 
+ * @author Daniel Weinand & Gedeon Nyengele
+ */
+public class BenchmarkRunner {
+	
+	private final int warmupIterations;		// Unmeasured iterations per benchmark
+	private final int iterations;			// Measured iterations per benchmark
+	private final long iterationNanos;		// Length of each iteration
+	
+	// Keeps the results of op alive so the work cannot be optimized away.
+	private volatile double sink;
+	
+	/**
+	 * The measurements of one benchmark.
+	 */
+	public static class Result {
+		public final String id;				// The benchmark's name and parameters
+		public final double opsPerSecond;	// Mean throughput over the measured iterations
+		public final double error;			// Standard deviation of the throughput
+		public final double bytesPerOp;		// Bytes allocated per operation, or -1 if unknown
+		
+		public Result(String id, double opsPerSecond, double error, double bytesPerOp) {
+			this.id           = id;
+			this.opsPerSecond = opsPerSecond;
+			this.error        = error;
+			this.bytesPerOp   = bytesPerOp;
+		}
+	}
+	
+	/**
+	 * Constructor.
+	 * @param warmupIterations : unmeasured iterations per benchmark.
+	 * @param iterations       : measured iterations per benchmark.
+	 * @param iterationMillis  : length of each iteration in milliseconds.
+	 */
+	public BenchmarkRunner(int warmupIterations, int iterations, int iterationMillis) {
+		this.warmupIterations = warmupIterations;
+		this.iterations       = iterations;
+		this.iterationNanos   = iterationMillis * 1000000L;
+	}
+	
+	/**
+	 * Sets up and measures one benchmark.
+	 * @param benchmark : the benchmark.
+	 * @return the measurements.
+	 * @throws Exception if the benchmark cannot be set up.
+	 */
+	public Result measure(Benchmark benchmark) throws Exception {
+		
+		benchmark.setup();
+		
+		// Find a number of operations taking roughly a millisecond,
+		// so the clock is not read after every operation.
+		int batch = 1;
+		while (true) {
+			long start = System.nanoTime();
+			runBatch(benchmark, batch);
+			if (System.nanoTime() - start > 1000000L || batch >= (1 << 24)) {
+				break;
+			}
+			batch *= 2;
+		}
+		
+		for (int i = 0; i < warmupIterations; i++) {
+			runIteration(benchmark, batch, null);
+		}
+		
+		double[] throughput = new double[iterations];
+		long totalOps = 0;
+		long totalBytes = 0;
+		for (int i = 0; i < iterations; i++) {
+			long[] opsAndBytes = new long[2];
+			long elapsed = runIteration(benchmark, batch, opsAndBytes);
+			throughput[i] = opsAndBytes[0] * 1e9 / elapsed;
+			totalOps   += opsAndBytes[0];
+			totalBytes += opsAndBytes[1];
+		}
+		
+		double mean = 0.0;
+		for (double t : throughput) {
+			mean += t / iterations;
+		}
+		double variance = 0.0;
+		for (double t : throughput) {
+			variance += (t - mean) * (t - mean) / Math.max(iterations - 1, 1);
+		}
+		double bytesPerOp = (totalBytes < 0) ? -1 : (double) totalBytes / totalOps;
+		return new Result(benchmark.getId(), mean, Math.sqrt(variance), bytesPerOp);
+	} // end method measure.
+	
+	/**
+	 * Runs whole batches of operations for one iteration.
+	 * @param opsAndBytes : if not null, receives the operation count and allocated bytes.
+	 * @return the elapsed time in nanoseconds.
+	 */
+	private long runIteration(Benchmark benchmark, int batch, long[] opsAndBytes) {
+		long ops = 0;
+		long bytesBefore = allocatedBytes();
+		long start = System.nanoTime();
+		long elapsed;
+		do {
+			runBatch(benchmark, batch);
+			ops += batch;
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < iterationNanos);
+		long bytesAfter = allocatedBytes();
+		
+		if (opsAndBytes != null) {
+			opsAndBytes[0] = ops;
+			opsAndBytes[1] = (bytesBefore < 0) ? -1 : bytesAfter - bytesBefore;
+		}
+		return elapsed;
+	} // end method runIteration.
+	
+	/**
+	 * Performs the benchmark's operation the given number of times.
+	 */
+	private void runBatch(Benchmark benchmark, int batch) {
+		double sum = 0.0;
+		for (int i = 0; i < batch; i++) {
+			sum += benchmark.op();
+		}
+		sink += sum;
+	} // end method runBatch.
+	
+	/**
+	 * @return the bytes allocated so far by the current thread, or -1 if the JVM does not count them.
+	 */
+	private static long allocatedBytes() {
+		try
+		{
+			java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+			if (bean instanceof com.sun.management.ThreadMXBean) {
+				return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		catch (UnsupportedOperationException ex) {}
+		return -1;
+	} // end method allocatedBytes.
+	
+	/**
+	 * Writes results as a JSON array, one result per line.
+	 * @param results  : the results.
+	 * @param filename : the file to write.
+	 * @throws IOException if the file cannot be written.
+	 */
+	public static void writeJson(List<Result> results, String filename) throws IOException {
+		PrintWriter out = new PrintWriter(new FileWriter(filename));
+		out.println("[");
+		for (int i = 0; i < results.size(); i++) {
+			Result r = results.get(i);
+			out.printf(Locale.ROOT, "  {\"benchmark\": \"%s\", \"opsPerSecond\": %.6g, \"error\": %.6g, \"bytesPerOp\": %.6g}%s%n",
+					r.id.replace("\\", "\\\\").replace("\"", "\\\""), r.opsPerSecond, r.error, r.bytesPerOp,
+					(i < results.size() - 1) ? "," : "");
+		}
+		out.println("]");
+		out.close();
+	} // end method writeJson.
+	
+	/**
+	 * Reads results written by writeJson.
+	 * @param filename : the file to read.
+	 * @return the results by benchmark id.
+	 * @throws IOException if the file cannot be read.
+	 */
+	public static Map<String, Result> readJson(String filename) throws IOException {
+		Pattern line = Pattern.compile("\"benchmark\": \"((?:[^\"\\\\]|\\\\.)*)\", \"opsPerSecond\": ([^,]+), \"error\": ([^,]+), \"bytesPerOp\": ([^}]+)}");
+		Map<String, Result> results = new HashMap<String, Result>();
+		BufferedReader in = new BufferedReader(new FileReader(filename));
+		String text;
+		while ((text = in.readLine()) != null) {
+			Matcher m = line.matcher(text);
+			if (m.find()) {
+				String id = m.group(1).replace("\\\"", "\"").replace("\\\\", "\\");
+				results.put(id, new Result(id, Double.parseDouble(m.group(2)),
+						Double.parseDouble(m.group(3)), Double.parseDouble(m.group(4))));
+			}
+		}
+		in.close();
+		return results;
+	} // end method readJson.
+	
+	/**
+	 * Runs the benchmarks from the command line.
+	 * @param args : options, see printUsage.
+	 */
+	public static void main(String[] args) throws Exception {
+		
+		String filter = null;
+		String jsonFile = null;
+		String baselineFile = null;
+		int warmup = 3, measured = 5, millis = 500;
+		
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--filter"))          filter = args[++i];
+			else if (args[i].equals("--json"))       jsonFile = args[++i];
+			else if (args[i].equals("--baseline"))   baselineFile = args[++i];
+			else if (args[i].equals("--warmup"))     warmup = Integer.parseInt(args[++i]);
+			else if (args[i].equals("--iterations")) measured = Integer.parseInt(args[++i]);
+			else if (args[i].equals("--millis"))     millis = Integer.parseInt(args[++i]);
+			else if (args[i].equals("--list")) {
+				for (Benchmark b : EstimatorBenchmarks.all()) {
+					System.out.println(b.getId());
+				}
+				return;
+			}
+			else {
+				printUsage();
+				System.exit(2);
+			}
+		}
+		
+		Map<String, Result> baseline = (baselineFile == null) ? null : readJson(baselineFile);
+		Pattern pattern = (filter == null) ? null : Pattern.compile(filter);
+		BenchmarkRunner runner = new BenchmarkRunner(warmup, measured, millis);
+		List<Result> results = new ArrayList<Result>();
+		
+		System.out.printf(Locale.ROOT, "%-96s %14s %12s %12s%s%n", "Benchmark", "ops/s", "error", "B/op",
+				(baseline == null) ? "" : "      change");
+		for (Benchmark benchmark : EstimatorBenchmarks.all()) {
+			if (pattern != null && !pattern.matcher(benchmark.getId()).find()) {
+				continue;
+			}
+			Result r = runner.measure(benchmark);
+			results.add(r);
+			
+			String change = "";
+			if (baseline != null) {
+				Result old = baseline.get(r.id);
+				change = (old == null) ? "         new"
+						: String.format(Locale.ROOT, "  %+9.1f%%", 100.0 * (r.opsPerSecond / old.opsPerSecond - 1));
+			}
+			System.out.printf(Locale.ROOT, "%-96s %14.1f %12.1f %12.1f%s%n", r.id, r.opsPerSecond, r.error, r.bytesPerOp, change);
+		}
+		
+		if (jsonFile != null) {
+			writeJson(results, jsonFile);
+		}
+	} // end method main.
+	
+	/**
+	 * Prints the command line options.
+	 */
+	private static void printUsage() {
+		System.err.println("Usage: java edu.fit.estimator1D.BenchmarkRunner [options]");
+		System.err.println("  --list              list the benchmarks");
+		System.err.println("  --filter REGEX      only run benchmarks whose id matches REGEX");
+		System.err.println("  --json FILE         write the results to FILE");
+		System.err.println("  --baseline FILE     compare the throughput with results written earlier");
+		System.err.println("  --warmup N          unmeasured iterations per benchmark (default 3)");
+		System.err.println("  --iterations N      measured iterations per benchmark (default 5)");
+		System.err.println("  --millis N          length of each iteration (default 500)");
+	} // end method printUsage.
+
+} // end class BenchmarkRunner.
@@ -0,0 +1,656 @@
+package edu.fit.estimator1D;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The benchmarks for the estimator's hot paths.
+ * 
+ * @author Daniel Weinand & Gedeon Nyengele
+ */
+public class EstimatorBenchmarks {
+	
+	// Wavelet types covering the range of support widths.
+	private static final String[] WAVELET_TYPES = {"db2", "db6", "db10", "coif5", "dmey"};
+	
+	// Names of the aging methods, indexed by aging flag.
+	private static final String[] AGING_NAMES = {"none", "caudle", "window", "decay", "timewindow"};
+	
+	// Names of the thresholding methods and threshold rules, indexed by their flags.
+	private static final String[] THRESHOLD_NAMES = {"none", "hard", "soft"};
+	private static final String[] THRESHOLD_RULE_NAMES = {"fixed", "universal", "level"};
+	
+	// Start and stop levels, and whether the wavelet functions are used.
+	private static final int[][] LEVELS = {{1, 1, 0}, {1, 3, 1}, {3, 6, 1}};
+	
+	/**
+	 * @return every benchmark.
+	 */
+	public static List<Benchmark> all() {
+		
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		
+		for (int aging = Settings.noAge; aging <= Settings.windowAge; aging++) {
+			for (String type : WAVELET_TYPES) {
+				for (int[] levels : LEVELS) {
+					benchmarks.add(updateCoefficients(configuration(type, aging, levels[0], levels[1], levels[2] == 1, .01)));
+				}
+			}
+		}
+		
+		for (int aging = Settings.noAge; aging <= Settings.windowAge; aging++) {
+			benchmarks.add(updateCoefficientsBlock(configuration("db6", aging, 1, 3, true, .01), 1000));
+		}
+		
+		for (int aging = Settings.decayAge; aging <= Settings.timeWindowAge; aging++) {
+			for (int rate : new int[] {10, 1000}) {
+				benchmarks.add(updateCoefficientsTimed(configuration("db6", aging, 1, 3, true, .01), rate));
+			}
+		}
+		
+		for (int threads : new int[] {0, 2, 4}) {
+			benchmarks.add(updateCoefficientsBlock(configuration("db6", Settings.windowAge, 3, 6, true, .01,
+					Settings.exactNormalize, false, Integer.MAX_VALUE, threads, 0), 4000));
+		}
+		
+		for (int aging = Settings.noAge; aging <= Settings.windowAge; aging++) {
+			for (int shards : new int[] {2, 4}) {
+				benchmarks.add(updateCoefficientsBlock(configuration("db6", aging, 3, 6, true, .01,
+						Settings.exactNormalize, false, Integer.MAX_VALUE, 0, shards), 4000));
+			}
+		}
+		
+		for (double discretization : new double[] {.01, .001, .0001}) {
+			benchmarks.add(getDensity(configuration("db6", Settings.windowAge, 1, 1, false, discretization)));
+			benchmarks.add(getDensity(configuration("db6", Settings.windowAge, 1, 3, true, discretization)));
+		}
+		
+		for (double discretization : new double[] {.001, .0001}) {
+			benchmarks.add(getDensity(configuration("db6", Settings.windowAge, 1, 3, true, discretization,
+					Settings.exactNormalize, false, 0, 0, 0)));
+		}
+		
+		for (int threshold = Settings.noThreshold; threshold <= Settings.softThreshold; threshold++) {
+			for (int rule : new int[] {Settings.universalThreshold, Settings.levelThreshold}) {
+				if (threshold != Settings.noThreshold || rule == Settings.universalThreshold) {
+					benchmarks.add(getDensity(thresholded("db6", 1, 8, .001, threshold, rule)));
+				}
+			}
+		}
+		
+		for (int samplesPerSnapshot : new int[] {1, 10, 100}) {
+			for (boolean incremental : new boolean[] {false, true}) {
+				benchmarks.add(snapshot(configuration("db6", Settings.windowAge, 3, 6, true, .0001,
+						Settings.exactNormalize, incremental, Integer.MAX_VALUE, 0, 0), samplesPerSnapshot));
+			}
+		}
+		
+		for (int[] levels : new int[][] {{1, 3}, {3, 6}}) {
+			for (String query : new String[] {"function", "density", "cumulative", "quantile"}) {
+				benchmarks.add(pointQuery(configuration("db6", Settings.windowAge, levels[0], levels[1], true, .01), query));
+			}
+		}
+		
+		for (String type : new String[] {"db6", "coif5"}) {
+			for (boolean batch : new boolean[] {false, true}) {
+				benchmarks.add(densityBatch(configuration(type, Settings.windowAge, 1, 3, true, .01), 100000, batch));
+			}
+		}
+		
+		for (int aging = Settings.noAge; aging <= Settings.windowAge; aging++) {
+			benchmarks.add(registryUpdate(configuration("db6", aging, 1, 3, true, .01), 10000));
+		}
+		
+		for (boolean save : new boolean[] {true, false}) {
+			benchmarks.add(checkpoint(configuration("db6", Settings.windowAge, 3, 6, true, .01), save));
+		}
+		
+		for (String shape : new String[] {"gaussian", "allNegative", "zero", "spike", "alternating", "lowMass"}) {
+			benchmarks.add(normalizeDensity(shape, Settings.exactNormalize));
+			benchmarks.add(normalizeDensity(shape, Settings.iterativeNormalize));
+		}
+		
+		for (String type : new String[] {"db2", "db6", "coif5", "dmey"}) {
+			benchmarks.add(interpolate(type, Settings.linearInterp, 0));
+			benchmarks.add(interpolate(type, Settings.cubicInterp, 0));
+		}
+		
+		for (int levels : new int[] {4, 12}) {
+			benchmarks.add(interpolate("coif5", Settings.linearInterp, levels));
+		}
+		
+		for (String type : new String[] {"db6", "coif5"}) {
+			for (int levels : new int[] {8, 12}) {
+				benchmarks.add(generateTables(type, levels));
+			}
+		}
+		
+		benchmarks.add(parseSamples());
+		for (String source : new String[] {"stream", "mapped", "binary"}) {
+			benchmarks.add(readSamples(source));
+		}
+		
+		return benchmarks;
+	} // end method all.
+	
+	/**
+	 * @return a configuration with the default settings apart from the given parameters.
+	 */
+	private static Configuration configuration(String type, int aging, int startLevel, int stopLevel,
+			boolean wavelets, double discretization) {
+		return configuration(type, aging, startLevel, stopLevel, wavelets, discretization,
+				Settings.exactNormalize, false, Integer.MAX_VALUE, 0, 0);
+	} // end method configuration.
+	
+	/**
+	 * @return a configuration with the default settings apart from the given parameters.
+	 */
+	private static Configuration configuration(String type, int aging, int startLevel, int stopLevel,
+			boolean wavelets, double discretization, int normalization, boolean incremental, int parallelThreshold,
+			int ingestThreads, int shards) {
+		return new Configuration.Builder().waveletType(type).agingFlag(aging).startLevel(startLevel).stopLevel(stopLevel)
+				.waveletFlag(wavelets).discretization(discretization).normalizationFlag(normalization)
+				.incrementalFlag(incremental).parallelThreshold(parallelThreshold).ingestThreads(ingestThreads).shards(shards)
+				.interpolationFlag(Settings.linearInterp).tableLevels(0)
+				.thresholdFlag(Settings.noThreshold).thresholdRule(Settings.universalThreshold).build();
+	} // end method configuration.
+	
+	/**
+	 * @return a window aged configuration with wavelets, whose wavelet coefficients are thresholded
+	 */
+	private static Configuration thresholded(String type, int startLevel, int stopLevel, double discretization,
+			int threshold, int rule) {
+		return new Configuration.Builder(configuration(type, Settings.windowAge, startLevel, stopLevel, true, discretization))
+				.thresholdFlag(threshold).thresholdRule(rule).build();
+	} // end method thresholded.
+	
+	/**
+	 * @return a description of a configuration's parameters for benchmark ids.
+	 */
+	private static String describe(Configuration c) {
+		return "wavelet=" + c.waveletType + ",aging=" + AGING_NAMES[c.agingFlag]
+				+ ",levels=" + c.startLevel + "-" + c.stopLevel + ",wavelets=" + c.waveletFlag
+				+ (c.isThresholded() ? ",threshold=" + THRESHOLD_NAMES[c.thresholdFlag]
+						+ "/" + THRESHOLD_RULE_NAMES[c.thresholdRule] : "");
+	} // end method describe.
+	
+	/**
+	 * Updating the coefficients with one sample.
+	 */
+	private static Benchmark updateCoefficients(final Configuration configuration) {
+		return new Benchmark("updateCoefficients", describe(configuration)) {
+			private DensityEstimator estimator;
+			private double[] samples;
+			private int next;
+			
+			public void setup() throws IOException {
+				estimator = new DensityEstimator(configuration);
+				samples   = loadSamples();
+				next      = 0;
+			}
+			
+			public double op() {
+				estimator.updateCoefficients(samples[next]);
+				next = (next + 1) % samples.length;
+				return next;
+			}
+		};
+	} // end method updateCoefficients.
+	
+	/**
+	 * Updating the coefficients with a block of samples.
+	 */
+	private static Benchmark updateCoefficientsBlock(final Configuration configuration, final int block) {
+		return new Benchmark("updateCoefficientsBlock", describe(configuration) + ",block=" + block
+				+ (configuration.ingestThreads > 0 ? ",threads=" + configuration.ingestThreads : "")
+				+ (configuration.shards > 0 ? ",shards=" + configuration.shards : "")) {
+			private DensityEstimator estimator;
+			private double[] samples;
+			private int next;
+			
+			public void setup() throws IOException {
+				estimator = new DensityEstimator(configuration);
+				samples   = loadSamples();
+				next      = 0;
+			}
+			
+			public double op() {
+				if (next + block > samples.length) {
+					next = 0;
+				}
+				estimator.updateCoefficients(samples, next, block);
+				estimator.flush();
+				next += block;
+				return next;
+			}
+		};
+	} // end method updateCoefficientsBlock.
+	
+	/**
+	 * Updating the coefficients with one timestamped sample, the samples
+	 * arriving at the given rate.
+	 */
+	private static Benchmark updateCoefficientsTimed(final Configuration configuration, final int samplesPerSecond) {
+		return new Benchmark("updateCoefficientsTimed", describe(configuration) + ",rate=" + samplesPerSecond) {
+			private DensityEstimator estimator;
+			private double[] samples;
+			private int next;
+			private double time;
+			
+			public void setup() throws IOException {
+				estimator = new DensityEstimator(configuration);
+				samples   = loadSamples();
+				next      = 0;
+				time      = 0;
+			}
+			
+			public double op() {
+				time += 1.0 / samplesPerSecond;
+				estimator.updateCoefficients(time, samples[next]);
+				next = (next + 1) % samples.length;
+				return next;
+			}
+		};
+	} // end method updateCoefficientsTimed.
+	
+	/**
+	 * Evaluating the normalized density on the grid.
+	 */
+	private static Benchmark getDensity(final Configuration configuration) {
+		return new Benchmark("getDensity", describe(configuration) + ",discretization=" + configuration.discretization
+				+ (configuration.parallelThreshold == 0 ? ",parallel=true" : "")) {
+			private DensityEstimator estimator;
+			
+			public void setup() throws IOException {
+				estimator = new DensityEstimator(configuration);
+				double[] samples = loadSamples();
+				estimator.updateCoefficients(samples, 0, samples.length);
+			}
+			
+			public double op() {
+				return estimator.getDensity()[0];
+			}
+		};
+	} // end method getDensity.
+	
+	/**
+	 * Updating the coefficients with a few samples and then evaluating the density,
+	 * as the plot does at every update.
+	 */
+	private static Benchmark snapshot(final Configuration configuration, final int samplesPerSnapshot) {
+		return new Benchmark("snapshot", describe(configuration) + ",discretization=" + configuration.discretization
+				+ ",incremental=" + configuration.incrementalFlag + ",samples=" + samplesPerSnapshot) {
+			private DensityEstimator estimator;
+			private double[] samples;
+			private int next;
+			
+			public void setup() throws IOException {
+				estimator = new DensityEstimator(configuration);
+				samples   = loadSamples();
+				estimator.updateCoefficients(samples, 0, samples.length);
+				estimator.getDensity();
+				next      = 0;
+			}
+			
+			public double op() {
+				if (next + samplesPerSnapshot > samples.length) {
+					next = 0;
+				}
+				estimator.updateCoefficients(samples, next, samplesPerSnapshot);
+				next += samplesPerSnapshot;
+				return estimator.getDensity()[0];
+			}
+		};
+	} // end method snapshot.
+	
+	/**
+	 * Answering a point query from a density function, or taking the
+	 * density function itself after adding a sample (the function is kept
+	 * until the coefficients change), at points sweeping the density domain.
+	 */
+	private static Benchmark pointQuery(final Configuration configuration, final String query) {
+		return new Benchmark("pointQuery", describe(configuration) + ",query=" + query) {
+			private static final int POINTS = 1000;
+			private DensityEstimator estimator;
+			private DensityFunction function;
+			private int next;
+			
+			public void setup() throws IOException {
+				estimator = new DensityEstimator(configuration);
+				double[] samples = loadSamples();
+				estimator.updateCoefficients(samples, 0, samples.length);
+				function  = estimator.getDensityFunction();
+				next      = 0;
+			}
+			
+			public double op() {
+				next = (next + 1) % POINTS;
+				double fraction = (next + 0.5) / POINTS;
+				double x = configuration.getMinimumRange()
+						+ fraction * (configuration.getMaximumRange() - configuration.getMinimumRange());
+				switch (query) {
+					case "function" :
+						estimator.updateCoefficients(x);
+						return estimator.getDensityFunction().getWaterLevel();
+					case "density" :
+						return function.getDensityAt(x);
+					case "cumulative" :
+						return function.getCumulativeAt(x);
+					default :
+						return function.getQuantile(fraction);
+				}
+			}
+		};
+	} // end method pointQuery.
+	
+	/**
+	 * Evaluating a density function at a batch of points drawn from the
+	 * samples, one point at a time or all together.
+	 */
+	private static Benchmark densityBatch(final Configuration configuration, final int points, final boolean batch) {
+		return new Benchmark("densityBatch", describe(configuration) + ",points=" + points + ",batch=" + batch) {
+			private DensityFunction function;
+			private double[] xs;
+			private double[] densities;
+			
+			public void setup() throws IOException {
+				DensityEstimator estimator = new DensityEstimator(configuration);
+				double[] samples = loadSamples();
+				estimator.updateCoefficients(samples, 0, samples.length);
+				function  = estimator.getDensityFunction();
+				xs        = new double[points];
+				densities = new double[points];
+				for (int i = 0; i < points; i++) {
+					xs[i] = samples[(int) ((long) i * 7919 % samples.length)];
+				}
+			}
+			
+			public double op() {
+				if (batch) {
+					function.getDensityAt(xs, densities);
+				}
+				else {
+					for (int i = 0; i < points; i++) {
+						densities[i] = function.getDensityAt(xs[i]);
+					}
+				}
+				return densities[points - 1];
+			}
+		};
+	} // end method densityBatch.
+	
+	/**
+	 * Updating one of many keys in a registry with one sample, the keys
+	 * taking turns.
+	 */
+	private static Benchmark registryUpdate(final Configuration configuration, final int keys) {
+		return new Benchmark("registryUpdate", describe(configuration) + ",keys=" + keys) {
+			private EstimatorRegistry registry;
+			private String[] names;
+			private double[] samples;
+			private int next;
+			
+			public void setup() throws IOException {
+				registry = new EstimatorRegistry(configuration, null);
+				samples  = loadSamples();
+				names    = new String[keys];
+				for (int k = 0; k < keys; k++) {
+					names[k] = "metric." + k;
+					registry.update(names[k], samples[k % samples.length]);
+				}
+				next = 0;
+			}
+			
+			public double op() {
+				try
+				{
+					registry.update(names[next % keys], samples[next % samples.length]);
+				}
+				catch (IOException ex) {
+					throw new IllegalStateException(ex);
+				}
+				next++;
+				return next;
+			}
+		};
+	} // end method registryUpdate.
+	
+	/**
+	 * Saving the estimator's state to a checkpoint file, or restoring it.
+	 */
+	private static Benchmark checkpoint(final Configuration configuration, final boolean save) {
+		return new Benchmark(save ? "saveCheckpoint" : "restoreCheckpoint", describe(configuration)
+				+ ",window=" + configuration.windowSize) {
+			private DensityEstimator estimator;
+			private String file;
+			
+			public void setup() throws IOException {
+				estimator = new DensityEstimator(configuration);
+				double[] samples = loadSamples();
+				estimator.updateCoefficients(samples, 0, samples.length);
+				File checkpoint = File.createTempFile("checkpoint", ".bin");
+				checkpoint.deleteOnExit();
+				file = checkpoint.getPath();
+				estimator.saveCheckpoint(file);
+			}
+			
+			public double op() {
+				try
+				{
+					if (save) {
+						estimator.saveCheckpoint(file);
+					}
+					else {
+						estimator.restoreCheckpoint(file);
+					}
+				}
+				catch (IOException ex) {
+					throw new IllegalStateException(ex);
+				}
+				return estimator.getSampleCount();
+			}
+		};
+	} // end method checkpoint.
+	
+	/**
+	 * Normalizing an un-normalized density with a given shape.
+	 */
+	private static Benchmark normalizeDensity(final String shape, int normalization) {
+		final Configuration configuration = configuration("db6", Settings.windowAge, 1, 1, false, .01, normalization, false, Integer.MAX_VALUE, 0, 0);
+		return new Benchmark("normalizeDensity", "shape=" + shape + ",method="
+				+ (normalization == Settings.iterativeNormalize ? "iterative" : "exact")) {
+			private double[] input;
+			private double[] work;
+			
+			public void setup() {
+				double[] points = configuration.getGridPoints();
+				input = new double[points.length];
+				work  = new double[points.length];
+				for (int i = 0; i < points.length; i++) {
+					double x = points[i];
+					if (shape.equals("gaussian"))         input[i] = Math.exp(-x * x / 2) / Math.sqrt(2 * Math.PI);
+					else if (shape.equals("allNegative")) input[i] = -1.0 - x * x;
+					else if (shape.equals("zero"))        input[i] = 0.0;
+					else if (shape.equals("spike"))       input[i] = (i == points.length / 2) ? 1e6 : -1e-3;
+					else if (shape.equals("alternating")) input[i] = (i % 2 == 0) ? 2.0 : -2.0;
+					else if (shape.equals("lowMass"))     input[i] = 1e-6 * Math.exp(-x * x / 2);
+				}
+			}
+			
+			public double op() {
+				System.arraycopy(input, 0, work, 0, input.length);
+				return DensityHelper.normalizeDensity(work, configuration)[0];
+			}
+		};
+	} // end method normalizeDensity.
+	
+	/**
+	 * Interpolating the scaling function at positions spread over its support,
+	 * from the precompiled tables or from tables generated at the given levels.
+	 */
+	private static Benchmark interpolate(final String type, final int interpolation, final int levels) {
+		return new Benchmark("interpolate", "wavelet=" + type + ",interpolation="
+				+ (interpolation == Settings.cubicInterp ? "cubic" : "linear")
+				+ (levels > 0 ? ",levels=" + levels : "")) {
+			private Wavelet wavelet;
+			private double[] positions;
+			private int next;
+			
+			public void setup() {
+				wavelet   = Wavelet.getInstance(type, interpolation, levels);
+				positions = new double[4096];
+				double[] support = wavelet.getSupport();
+				Random random = new Random(42);
+				for (int i = 0; i < positions.length; i++) {
+					positions[i] = support[0] + random.nextDouble() * (support[1] - support[0]);
+				}
+				next = 0;
+			}
+			
+			public double op() {
+				next = (next + 1) & (positions.length - 1);
+				return wavelet.getPhiAt(positions[next]);
+			}
+		};
+	} // end method interpolate.
+	
+	/**
+	 * Generating the look-up tables of a wavelet type from its filter.
+	 */
+	private static Benchmark generateTables(final String type, final int levels) {
+		return new Benchmark("generateTables", "wavelet=" + type + ",levels=" + levels) {
+			public double op() {
+				return WaveletCascade.generate(type, levels).phi[1];
+			}
+		};
+	} // end method generateTables.
+	
+	/**
+	 * Parsing the bundled data file, one sample per line, from memory.
+	 */
+	private static Benchmark parseSamples() {
+		return new Benchmark("parseSamples", "file=skewUni2Claw.csv") {
+			private byte[] data;
+			
+			public void setup() throws IOException {
+				data = readResource(StreamRunner.DEFAULT_DATA);
+			}
+			
+			public double op() {
+				double sum = 0.0;
+				try
+				{
+					BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(data), "US-ASCII"));
+					String line;
+					while ((line = reader.readLine()) != null) {
+						sum += Double.parseDouble(line);
+					}
+				}
+				catch (IOException ex) {
+					throw new IllegalStateException(ex);
+				}
+				return sum;
+			}
+		};
+	} // end method parseSamples.
+	
+	/**
+	 * Reading the bundled data file through a SampleSource, from memory, from
+	 * a memory-mapped copy of it, or from a binary sample file holding it.
+	 */
+	private static Benchmark readSamples(final String source) {
+		return new Benchmark("readSamples", "file=skewUni2Claw.csv,source=" + source) {
+			private byte[] data;
+			private File file;
+			private double[] block;
+			
+			public void setup() throws IOException {
+				data  = readResource(StreamRunner.DEFAULT_DATA);
+				block = new double[1024];
+				if (source.equals("mapped")) {
+					file = File.createTempFile("samples", ".csv");
+					file.deleteOnExit();
+					FileOutputStream out = new FileOutputStream(file);
+					out.write(data);
+					out.close();
+				}
+				else if (source.equals("binary")) {
+					file = File.createTempFile("samples", ".bin");
+					file.deleteOnExit();
+					BinarySampleWriter out = new BinarySampleWriter(file.getPath(), false, false);
+					for (double sample : loadSamples()) {
+						out.write(sample);
+					}
+					out.close();
+				}
+			}
+			
+			public double op() {
+				double sum = 0.0;
+				try
+				{
+					SampleSource samples = (file == null) ? new StreamSampleSource(new ByteArrayInputStream(data))
+							: StreamRunner.openSamples(file.getPath());
+					int count;
+					do {
+						count = samples.read(block, 0, block.length);
+						for (int i = 0; i < count; i++) {
+							sum += block[i];
+						}
+					} while (count == block.length);
+					samples.close();
+				}
+				catch (IOException ex) {
+					throw new IllegalStateException(ex);
+				}
+				return sum;
+			}
+		};
+	} // end method readSamples.
+	
+	/**
+	 * @return the samples in the bundled data file.
+	 */
+	private static double[] loadSamples() throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new ByteArrayInputStream(readResource(StreamRunner.DEFAULT_DATA)), "US-ASCII"));
+		List<Double> values = new ArrayList<Double>();
+		String line;
+		while ((line = reader.readLine()) != null) {
+			values.add(Double.parseDouble(line));
+		}
+		double[] samples = new double[values.size()];
+		for (int i = 0; i < samples.length; i++) {
+			samples[i] = values.get(i);
+		}
+		return samples;
+	} // end method loadSamples.
+	
+	/**
+	 * @return the contents of a resource on the class path.
+	 */
+	private static byte[] readResource(String name) throws IOException {
+		InputStream in = EstimatorBenchmarks.class.getResourceAsStream(name);
+		if (in == null) {
+			throw new IOException("Missing resource " + name);
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = in.read(buffer)) > 0) {
+			bytes.write(buffer, 0, read);
+		}
+		in.close();
+		return bytes.toByteArray();
+	} // end method readResource.
+
+} // end class EstimatorBenchmarks.
@@ -0,0 +1,297 @@
+package edu.fit.estimator1D;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The values of every basis function at every point of the density grid,
+ * stored as one banded sparse matrix per resolution level.
+ * 
+ * These values depend only on the grid, the resolution levels and the
+ * wavelet, never on the data, so they are computed once and evaluating the
+ * density becomes a sparse matrix-vector product with the coefficients.
+ * Matrices are cached process-wide by the parameters they depend on, so
+ * estimators with the same parameters share one matrix.
+ * 
+ * Each level stores width values for every grid point, so a matrix takes
+ * about 8 * levels * grid points * width bytes: over 500 MB for dmey
+ * (width 102) with ten levels and a grid of 70000 points. The cache keeps
+ * the most recently used matrices up to CACHE_BYTES in all, and a matrix
+ * larger than that is built for its estimator alone and never cached.
+ * 
+ * Large grids are evaluated in parallel, in chunks of grid points small
+ * enough for their basis values to stay in cache, with every level summed
+ * in the same pass over a chunk. When the wavelet coefficients are
+ * thresholded, the wavelet levels are instead evaluated column by column,
+ * adding each surviving coefficient to the grid points it supports.
+ * 
+ * @author Daniel Weinand & Gedeon Nyengele
+ */
+public class BasisMatrix {
+	
+	// Most bytes of matrices kept in the cache.
+	private static final long CACHE_BYTES = 256L << 20;
+	
+	// Number of grid points evaluated by one parallel task.
+	private static final int CHUNK_ROWS = 2048;
+	
+	// Threads evaluating large grids, shared by all estimators.
+	private static final ForkJoinPool pool = new ForkJoinPool();
+	
+	// Cached matrices by the parameters they were built from, least recently used first,
+	// and the bytes they take in all.
+	private static final Map<String, BasisMatrix> cache = new LinkedHashMap<String, BasisMatrix>(8, 0.75f, true);
+	private static long cachedBytes;
+	
+	// Number of grid points (rows).
+	final int rows;
+	
+	// Largest number of translates which can support a point (band width).
+	final int width;
+	
+	// For each level (scaling functions first, then the wavelet levels) and
+	// grid point, the index of the first coefficient supporting the point.
+	final int[][] first;
+	
+	// For each level and grid point, the number of coefficients supporting the point.
+	final int[][] count;
+	
+	// For each level, the normalized basis values: row i holds width entries
+	// starting at i * width, of which the first count[level][i] are used.
+	final double[][] values;
+	
+	// For each level and coefficient, the first and last grid points the
+	// coefficient's basis function supports (last is below first if none).
+	final int[][] firstRow;
+	final int[][] lastRow;
+	
+	// Bytes taken by the arrays above.
+	final long bytes;
+	
+	
+	/**
+	 * Returns the basis matrix for an estimator, building it if no estimator
+	 * with the same grid, levels and wavelet has needed it recently. The
+	 * least recently used matrices are dropped from the cache until it
+	 * fits in CACHE_BYTES again.
+	 * @param configuration : the estimator's parameters
+	 * @param wavelet       : the wavelet used
+	 * @param transform     : the estimator's coefficients, giving the translates at each level
+	 * @return the shared basis matrix
+	 */
+	public static BasisMatrix getInstance(Configuration configuration, Wavelet wavelet, Transform transform) {
+		
+		String key = configuration.waveletType + "/" + configuration.tableLevels + "/" + configuration.interpolationFlag
+				+ "/" + configuration.startLevel + "/" + configuration.stopLevel
+				+ "/" + configuration.waveletFlag + "/" + configuration.discretization
+				+ "/" + configuration.getMinimumRange() + "/" + configuration.getMaximumRange();
+		
+		synchronized (cache) {
+			BasisMatrix matrix = cache.get(key);
+			if (matrix == null) {
+				matrix = new BasisMatrix(configuration, wavelet, transform);
+				if (matrix.bytes > CACHE_BYTES) {
+					return matrix;
+				}
+				cache.put(key, matrix);
+				cachedBytes += matrix.bytes;
+				Iterator<BasisMatrix> eldest = cache.values().iterator();
+				while (cachedBytes > CACHE_BYTES) {
+					cachedBytes -= eldest.next().bytes;
+					eldest.remove();
+				}
+			}
+			return matrix;
+		}
+	} // end getInstance
+	
+	/**
+	 * Computes the basis values at every grid point.
+	 */
+	private BasisMatrix(Configuration configuration, Wavelet wavelet, Transform transform) {
+		
+		double[] support = wavelet.getSupport();
+		double[] points  = configuration.getGridPoints();
+		int levels = configuration.waveletFlag ? configuration.stopLevel - configuration.startLevel + 2 : 1;
+		
+		rows   = points.length;
+		width  = (int) Math.floor(support[1] - support[0]) + 1;
+		first  = new int[levels][rows];
+		count  = new int[levels][rows];
+		values = new double[levels][rows * width];
+		firstRow = new int[levels][];
+		lastRow  = new int[levels][];
+		long total = 8L * levels * rows;
+		
+		for (int level = 0; level < levels; level++) {
+			
+			// The scaling functions use the start level, which is also the first wavelet level
+			int j = configuration.startLevel + Math.max(level - 1, 0);
+			boolean wavelets = level > 0;
+			double dyadicScale = Math.pow(2, j);
+			double normalizer  = Math.pow(2, j/2.0);
+			int offset   = wavelets ? transform.waveletOffsets[level - 1] : transform.scalingOffset;
+			int numCoefs = wavelets ? transform.waveletCounts[level - 1] : transform.scalingCount;
+			firstRow[level] = new int[numCoefs];
+			lastRow[level]  = new int[numCoefs];
+			Arrays.fill(firstRow[level], rows);
+			Arrays.fill(lastRow[level], -1);
+			total += 8L * rows * width + 8L * numCoefs;
+			
+			for (int i = 0; i < rows; i++) {
+				
+				// Find the translates which support the point
+				double scaledX = dyadicScale * points[i];
+				int firstIndex = DensityHelper.firstRelevantIndex(scaledX, offset, support[1]);
+				int lastIndex  = DensityHelper.lastRelevantIndex(scaledX, offset, numCoefs, support[0]);
+				first[level][i] = firstIndex;
+				count[level][i] = Math.max(lastIndex - firstIndex + 1, 0);
+				
+				for (int t = 0; t < count[level][i]; t++) {
+					firstRow[level][firstIndex + t] = Math.min(firstRow[level][firstIndex + t], i);
+					lastRow[level][firstIndex + t]  = i;
+					double Xi = scaledX - (offset + firstIndex + t);
+					values[level][i * width + t] = normalizer
+							* (wavelets ? wavelet.getPsiAt(Xi) : wavelet.getPhiAt(Xi));
+				}
+			}
+		}
+		bytes = total;
+	}
+	
+	/**
+	 * Computes the un-normalized density at every grid point from the coefficients.
+	 * @param transform         : the coefficients, laid out as when the matrix was built
+	 * @param density           : array to hold the density at each grid point
+	 * @param parallelThreshold : the number of grid points from which the grid is evaluated in parallel
+	 */
+	public void multiply(Transform transform, double[] density, int parallelThreshold) {
+		evaluate(transform, density, transform.scale, values.length, parallelThreshold);
+	} // end multiply
+	
+	/**
+	 * Computes the un-normalized density at every grid point from the
+	 * scaling coefficients and the thresholded wavelet coefficients.
+	 * @param transform         : the coefficients, laid out as when the matrix was built
+	 * @param sparse            : the wavelet coefficients surviving thresholding
+	 * @param density           : array to hold the density at each grid point
+	 * @param parallelThreshold : the number of grid points from which the grid is evaluated in parallel
+	 */
+	void multiply(Transform transform, SparseCoefficients sparse, double[] density, int parallelThreshold) {
+		
+		evaluate(transform, density, transform.scale, 1, parallelThreshold);
+		
+		for (int level = 1; level < values.length; level++) {
+			double[] levelValues = values[level];
+			int[] firstIndex     = first[level];
+			int[] indices        = sparse.indices[level - 1];
+			double[] survivors   = sparse.values[level - 1];
+			for (int c = 0; c < indices.length; c++) {
+				int k = indices[c];
+				double coefficient = survivors[c];
+				for (int i = firstRow[level][k]; i <= lastRow[level][k]; i++) {
+					density[i] += coefficient * levelValues[i * width + k - firstIndex[i]];
+				}
+			}
+		}
+	} // end multiply
+	
+	/**
+	 * Computes the un-normalized density at every grid point from the stored
+	 * coefficients, without applying their shared scale.
+	 * @param transform         : the coefficients, laid out as when the matrix was built
+	 * @param density           : array to hold the density at each grid point
+	 * @param parallelThreshold : the number of grid points from which the grid is evaluated in parallel
+	 */
+	void multiplyStored(Transform transform, double[] density, int parallelThreshold) {
+		evaluate(transform, density, 1.0, values.length, parallelThreshold);
+	} // end multiplyStored
+	
+	/**
+	 * Computes the density from the first levels at every grid point, on the
+	 * calling thread for small grids and across the shared pool otherwise.
+	 */
+	private void evaluate(Transform transform, double[] density, double scale, int levels, int parallelThreshold) {
+		if (rows < parallelThreshold || rows <= CHUNK_ROWS) {
+			evaluateRows(transform, density, scale, levels, 0, rows);
+		}
+		else {
+			pool.invoke(new RowTask(transform, density, scale, levels, 0, rows));
+		}
+	} // end evaluate
+	
+	/**
+	 * Computes the density at a range of grid points, summing every level's
+	 * contribution to a point before moving on to the next point.
+	 * @param transform : the coefficients, laid out as when the matrix was built
+	 * @param density   : array to hold the density at each grid point
+	 * @param scale     : the factor to multiply the sums by
+	 * @param levels    : the number of levels summed, the scaling functions first
+	 * @param from      : the first grid point
+	 * @param to        : one past the last grid point
+	 */
+	private void evaluateRows(Transform transform, double[] density, double scale, int levels, int from, int to) {
+		for (int i = from; i < to; i++) {
+			double sum = rowProduct(0, i, transform.scalingCoefficients);
+			for (int level = 1; level < levels; level++) {
+				sum += rowProduct(level, i, transform.waveletCoefficients[level - 1]);
+			}
+			density[i] = sum * scale;
+		}
+	} // end evaluateRows
+	
+	/**
+	 * @return the sum of one row of a level's matrix times the level's coefficients
+	 */
+	private double rowProduct(int level, int row, double[] coefficients) {
+		double sum = 0.0;
+		double[] levelValues = values[level];
+		int base  = row * width;
+		int index = first[level][row];
+		for (int t = 0; t < count[level][row]; t++) {
+			sum += levelValues[base + t] * coefficients[index + t];
+		}
+		return sum;
+	} // end rowProduct
+	
+	/**
+	 * Evaluates a range of grid points, splitting it in half until it is
+	 * at most one chunk.
+	 */
+	private class RowTask extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final Transform transform;
+		private final double[] density;
+		private final double scale;
+		private final int levels;
+		private final int from;
+		private final int to;
+		
+		RowTask(Transform transform, double[] density, double scale, int levels, int from, int to) {
+			this.transform = transform;
+			this.density   = density;
+			this.scale     = scale;
+			this.levels    = levels;
+			this.from      = from;
+			this.to        = to;
+		}
+		
+		protected void compute() {
+			if (to - from <= CHUNK_ROWS) {
+				evaluateRows(transform, density, scale, levels, from, to);
+			}
+			else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new RowTask(transform, density, scale, levels, from, middle),
+						new RowTask(transform, density, scale, levels, middle, to));
+			}
+		}
+	} // end class RowTask
+
+} // end class BasisMatrix.
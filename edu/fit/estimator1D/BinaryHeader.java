@@ -0,0 +1,155 @@
+package edu.fit.estimator1D;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * The header of a binary sample file.
+ * 
+ * A binary sample file holds the samples as a column of little-endian
+ * doubles, or floats, optionally followed by a column of the same number of
+ * little-endian double timestamps. The columns follow this header:
+ * 
+ *   bytes  0-3   magic number 0x89 'S' 'M' 'P'
+ *   bytes  4-5   format version
+ *   bytes  6-7   flags: 1 if the samples are floats, 2 if there are timestamps
+ *   bytes  8-15  number of samples
+ *   bytes 16-23  smallest sample
+ *   bytes 24-31  largest sample
+ * 
+ * The first byte cannot begin a line of text, so text files are never
+ * mistaken for binary ones.
+ * 
+ * @author Gedeon Nyengele & Daniel Weinand
+ */
+public class BinaryHeader {
+	
+	// Bytes before the first sample.
+	public static final int SIZE = 32;
+	
+	// The current format version.
+	public static final short VERSION = 1;
+	
+	// Flag set when the samples are stored as floats.
+	public static final short FLOAT_SAMPLES = 1;
+	
+	// Flag set when the samples are followed by a column of timestamps.
+	public static final short TIMESTAMPS = 2;
+	
+	// The first bytes of every binary sample file.
+	private static final byte[] MAGIC = {(byte) 0x89, 'S', 'M', 'P'};
+	
+	public final boolean floatSamples;		// Whether the samples are floats rather than doubles
+	public final boolean timestamps;		// Whether a timestamp column follows the samples
+	public final long count;				// Number of samples
+	public final double minimum;			// Smallest sample, or 0 if there are none
+	public final double maximum;			// Largest sample, or 0 if there are none
+	
+	/**
+	 * Constructor.
+	 * @param floatSamples : whether the samples are floats rather than doubles.
+	 * @param timestamps   : whether a timestamp column follows the samples.
+	 * @param count        : number of samples.
+	 * @param minimum      : smallest sample.
+	 * @param maximum      : largest sample.
+	 */
+	public BinaryHeader(boolean floatSamples, boolean timestamps, long count, double minimum, double maximum) {
+		this.floatSamples = floatSamples;
+		this.timestamps   = timestamps;
+		this.count        = count;
+		this.minimum      = minimum;
+		this.maximum      = maximum;
+	}
+	
+	/**
+	 * @return the number of bytes taken by each sample.
+	 */
+	public int sampleBytes() {
+		return floatSamples ? 4 : 8;
+	}
+	
+	/**
+	 * @return the offset in the file of the first timestamp.
+	 */
+	public long timestampOffset() {
+		return SIZE + count * sampleBytes();
+	}
+	
+	/**
+	 * @return the header as it is stored in the file.
+	 */
+	public ByteBuffer toBytes() {
+		ByteBuffer bytes = ByteBuffer.allocate(SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		bytes.put(MAGIC);
+		bytes.putShort(VERSION);
+		bytes.putShort((short) ((floatSamples ? FLOAT_SAMPLES : 0) | (timestamps ? TIMESTAMPS : 0)));
+		bytes.putLong(count);
+		bytes.putDouble(minimum);
+		bytes.putDouble(maximum);
+		bytes.flip();
+		return bytes;
+	} // end method toBytes.
+	
+	/**
+	 * Reads the header at the start of a file.
+	 * @param channel : the file.
+	 * @return the header, or null if the file is not a binary sample file.
+	 * @throws IOException if the file cannot be read, or is a binary sample
+	 *         file of another version or shorter than its header claims.
+	 */
+	public static BinaryHeader read(FileChannel channel) throws IOException {
+		
+		ByteBuffer bytes = ByteBuffer.allocate(SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		while (bytes.hasRemaining()) {
+			if (channel.read(bytes, bytes.position()) < 0) {
+				break;
+			}
+		}
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (bytes.position() <= i || bytes.get(i) != MAGIC[i]) {
+				return null;
+			}
+		}
+		if (bytes.hasRemaining()) {
+			throw new IOException("Binary sample file is shorter than its header");
+		}
+		
+		bytes.flip();
+		bytes.position(MAGIC.length);
+		short version = bytes.getShort();
+		if (version != VERSION) {
+			throw new IOException("Unsupported binary sample file version " + version);
+		}
+		short flags = bytes.getShort();
+		BinaryHeader header = new BinaryHeader((flags & FLOAT_SAMPLES) != 0, (flags & TIMESTAMPS) != 0,
+				bytes.getLong(), bytes.getDouble(), bytes.getDouble());
+		
+		long expected = header.timestampOffset() + (header.timestamps ? header.count * 8 : 0);
+		if (header.count < 0 || channel.size() < expected) {
+			throw new IOException("Binary sample file is shorter than its header claims");
+		}
+		return header;
+	} // end method read.
+	
+	/**
+	 * Reads the header of a data file.
+	 * @param fileName : the file.
+	 * @return the header, or null if the file is not a binary sample file.
+	 * @throws IOException if the file cannot be read.
+	 */
+	public static BinaryHeader read(String fileName) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		try
+		{
+			return read(file.getChannel());
+		}
+		finally
+		{
+			file.close();
+		}
+	} // end method read.
+
+} // end class BinaryHeader.
@@ -0,0 +1,142 @@
+package edu.fit.estimator1D;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads the samples in a binary sample file (see BinaryHeader).
+ * 
+ * The sample column is mapped into memory in chunks, as for text files, and
+ * the samples are copied straight from the mapped pages into the caller's
+ * array, with no parsing and no copying in between. The timestamp column,
+ * if the file has one, is mapped alongside the samples.
+ * 
+ * @author Gedeon Nyengele & Daniel Weinand
+ */
+public class BinarySampleSource implements SampleSource {
+	
+	private final RandomAccessFile file;		// The file being read
+	private final FileChannel channel;			// Its channel, for mapping
+	private final BinaryHeader header;			// Its header
+	private final long chunkSamples;			// Largest number of samples mapped at once
+	private MappedByteBuffer chunk;				// The mapped samples
+	private MappedByteBuffer timeChunk;			// The mapped timestamps of the same samples, if read
+	private long chunkStart;					// Index of the first mapped sample
+	private long next;							// Index of the next sample to read
+	
+	/**
+	 * Constructor.
+	 * @param fileName : the file to read.
+	 * @throws IOException if the file cannot be opened or is not a binary sample file.
+	 */
+	public BinarySampleSource(String fileName) throws IOException {
+		this.file    = new RandomAccessFile(fileName, "r");
+		this.channel = file.getChannel();
+		BinaryHeader fileHeader;
+		try
+		{
+			fileHeader = BinaryHeader.read(channel);
+		}
+		catch (IOException ex) {
+			file.close();
+			throw ex;
+		}
+		if (fileHeader == null) {
+			file.close();
+			throw new IOException(fileName + " is not a binary sample file");
+		}
+		this.header       = fileHeader;
+		this.chunkSamples = MappedSampleSource.CHUNK_SIZE / header.sampleBytes();
+		this.chunkStart   = 0;
+		this.next         = 0;
+	}
+	
+	/**
+	 * @return the file's header.
+	 */
+	public BinaryHeader getHeader() {
+		return header;
+	}
+	
+	public int read(double[] samples, int off, int len) throws IOException {
+		return read(samples, null, off, len);
+	} // end method read.
+	
+	/**
+	 * Reads the next samples and their timestamps into arrays.
+	 * @param samples    : array to store the samples in.
+	 * @param timestamps : array to store the timestamps in, at the same indexes as the samples,
+	 *                     or null if they are not needed.
+	 * @param off        : index of the first sample to store.
+	 * @param len        : the largest number of samples to store.
+	 * @return the number of samples stored, which is less than len only
+	 *         once the input has ended.
+	 * @throws IOException if the file cannot be read.
+	 * @throws IllegalStateException if timestamps are asked for but the file has none.
+	 */
+	public int read(double[] samples, double[] timestamps, int off, int len) throws IOException {
+		
+		if (timestamps != null && !header.timestamps) {
+			throw new IllegalStateException("The sample file has no timestamps");
+		}
+		
+		int count = 0;
+		while (count < len && next < header.count) {
+			
+			// Map the next chunk once this one is used up
+			if (chunk == null || next == chunkStart + chunkSamples) {
+				chunkStart = next;
+				long size = Math.min(chunkSamples, header.count - next) * header.sampleBytes();
+				chunk = channel.map(FileChannel.MapMode.READ_ONLY, BinaryHeader.SIZE + next * header.sampleBytes(), size);
+				chunk.order(ByteOrder.LITTLE_ENDIAN);
+				timeChunk = null;
+			}
+			if (timestamps != null && timeChunk == null) {
+				long size = Math.min(chunkSamples, header.count - chunkStart) * 8;
+				timeChunk = channel.map(FileChannel.MapMode.READ_ONLY, header.timestampOffset() + chunkStart * 8, size);
+				timeChunk.order(ByteOrder.LITTLE_ENDIAN);
+			}
+			
+			int index = (int) (next - chunkStart);
+			int n = (int) Math.min(len - count, Math.min(chunkStart + chunkSamples, header.count) - next);
+			if (timestamps != null) {
+				timeChunk.position(index << 3);
+				timeChunk.asDoubleBuffer().get(timestamps, off + count, n);
+			}
+			if (header.floatSamples) {
+				for (int i = 0; i < n; i++) {
+					samples[off + count + i] = chunk.getFloat((index + i) << 2);
+				}
+			}
+			else {
+				chunk.position(index << 3);
+				chunk.asDoubleBuffer().get(samples, off + count, n);
+			}
+			count += n;
+			next += n;
+		}
+		return count;
+	} // end method read.
+	
+	/**
+	 * Binary files hold no malformed samples.
+	 */
+	public long getMalformedCount() {
+		return 0;
+	}
+	
+	public long getFirstMalformedLine() {
+		return 0;
+	}
+	
+	/**
+	 * Closes the file. The mapped chunk is released once it is garbage collected.
+	 */
+	public void close() throws IOException {
+		file.close();
+	} // end method close.
+
+} // end class BinarySampleSource.
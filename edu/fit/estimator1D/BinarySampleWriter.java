@@ -0,0 +1,194 @@
+package edu.fit.estimator1D;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes a binary sample file (see BinaryHeader).
+ * 
+ * The header is written last, once the number of samples and their range
+ * are known. Timestamps are kept in a temporary file until then and
+ * appended after the samples.
+ * 
+ * @author Gedeon Nyengele & Daniel Weinand
+ */
+public class BinarySampleWriter implements Closeable {
+	
+	// Size of the buffers the columns are gathered in.
+	private static final int BUFFER_SIZE = 1 << 16;
+	
+	private final RandomAccessFile file;		// The file being written
+	private final boolean floatSamples;			// Whether the samples are written as floats
+	private final ByteBuffer samples;			// Samples not yet written
+	private final File timestampFile;			// Temporary file holding the timestamps, or null
+	private final RandomAccessFile timestamps;	// Its contents
+	private final ByteBuffer times;				// Timestamps not yet written
+	private long count;							// Samples written
+	private double minimum;						// Smallest sample written
+	private double maximum;						// Largest sample written
+	
+	/**
+	 * Constructor. Replaces the file if it exists.
+	 * @param fileName     : the file to write.
+	 * @param floatSamples : whether to store the samples as floats rather than doubles.
+	 * @param timestamps   : whether every sample has a timestamp.
+	 * @throws IOException if the file cannot be created.
+	 */
+	public BinarySampleWriter(String fileName, boolean floatSamples, boolean timestamps) throws IOException {
+		this.file         = new RandomAccessFile(fileName, "rw");
+		file.setLength(0);
+		file.seek(BinaryHeader.SIZE);
+		this.floatSamples = floatSamples;
+		this.samples      = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		if (timestamps) {
+			this.timestampFile = File.createTempFile("timestamps", ".bin");
+			this.timestamps    = new RandomAccessFile(timestampFile, "rw");
+			this.times         = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		else {
+			this.timestampFile = null;
+			this.timestamps    = null;
+			this.times         = null;
+		}
+		this.count   = 0;
+		this.minimum = Double.POSITIVE_INFINITY;
+		this.maximum = Double.NEGATIVE_INFINITY;
+	}
+	
+	/**
+	 * Writes a sample to a file without timestamps.
+	 * @param sample : the sample.
+	 * @throws IOException if the file cannot be written.
+	 */
+	public void write(double sample) throws IOException {
+		if (times != null) {
+			throw new IllegalStateException("Every sample in this file needs a timestamp");
+		}
+		add(sample);
+	} // end method write.
+	
+	/**
+	 * Writes a sample with its timestamp.
+	 * @param sample    : the sample.
+	 * @param timestamp : the time the sample was taken, in seconds.
+	 * @throws IOException if the file cannot be written.
+	 */
+	public void write(double sample, double timestamp) throws IOException {
+		if (times == null) {
+			throw new IllegalStateException("This file has no timestamps");
+		}
+		add(sample);
+		if (!times.hasRemaining()) {
+			flush(times, timestamps);
+		}
+		times.putDouble(timestamp);
+	} // end method write.
+	
+	/**
+	 * Buffers a sample and updates the range.
+	 */
+	private void add(double sample) throws IOException {
+		if (samples.remaining() < 8) {
+			flush(samples, file);
+		}
+		if (floatSamples) {
+			samples.putFloat((float) sample);
+		}
+		else {
+			samples.putDouble(sample);
+		}
+		if (sample < minimum) minimum = sample;
+		if (sample > maximum) maximum = sample;
+		count++;
+	} // end method add.
+	
+	/**
+	 * Writes out a buffered column.
+	 */
+	private static void flush(ByteBuffer buffer, RandomAccessFile to) throws IOException {
+		to.write(buffer.array(), 0, buffer.position());
+		buffer.clear();
+	} // end method flush.
+	
+	/**
+	 * Appends the timestamps, writes the header and closes the file.
+	 * @throws IOException if the file cannot be written.
+	 */
+	public void close() throws IOException {
+		try
+		{
+			flush(samples, file);
+			if (times != null) {
+				flush(times, timestamps);
+				FileChannel from = timestamps.getChannel();
+				FileChannel to = file.getChannel();
+				long position = 0;
+				long size = from.size();
+				while (position < size) {
+					position += from.transferTo(position, size - position, to);
+				}
+			}
+			
+			// Samples which are all NaN leave the range empty
+			boolean empty = !(minimum <= maximum);
+			BinaryHeader header = new BinaryHeader(floatSamples, times != null, count,
+					empty ? 0.0 : minimum, empty ? 0.0 : maximum);
+			file.getChannel().write(header.toBytes(), 0);
+		}
+		finally
+		{
+			file.close();
+			if (timestamps != null) {
+				timestamps.close();
+				timestampFile.delete();
+			}
+		}
+	} // end method close.
+	
+	/**
+	 * Converts a text data file, one sample per line, to a binary sample file.
+	 * @param args : [--float] followed by the text file and the binary file to write.
+	 */
+	public static void main(String[] args) {
+		
+		boolean floatSamples = args.length == 3 && args[0].equals("--float");
+		if (args.length != (floatSamples ? 3 : 2)) {
+			System.err.println("Usage: java edu.fit.estimator1D.BinarySampleWriter [--float] <text file> <binary file>");
+			System.err.println("  --float                store the samples as floats rather than doubles");
+			System.exit(2);
+			return;
+		}
+		
+		try
+		{
+			SampleSource input = StreamRunner.openSamples(args[args.length - 2]);
+			BinarySampleWriter output = new BinarySampleWriter(args[args.length - 1], floatSamples, false);
+			double[] block = new double[8192];
+			int read;
+			do {
+				read = input.read(block, 0, block.length);
+				for (int i = 0; i < read; i++) {
+					output.write(block[i]);
+				}
+			} while (read == block.length);
+			input.close();
+			output.close();
+			
+			System.err.println("Wrote " + output.count + " samples from " + output.minimum + " to " + output.maximum);
+			String malformed = StreamRunner.describeMalformed(input);
+			if (malformed != null) {
+				System.err.println("Warning: " + malformed);
+			}
+		}
+		catch (IOException ex) {
+			System.err.println("Error: " + ex.getMessage());
+			System.exit(1);
+		}
+	} // end method main.
+
+} // end class BinarySampleWriter.
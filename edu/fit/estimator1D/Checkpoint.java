@@ -0,0 +1,375 @@
+package edu.fit.estimator1D;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A copy of an estimator's state, which can be saved to and restored from
+ * a checkpoint file so that a restarted estimator carries on from it.
+ * 
+ * A checkpoint file holds, in little-endian order:
+ * 
+ *   bytes  0-3   magic number 0x89 'C' 'K' 'P'
+ *   bytes  4-5   format version
+ *   bytes  6-7   number of coefficient levels L, including the scaling functions
+ *   bytes  8-15  hash of the estimator's parameters (see Configuration.coefficientHash)
+ *   bytes 16-23  number of samples read
+ *   bytes 24-31  scale shared by the stored coefficients
+ *   bytes 32-35  window size, or 0 without window aging
+ *   bytes 36-39  next slot of the window
+ *   L pairs of ints giving the first translate and the number of translates of each level,
+ *   the stored coefficients of each level as doubles,
+ *   the samples in the window as doubles,
+ *   and from version 2, the time state of time aging: the latest timestamp,
+ *   the total decayed weight and the number T of samples in the time
+ *   window as a long, followed by their T timestamps and T values as
+ *   doubles, oldest first.
+ * 
+ * Version 1 files, which have no time state, can still be read.
+ * 
+ * Files are written and read whole through one heap buffer, so the time
+ * taken depends only on the number of coefficients and the window size.
+ * No file is left mapped, so a checkpoint can be replaced at once. A file
+ * is written to a new temporary file beside the checkpoint, forced to disk
+ * and then moved over it, so an earlier checkpoint survives a failure part
+ * way through and concurrent writers do not share a temporary file.
+ * 
+ * @author Gedeon Nyengele & Daniel Weinand
+ */
+class Checkpoint {
+	
+	// The current format version.
+	static final short VERSION = 2;
+	
+	// Bytes before the translate ranges.
+	private static final int HEADER_SIZE = 40;
+	
+	// Bytes of the time state before its samples.
+	private static final int TIME_HEADER_SIZE = 24;
+	
+	// The first bytes of every checkpoint file.
+	private static final byte[] MAGIC = {(byte) 0x89, 'C', 'K', 'P'};
+	
+	// The time window of a checkpoint without time aging.
+	private static final double[] NO_TIMES = new double[0];
+	
+	final long configurationHash;		// Hash of the estimator's parameters
+	final long sampleCount;				// Number of samples read
+	final double scale;					// Scale shared by the stored coefficients
+	final int[] offsets;				// First translate of each level
+	final double[][] coefficients;		// Stored coefficients of each level
+	final double[] window;				// Samples in the window, or null
+	final int windowSlot;				// Next slot of the window
+	final double lastTime;				// Latest timestamp, with time aging
+	final double totalWeight;			// Total decayed weight, with decay aging
+	final double[] times;				// Timestamps and values of the samples in the
+	final double[] timedSamples;		// time window, oldest first
+	
+	/**
+	 * Copies an estimator's state.
+	 * @param configurationHash : hash of the estimator's parameters.
+	 * @param sampleCount       : number of samples read.
+	 * @param transform         : the coefficients.
+	 * @param window            : the samples in the window, or null without window aging.
+	 */
+	Checkpoint(long configurationHash, long sampleCount, Transform transform, double[] window) {
+		this(configurationHash, sampleCount, transform, window, Double.NEGATIVE_INFINITY, 0, NO_TIMES, NO_TIMES);
+	}
+	
+	/**
+	 * Copies the state of an estimator with time aging.
+	 * @param configurationHash : hash of the estimator's parameters.
+	 * @param sampleCount       : number of samples read.
+	 * @param transform         : the coefficients.
+	 * @param window            : the samples in the window, or null without window aging.
+	 * @param lastTime          : the latest timestamp.
+	 * @param totalWeight       : the total decayed weight of the samples.
+	 * @param times             : timestamps of the samples in the time window, oldest first; kept, not copied.
+	 * @param timedSamples      : values of the samples in the time window; kept, not copied.
+	 */
+	Checkpoint(long configurationHash, long sampleCount, Transform transform, double[] window,
+			double lastTime, double totalWeight, double[] times, double[] timedSamples) {
+		this.configurationHash = configurationHash;
+		this.sampleCount       = sampleCount;
+		this.scale             = transform.scale;
+		
+		int levels = 1 + (transform.waveletCoefficients == null ? 0 : transform.waveletCoefficients.length);
+		offsets      = new int[levels];
+		coefficients = new double[levels][];
+		offsets[0]      = transform.scalingOffset;
+		coefficients[0] = transform.scalingCoefficients.clone();
+		for (int level = 1; level < levels; level++) {
+			offsets[level]      = transform.waveletOffsets[level - 1];
+			coefficients[level] = transform.waveletCoefficients[level - 1].clone();
+		}
+		
+		this.window     = (window == null) ? null : window.clone();
+		this.windowSlot = (window == null) ? 0 : (int) (sampleCount % window.length);
+		
+		this.lastTime     = lastTime;
+		this.totalWeight  = totalWeight;
+		this.times        = times;
+		this.timedSamples = timedSamples;
+	}
+	
+	/**
+	 * Creates a checkpoint from state already copied, e.g. read from a file.
+	 * The arrays are kept, not copied.
+	 */
+	Checkpoint(long configurationHash, long sampleCount, double scale, int[] offsets,
+			double[][] coefficients, double[] window, int windowSlot) {
+		this(configurationHash, sampleCount, scale, offsets, coefficients, window, windowSlot,
+				Double.NEGATIVE_INFINITY, 0, NO_TIMES, NO_TIMES);
+	}
+	
+	/**
+	 * Creates a checkpoint with time state from state already copied.
+	 * The arrays are kept, not copied.
+	 */
+	Checkpoint(long configurationHash, long sampleCount, double scale, int[] offsets,
+			double[][] coefficients, double[] window, int windowSlot,
+			double lastTime, double totalWeight, double[] times, double[] timedSamples) {
+		this.configurationHash = configurationHash;
+		this.sampleCount       = sampleCount;
+		this.scale             = scale;
+		this.offsets           = offsets;
+		this.coefficients      = coefficients;
+		this.window            = window;
+		this.windowSlot        = windowSlot;
+		this.lastTime          = lastTime;
+		this.totalWeight       = totalWeight;
+		this.times             = times;
+		this.timedSamples      = timedSamples;
+	}
+	
+	/**
+	 * Copies the state into an estimator's coefficients and window.
+	 * @param transform : the coefficients, with the same translates as the checkpoint.
+	 * @param window    : the window, of the same size as the checkpoint's, or null.
+	 * @throws IOException if the checkpoint was taken with other translates or another window size.
+	 */
+	void restore(Transform transform, double[] window) throws IOException {
+		
+		int levels = 1 + (transform.waveletCoefficients == null ? 0 : transform.waveletCoefficients.length);
+		if (levels != coefficients.length
+				|| (window == null) != (this.window == null)
+				|| (window != null && window.length != this.window.length)) {
+			throw new IOException("Checkpoint does not match the estimator's levels or window");
+		}
+		for (int level = 0; level < levels; level++) {
+			double[] target = (level == 0) ? transform.scalingCoefficients : transform.waveletCoefficients[level - 1];
+			int offset = (level == 0) ? transform.scalingOffset : transform.waveletOffsets[level - 1];
+			if (offset != offsets[level] || target.length != coefficients[level].length) {
+				throw new IOException("Checkpoint does not match the estimator's translates");
+			}
+		}
+		
+		for (int level = 0; level < levels; level++) {
+			double[] target = (level == 0) ? transform.scalingCoefficients : transform.waveletCoefficients[level - 1];
+			System.arraycopy(coefficients[level], 0, target, 0, target.length);
+		}
+		transform.scale = scale;
+		transform.rewrites++;
+		if (window != null) {
+			System.arraycopy(this.window, 0, window, 0, window.length);
+		}
+	} // end method restore.
+	
+	/**
+	 * Writes the checkpoint to a file, replacing it once the whole checkpoint is written.
+	 * @param fileName : the file.
+	 * @throws IOException if the file cannot be written.
+	 */
+	void write(String fileName) throws IOException {
+		
+		long size = HEADER_SIZE + 8L * coefficients.length;
+		for (double[] level : coefficients) {
+			size += 8L * level.length;
+		}
+		if (window != null) {
+			size += 8L * window.length;
+		}
+		size += TIME_HEADER_SIZE + 16L * times.length;
+		
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("Checkpoint of " + size + " bytes is too large to write");
+		}
+		
+		ByteBuffer bytes = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+		bytes.put(MAGIC);
+		bytes.putShort(VERSION);
+		bytes.putShort((short) coefficients.length);
+		bytes.putLong(configurationHash);
+		bytes.putLong(sampleCount);
+		bytes.putDouble(scale);
+		bytes.putInt(window == null ? 0 : window.length);
+		bytes.putInt(windowSlot);
+		for (int level = 0; level < coefficients.length; level++) {
+			bytes.putInt(offsets[level]);
+			bytes.putInt(coefficients[level].length);
+		}
+		for (double[] level : coefficients) {
+			bytes.asDoubleBuffer().put(level);
+			bytes.position(bytes.position() + 8 * level.length);
+		}
+		if (window != null) {
+			bytes.asDoubleBuffer().put(window);
+			bytes.position(bytes.position() + 8 * window.length);
+		}
+		bytes.putDouble(lastTime);
+		bytes.putDouble(totalWeight);
+		bytes.putLong(times.length);
+		bytes.asDoubleBuffer().put(times);
+		bytes.position(bytes.position() + 8 * times.length);
+		bytes.asDoubleBuffer().put(timedSamples);
+		bytes.clear();
+		
+		Path target = Paths.get(fileName).toAbsolutePath();
+		Path written = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+		try
+		{
+			FileChannel channel = FileChannel.open(written, StandardOpenOption.WRITE);
+			try
+			{
+				while (bytes.hasRemaining()) {
+					channel.write(bytes);
+				}
+				channel.force(true);
+			}
+			finally
+			{
+				channel.close();
+			}
+			try
+			{
+				Files.move(written, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (AtomicMoveNotSupportedException ex) {
+				Files.move(written, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		finally
+		{
+			Files.deleteIfExists(written);
+		}
+	} // end method write.
+	
+	/**
+	 * Reads a checkpoint from a file.
+	 * @param fileName : the file.
+	 * @return the checkpoint.
+	 * @throws IOException if the file cannot be read or is not a checkpoint of a known version.
+	 */
+	static Checkpoint read(String fileName) throws IOException {
+		
+		FileChannel file = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+		try
+		{
+			long size = file.size();
+			if (size < HEADER_SIZE) {
+				throw new IOException(fileName + " is not a checkpoint file");
+			}
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("Checkpoint file " + fileName + " is damaged");
+			}
+			ByteBuffer bytes = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+			while (bytes.hasRemaining()) {
+				if (file.read(bytes) < 0) {
+					throw new EOFException("Checkpoint file " + fileName + " is truncated");
+				}
+			}
+			bytes.flip();
+			for (int i = 0; i < MAGIC.length; i++) {
+				if (bytes.get() != MAGIC[i]) {
+					throw new IOException(fileName + " is not a checkpoint file");
+				}
+			}
+			short version = bytes.getShort();
+			if (version != 1 && version != VERSION) {
+				throw new IOException("Unsupported checkpoint version " + version);
+			}
+			int levels = bytes.getShort();
+			long configurationHash = bytes.getLong();
+			long sampleCount = bytes.getLong();
+			double scale = bytes.getDouble();
+			int windowSize = bytes.getInt();
+			int windowSlot = bytes.getInt();
+			
+			// Check the sizes before allocating anything
+			long expected = HEADER_SIZE + 8L * levels + 8L * windowSize;
+			if (levels < 1 || windowSize < 0 || sampleCount < 0 || size < expected) {
+				throw new IOException("Checkpoint file " + fileName + " is damaged");
+			}
+			int[] offsets = new int[levels];
+			int[] counts = new int[levels];
+			for (int level = 0; level < levels; level++) {
+				offsets[level] = bytes.getInt();
+				counts[level]  = bytes.getInt();
+				if (counts[level] < 0) {
+					throw new IOException("Checkpoint file " + fileName + " is damaged");
+				}
+				expected += 8L * counts[level];
+			}
+			if (windowSize > 0 && windowSlot != sampleCount % windowSize) {
+				throw new IOException("Checkpoint file " + fileName + " is damaged");
+			}
+			
+			// The time state follows the window from version 2
+			long timeCount = 0;
+			if (version > 1) {
+				if (size < expected + TIME_HEADER_SIZE) {
+					throw new IOException("Checkpoint file " + fileName + " is damaged");
+				}
+				timeCount = bytes.getLong((int) expected + 16);
+				if (timeCount < 0 || timeCount > (size - expected) / 16) {
+					throw new IOException("Checkpoint file " + fileName + " is damaged");
+				}
+				expected += TIME_HEADER_SIZE + 16 * timeCount;
+			}
+			if (size != expected) {
+				throw new IOException("Checkpoint file " + fileName + " is damaged");
+			}
+			
+			double[][] coefficients = new double[levels][];
+			for (int level = 0; level < levels; level++) {
+				coefficients[level] = new double[counts[level]];
+				bytes.asDoubleBuffer().get(coefficients[level]);
+				bytes.position(bytes.position() + 8 * counts[level]);
+			}
+			double[] window = null;
+			if (windowSize > 0) {
+				window = new double[windowSize];
+				bytes.asDoubleBuffer().get(window);
+				bytes.position(bytes.position() + 8 * windowSize);
+			}
+			if (version == 1) {
+				return new Checkpoint(configurationHash, sampleCount, scale, offsets, coefficients, window, windowSlot);
+			}
+			
+			double lastTime = bytes.getDouble();
+			double totalWeight = bytes.getDouble();
+			bytes.getLong();
+			double[] times = new double[(int) timeCount];
+			double[] timedSamples = new double[(int) timeCount];
+			bytes.asDoubleBuffer().get(times);
+			bytes.position(bytes.position() + 8 * times.length);
+			bytes.asDoubleBuffer().get(timedSamples);
+			return new Checkpoint(configurationHash, sampleCount, scale, offsets, coefficients, window, windowSlot,
+					lastTime, totalWeight, times, timedSamples);
+		}
+		finally
+		{
+			file.close();
+		}
+	} // end method read.
+
+} // end class Checkpoint.
@@ -0,0 +1,445 @@
+package edu.fit.estimator1D;
+
+/**
+ * Immutable set of parameters for a single density estimator.
+ * 
+ * The fields mirror those in Settings, which remains the editable copy
+ * used by the settings window. A configuration is taken from Settings
+ * when an estimator is created, so later edits do not affect it.
+ * Configurations are made by a Builder, which starts from Settings or from
+ * another configuration and names each parameter it sets, so a
+ * configuration which differs in a few parameters only needs to name those.
+ * 
+ * @author Gedeon Nyengele & Daniel Weinand
+ */
+public final class Configuration {
+	
+	// Start level for both the scaling and wavelet functions.
+	public final int startLevel;
+	
+	// Stop level for both the scaling and wavelet functions.
+	public final int stopLevel;
+	
+	// Type of wavelet used.
+	public final String waveletType;
+	
+	// Which aging mechanism to use (see Settings.agingFlag).
+	public final int agingFlag;
+	
+	// How the wavelet look-up tables are interpolated (see Settings.interpolationFlag).
+	public final int interpolationFlag;
+	
+	// How the density estimate is normalized (see Settings.normalizationFlag).
+	public final int normalizationFlag;
+	
+	// How the wavelet coefficients are thresholded (see Settings.thresholdFlag).
+	public final int thresholdFlag;
+	
+	// How the threshold is chosen (see Settings.thresholdRule).
+	public final int thresholdRule;
+	
+	// Threshold for the fixed threshold rule.
+	public final double thresholdValue;
+	
+	// The distance between points in the density estimation plot
+	public final double discretization;
+	
+	// How many samples to wait in between plot updates
+	public final int updateFrequency;
+	
+	// Size of the window for data aging using the window method.
+	public final int windowSize;
+	
+	// Caudle and Wegman's aging theta.
+	public final double agingTheta;
+	
+	// Rate, per second, at which sample weights decay for decay aging.
+	public final double decayRate;
+	
+	// Length in seconds of the window for time window aging.
+	public final double timeWindow;
+	
+	// Minimum and Maximum values on the domain of the density function.
+	private final double minimumRange;
+	private final double maximumRange;
+	
+	// Whether or not the wavelet function should also be used.
+	public final boolean waveletFlag;
+	
+	// Whether the un-normalized density is maintained incrementally (see Settings.incrementalFlag).
+	public final boolean incrementalFlag;
+	
+	// Number of density points from which the density is evaluated in parallel.
+	public final int parallelThreshold;
+	
+	// Number of threads updating the resolution levels (see Settings.ingestThreads).
+	public final int ingestThreads;
+	
+	// Number of estimators the queued samples are split between (see Settings.shards).
+	public final int shards;
+	
+	// Refinement levels of generated look-up tables, 0 for the precompiled ones (see Settings.tableLevels).
+	public final int tableLevels;
+	
+	// The points at which the density is estimated.
+	private final double[] gridPoints;
+	
+	
+	/**
+	 * Constructor, only called by the Builder, whose named setters keep
+	 * the many adjacent int and double parameters from being mixed up.
+	 * @param startLevel        : start level for both the scaling and wavelet functions.
+	 * @param stopLevel         : stop level for both the scaling and wavelet functions.
+	 * @param waveletType       : type of wavelet used, one of Settings.waveletTypes.
+	 * @param agingFlag         : aging mechanism, one of the aging constants in Settings.
+	 * @param interpolationFlag : table interpolation, one of the interpolation constants in Settings.
+	 * @param normalizationFlag : density normalization, one of the normalization constants in Settings.
+	 * @param discretization    : distance between points in the density estimate.
+	 * @param updateFrequency   : number of samples in between plot updates.
+	 * @param windowSize        : size of the window for window aging.
+	 * @param agingTheta        : Caudle and Wegman's aging theta.
+	 * @param decayRate         : rate, per second, at which sample weights decay for decay aging.
+	 * @param timeWindow        : length in seconds of the window for time window aging.
+	 * @param minimumRange      : minimum value on the domain of the density function.
+	 * @param maximumRange      : maximum value on the domain of the density function.
+	 * @param waveletFlag       : whether the wavelet function is also used.
+	 * @param incrementalFlag   : whether the un-normalized density is maintained incrementally.
+	 * @param parallelThreshold : number of density points from which the density is evaluated in parallel.
+	 * @param ingestThreads     : number of threads updating the resolution levels, 0 for none.
+	 * @param shards            : number of estimators the queued samples are split between, 0 for none.
+	 * @param tableLevels       : refinement levels of generated look-up tables, 0 for the precompiled ones.
+	 * @param thresholdFlag     : coefficient thresholding, one of the threshold constants in Settings.
+	 * @param thresholdRule     : how the threshold is chosen, one of the threshold rule constants in Settings.
+	 * @param thresholdValue    : threshold for the fixed threshold rule.
+	 * @throws IllegalArgumentException if the parameters are inconsistent.
+	 */
+	private Configuration(int startLevel, int stopLevel, String waveletType, int agingFlag,
+			int interpolationFlag, int normalizationFlag, double discretization, int updateFrequency, int windowSize,
+			double agingTheta, double decayRate, double timeWindow, double minimumRange, double maximumRange,
+			boolean waveletFlag, boolean incrementalFlag, int parallelThreshold, int ingestThreads, int shards,
+			int tableLevels, int thresholdFlag, int thresholdRule, double thresholdValue) {
+		
+		if (stopLevel < startLevel) {
+			throw new IllegalArgumentException("Stop level " + stopLevel + " is below start level " + startLevel);
+		}
+		if (waveletType == null) {
+			throw new IllegalArgumentException("No wavelet type given");
+		}
+		if (agingFlag < Settings.noAge || agingFlag > Settings.timeWindowAge) {
+			throw new IllegalArgumentException("Unknown aging flag " + agingFlag);
+		}
+		if (interpolationFlag != Settings.linearInterp && interpolationFlag != Settings.cubicInterp) {
+			throw new IllegalArgumentException("Unknown interpolation flag " + interpolationFlag);
+		}
+		if (normalizationFlag != Settings.exactNormalize && normalizationFlag != Settings.iterativeNormalize) {
+			throw new IllegalArgumentException("Unknown normalization flag " + normalizationFlag);
+		}
+		if (thresholdFlag < Settings.noThreshold || thresholdFlag > Settings.softThreshold) {
+			throw new IllegalArgumentException("Unknown threshold flag " + thresholdFlag);
+		}
+		if (thresholdRule < Settings.fixedThreshold || thresholdRule > Settings.levelThreshold) {
+			throw new IllegalArgumentException("Unknown threshold rule " + thresholdRule);
+		}
+		if (!(thresholdValue >= 0) || Double.isInfinite(thresholdValue)) {
+			throw new IllegalArgumentException("Threshold must not be negative");
+		}
+		if (!(discretization > 0)) {
+			throw new IllegalArgumentException("Discretization must be positive");
+		}
+		if (updateFrequency <= 0) {
+			throw new IllegalArgumentException("Update frequency must be positive");
+		}
+		if (windowSize <= 0) {
+			throw new IllegalArgumentException("Window size must be positive");
+		}
+		if (!(agingTheta > 0 && agingTheta < 1)) {
+			throw new IllegalArgumentException("Aging theta must lie strictly between 0 and 1");
+		}
+		if (!(decayRate > 0) || Double.isInfinite(decayRate)) {
+			throw new IllegalArgumentException("Decay rate must be positive");
+		}
+		if (!(timeWindow > 0) || Double.isInfinite(timeWindow)) {
+			throw new IllegalArgumentException("Time window must be positive");
+		}
+		if (parallelThreshold < 0) {
+			throw new IllegalArgumentException("Parallel threshold must not be negative");
+		}
+		if (ingestThreads < 0) {
+			throw new IllegalArgumentException("Number of ingest threads must not be negative");
+		}
+		if (shards < 0) {
+			throw new IllegalArgumentException("Number of shards must not be negative");
+		}
+		if (tableLevels < 0 || tableLevels > WaveletCascade.MAX_LEVELS) {
+			throw new IllegalArgumentException("Table levels must lie between 0 and " + WaveletCascade.MAX_LEVELS);
+		}
+		if (shards > 1 && (agingFlag == Settings.decayAge || agingFlag == Settings.timeWindowAge)) {
+			throw new IllegalArgumentException("Shards cannot be used with time aging");
+		}
+		if (!(minimumRange < maximumRange)) {
+			throw new IllegalArgumentException("Density range [" + minimumRange + ", " + maximumRange + "] is empty");
+		}
+		
+		this.startLevel        = startLevel;
+		this.stopLevel         = stopLevel;
+		this.waveletType       = waveletType;
+		this.agingFlag         = agingFlag;
+		this.interpolationFlag = interpolationFlag;
+		this.normalizationFlag = normalizationFlag;
+		this.thresholdFlag     = thresholdFlag;
+		this.thresholdRule     = thresholdRule;
+		this.thresholdValue    = thresholdValue;
+		this.discretization    = discretization;
+		this.updateFrequency   = updateFrequency;
+		this.windowSize        = windowSize;
+		this.agingTheta        = agingTheta;
+		this.decayRate         = decayRate;
+		this.timeWindow        = timeWindow;
+		this.minimumRange      = minimumRange;
+		this.maximumRange      = maximumRange;
+		this.waveletFlag       = waveletFlag;
+		this.incrementalFlag   = incrementalFlag;
+		this.parallelThreshold = parallelThreshold;
+		this.ingestThreads     = ingestThreads;
+		this.shards            = shards;
+		this.tableLevels       = tableLevels;
+		
+		// Step through the density range the same way the density is evaluated
+		int count = 0;
+		for (double x = minimumRange; x < maximumRange; x += discretization) {
+			count++;
+		}
+		gridPoints = new double[count];
+		int index = 0;
+		for (double x = minimumRange; x < maximumRange; x += discretization) {
+			gridPoints[index++] = x;
+		}
+	}
+	
+	/**
+	 * Returns a configuration holding the current values in Settings.
+	 * @return the configuration.
+	 * @throws IllegalArgumentException if the settings are inconsistent.
+	 */
+	public static Configuration fromSettings() {
+		return new Builder().build();
+	}
+	
+	/**
+	 * @return this configuration for an estimator reading one shard of the
+	 *         samples on a single thread, and never evaluating the density.
+	 */
+	Configuration forShard() {
+		return new Builder(this).incrementalFlag(false).ingestThreads(0).shards(0).build();
+	}
+	
+	/**
+	 * @return whether samples are aged by their timestamps rather than by their number
+	 */
+	public boolean isTimeAged() {
+		return agingFlag == Settings.decayAge || agingFlag == Settings.timeWindowAge;
+	}
+	
+	/**
+	 * @return whether the wavelet coefficients are thresholded when the density is evaluated
+	 */
+	public boolean isThresholded() {
+		return waveletFlag && thresholdFlag != Settings.noThreshold;
+	}
+	
+	/**
+	 * Checks whether estimators with the two configurations keep the same
+	 * coefficients and age them the same way, so they can be merged.
+	 * @param other : another configuration
+	 * @return whether the configurations agree on everything the coefficients depend on
+	 */
+	public boolean isMergeableWith(Configuration other) {
+		return startLevel == other.startLevel && stopLevel == other.stopLevel
+				&& waveletType.equals(other.waveletType) && waveletFlag == other.waveletFlag
+				&& interpolationFlag == other.interpolationFlag && tableLevels == other.tableLevels
+				&& agingFlag == other.agingFlag
+				&& minimumRange == other.minimumRange && maximumRange == other.maximumRange
+				&& (agingFlag != Settings.windowAge || windowSize == other.windowSize)
+				&& (agingFlag != Settings.caudleAge || agingTheta == other.agingTheta)
+				&& (agingFlag != Settings.decayAge || decayRate == other.decayRate)
+				&& (agingFlag != Settings.timeWindowAge || timeWindow == other.timeWindow);
+	}
+	
+	/**
+	 * Hashes the parameters compared by isMergeableWith, so that saved
+	 * coefficients are only restored into an estimator which keeps them the
+	 * same way. The hash does not depend on the Java version.
+	 * @return a 64-bit FNV-1a hash of the parameters the coefficients depend on
+	 */
+	public long coefficientHash() {
+		long hash = 0xcbf29ce484222325L;
+		hash = mix(hash, startLevel);
+		hash = mix(hash, stopLevel);
+		for (int i = 0; i < waveletType.length(); i++) {
+			hash = mix(hash, waveletType.charAt(i));
+		}
+		hash = mix(hash, waveletFlag ? 1 : 0);
+		hash = mix(hash, interpolationFlag);
+		hash = mix(hash, agingFlag);
+		hash = mix(hash, Double.doubleToLongBits(minimumRange));
+		hash = mix(hash, Double.doubleToLongBits(maximumRange));
+		if (agingFlag == Settings.windowAge) hash = mix(hash, windowSize);
+		if (agingFlag == Settings.caudleAge) hash = mix(hash, Double.doubleToLongBits(agingTheta));
+		if (agingFlag == Settings.decayAge) hash = mix(hash, Double.doubleToLongBits(decayRate));
+		if (agingFlag == Settings.timeWindowAge) hash = mix(hash, Double.doubleToLongBits(timeWindow));
+		if (tableLevels != 0) hash = mix(hash, tableLevels);
+		return hash;
+	}
+	
+	/**
+	 * Adds the eight bytes of a value to an FNV-1a hash.
+	 */
+	private static long mix(long hash, long value) {
+		for (int i = 0; i < 8; i++) {
+			hash = (hash ^ ((value >>> (8 * i)) & 0xff)) * 0x100000001b3L;
+		}
+		return hash;
+	}
+	
+	public double getMinimumRange() { return minimumRange; }
+	public double getMaximumRange() { return maximumRange; }
+	
+	/**
+	 * Returns the points at which the density is estimated, stepping
+	 * through the density range by the discretization.
+	 * @return a new array holding the points.
+	 */
+	public double[] getGridPoints() { return gridPoints.clone(); }
+	
+	/**
+	 * @return the number of points at which the density is estimated.
+	 */
+	public int getGridSize() { return gridPoints.length; }
+	
+	/**
+	 * Collects the parameters of a configuration one at a time (see the
+	 * Configuration constructor for their meaning). Each setter returns the
+	 * builder, and the parameters are only checked when it is built.
+	 */
+	public static final class Builder {
+		
+		private int startLevel;
+		private int stopLevel;
+		private String waveletType;
+		private int agingFlag;
+		private int interpolationFlag;
+		private int normalizationFlag;
+		private double discretization;
+		private int updateFrequency;
+		private int windowSize;
+		private double agingTheta;
+		private double decayRate;
+		private double timeWindow;
+		private double minimumRange;
+		private double maximumRange;
+		private boolean waveletFlag;
+		private boolean incrementalFlag;
+		private int parallelThreshold;
+		private int ingestThreads;
+		private int shards;
+		private int tableLevels;
+		private int thresholdFlag;
+		private int thresholdRule;
+		private double thresholdValue;
+		
+		/**
+		 * Creates a builder holding the current values in Settings.
+		 */
+		public Builder() {
+			startLevel        = Settings.startLevel;
+			stopLevel         = Settings.stopLevel;
+			waveletType       = Settings.waveletType;
+			agingFlag         = Settings.agingFlag;
+			interpolationFlag = Settings.interpolationFlag;
+			normalizationFlag = Settings.normalizationFlag;
+			discretization    = Settings.discretization;
+			updateFrequency   = Settings.updateFrequency;
+			windowSize        = Settings.windowSize;
+			agingTheta        = Settings.agingTheta;
+			decayRate         = Settings.decayRate;
+			timeWindow        = Settings.timeWindow;
+			minimumRange      = Settings.getMinimumRange();
+			maximumRange      = Settings.getMaximumRange();
+			waveletFlag       = Settings.waveletFlag;
+			incrementalFlag   = Settings.incrementalFlag;
+			parallelThreshold = Settings.parallelThreshold;
+			ingestThreads     = Settings.ingestThreads;
+			shards            = Settings.shards;
+			tableLevels       = Settings.tableLevels;
+			thresholdFlag     = Settings.thresholdFlag;
+			thresholdRule     = Settings.thresholdRule;
+			thresholdValue    = Settings.thresholdValue;
+		}
+		
+		/**
+		 * Creates a builder holding the parameters of a configuration.
+		 * @param configuration : the configuration to start from.
+		 */
+		public Builder(Configuration configuration) {
+			startLevel        = configuration.startLevel;
+			stopLevel         = configuration.stopLevel;
+			waveletType       = configuration.waveletType;
+			agingFlag         = configuration.agingFlag;
+			interpolationFlag = configuration.interpolationFlag;
+			normalizationFlag = configuration.normalizationFlag;
+			discretization    = configuration.discretization;
+			updateFrequency   = configuration.updateFrequency;
+			windowSize        = configuration.windowSize;
+			agingTheta        = configuration.agingTheta;
+			decayRate         = configuration.decayRate;
+			timeWindow        = configuration.timeWindow;
+			minimumRange      = configuration.minimumRange;
+			maximumRange      = configuration.maximumRange;
+			waveletFlag       = configuration.waveletFlag;
+			incrementalFlag   = configuration.incrementalFlag;
+			parallelThreshold = configuration.parallelThreshold;
+			ingestThreads     = configuration.ingestThreads;
+			shards            = configuration.shards;
+			tableLevels       = configuration.tableLevels;
+			thresholdFlag     = configuration.thresholdFlag;
+			thresholdRule     = configuration.thresholdRule;
+			thresholdValue    = configuration.thresholdValue;
+		}
+		
+		public Builder startLevel(int startLevel) { this.startLevel = startLevel; return this; }
+		public Builder stopLevel(int stopLevel) { this.stopLevel = stopLevel; return this; }
+		public Builder waveletType(String waveletType) { this.waveletType = waveletType; return this; }
+		public Builder agingFlag(int agingFlag) { this.agingFlag = agingFlag; return this; }
+		public Builder interpolationFlag(int interpolationFlag) { this.interpolationFlag = interpolationFlag; return this; }
+		public Builder normalizationFlag(int normalizationFlag) { this.normalizationFlag = normalizationFlag; return this; }
+		public Builder discretization(double discretization) { this.discretization = discretization; return this; }
+		public Builder updateFrequency(int updateFrequency) { this.updateFrequency = updateFrequency; return this; }
+		public Builder windowSize(int windowSize) { this.windowSize = windowSize; return this; }
+		public Builder agingTheta(double agingTheta) { this.agingTheta = agingTheta; return this; }
+		public Builder decayRate(double decayRate) { this.decayRate = decayRate; return this; }
+		public Builder timeWindow(double timeWindow) { this.timeWindow = timeWindow; return this; }
+		public Builder minimumRange(double minimumRange) { this.minimumRange = minimumRange; return this; }
+		public Builder maximumRange(double maximumRange) { this.maximumRange = maximumRange; return this; }
+		public Builder waveletFlag(boolean waveletFlag) { this.waveletFlag = waveletFlag; return this; }
+		public Builder incrementalFlag(boolean incrementalFlag) { this.incrementalFlag = incrementalFlag; return this; }
+		public Builder parallelThreshold(int parallelThreshold) { this.parallelThreshold = parallelThreshold; return this; }
+		public Builder ingestThreads(int ingestThreads) { this.ingestThreads = ingestThreads; return this; }
+		public Builder shards(int shards) { this.shards = shards; return this; }
+		public Builder tableLevels(int tableLevels) { this.tableLevels = tableLevels; return this; }
+		public Builder thresholdFlag(int thresholdFlag) { this.thresholdFlag = thresholdFlag; return this; }
+		public Builder thresholdRule(int thresholdRule) { this.thresholdRule = thresholdRule; return this; }
+		public Builder thresholdValue(double thresholdValue) { this.thresholdValue = thresholdValue; return this; }
+		
+		/**
+		 * @return a configuration holding the builder's parameters.
+		 * @throws IllegalArgumentException if the parameters are inconsistent.
+		 */
+		public Configuration build() {
+			return new Configuration(startLevel, stopLevel, waveletType, agingFlag, interpolationFlag,
+					normalizationFlag, discretization, updateFrequency, windowSize, agingTheta, decayRate,
+					timeWindow, minimumRange, maximumRange, waveletFlag, incrementalFlag, parallelThreshold,
+					ingestThreads, shards, tableLevels, thresholdFlag, thresholdRule, thresholdValue);
+		}
+	} // end class Builder.
+
+} // end class Configuration.
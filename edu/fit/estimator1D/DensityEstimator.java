@@ -0,0 +1,947 @@
+package edu.fit.estimator1D;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import de.erichseifert.gral.data.DataTable;
+
+/**
+ * A streaming wavelet density estimator.
+ * 
+ * Each estimator owns its coefficients and sample window and is built from
+ * an immutable configuration, so any number of estimators may run in one
+ * process. The wavelet look-up tables are shared read-only between
+ * estimators of the same wavelet type. All public methods are synchronized
+ * on the estimator, so one estimator may be updated and read from
+ * different threads.
+ * 
+ * When the configuration asks for ingest threads, the resolution levels
+ * are updated on those threads (see LevelWorkers) while the calling thread
+ * works out the sample weights and goes on reading samples. Such an
+ * estimator should be closed once it is no longer needed.
+ * 
+ * The coefficients are linear in the samples, so estimators which read
+ * consecutive parts of a stream can be merged into the estimator which
+ * would have read the whole stream. When the configuration asks for
+ * shards, samples are queued, in order, until the coefficients are next
+ * needed (a density, density function or checkpoint is taken, or the
+ * estimator is merged, flushed or closed) or the queue fills. The queued
+ * samples are then split between that many private estimators which read
+ * their parts in parallel and are merged once, however many blocks the
+ * samples arrived in.
+ * 
+ * With time aging each sample has a timestamp in seconds, and samples given
+ * without one are stamped with the time they arrive. Decay aging weighs
+ * each sample by exp(-decayRate * its age) and time window aging averages
+ * the samples from the last timeWindow seconds. Both keep the coefficients
+ * as a weighted mean of the samples using the shared scale, so each sample
+ * costs the same whatever the time between samples. Timestamps earlier than
+ * one already seen are taken as that time.
+ * 
+ * @author Daniel Weinand & Gedeon Nyengele
+ * 
+ */
+public class DensityEstimator implements AutoCloseable {
+	
+	// Number of single data points queued before they are handed to the ingest threads.
+	private static final int BATCH_SIZE = 1024;
+	
+	// Smallest number of data points given to each shard.
+	private static final int MIN_SHARD_SIZE = 512;
+	
+	// Number of data points queued for each shard before the shards read them.
+	private static final int SHARD_QUEUE = 1 << 14;
+	
+	// Threads reading the shards, shared by all estimators.
+	private static final ForkJoinPool shardPool = new ForkJoinPool();
+	
+	// Smallest capacity of the time window, which grows and shrinks with the sample rate.
+	private static final int MIN_TIME_WINDOW = 256;
+	
+	private final Configuration configuration;	// The estimator's parameters
+	private final Wavelet wavelet;				// The wavelet used
+	private final Transform transform;			// The basis function coefficients
+	private final UpdateKernel kernel;			// The per-sample update of the coefficients
+	private final TransformStore store;			// The coefficients as the kernel sees them
+	private BasisMatrix basis;					// The basis values at the grid points
+	private DensityGrid grid;					// The live un-normalized density, if incremental
+	private DensityFunction function;			// The density function of the coefficients, until they change
+	
+	private final double[] oldSamples;			// The old samples in the window
+	private long N;								// How many samples have been read in
+	
+	private double lastTime;					// Latest timestamp seen, if time aged
+	private double totalWeight;					// Sum of the decayed sample weights, if decay aged
+	private double[] windowTimes;				// Timestamps and samples in the time window,
+	private double[] windowValues;				// a ring holding windowCount samples from windowHead
+	private int windowHead;
+	private int windowCount;
+	
+	private final int levelCount;				// Number of coefficient levels, including the scaling functions
+	private LevelWorkers workers;				// Threads updating the levels, if ingest is parallel
+	private double[] batchSamples;				// Data points and weights not yet handed
+	private double[] batchWeights;				// to the ingest threads
+	private int batchSize;
+	private DensityEstimator[] shards;			// Estimators reading parts of the queued data points
+	private double[] shardQueue;				// Data points not yet read by the shards, if sharded
+	private int shardQueueSize;
+	private ScheduledExecutorService checkpointer;	// Thread saving checkpoints, if periodic
+	private final Object checkpointLock = new Object();	// Held while a checkpoint is taken and written
+	private volatile IOException checkpointFailure;	// Last failure to save a periodic checkpoint
+	
+	/**
+	 * Creates an estimator with all coefficients zero.
+	 * @param configuration : the estimator's parameters
+	 */
+	public DensityEstimator(Configuration configuration) {
+		this.configuration = configuration;
+		this.wavelet       = Wavelet.getInstance(configuration.waveletType, configuration.interpolationFlag,
+				configuration.tableLevels);
+		this.transform     = new Transform(configuration, wavelet);
+		this.kernel        = new UpdateKernel(configuration, wavelet, transform);
+		this.store         = new TransformStore();
+		
+		// Create window to store old samples
+		if (configuration.agingFlag == Settings.windowAge) {
+			oldSamples = new double[configuration.windowSize];
+		}
+		else {
+			oldSamples = null;
+		}
+		N = 0;
+		lastTime = Double.NEGATIVE_INFINITY;
+		if (configuration.agingFlag == Settings.timeWindowAge) {
+			windowTimes  = new double[MIN_TIME_WINDOW];
+			windowValues = new double[MIN_TIME_WINDOW];
+		}
+		
+		// Queue data points for the shards to read together
+		if (configuration.shards > 1) {
+			shardQueue = new double[configuration.shards * SHARD_QUEUE];
+		}
+		
+		// Start the threads updating the levels
+		levelCount = kernel.getLevelCount();
+		if (configuration.ingestThreads > 0) {
+			workers = new LevelWorkers(levelCount, configuration.ingestThreads, new LevelWorkers.LevelUpdater() {
+				public void addToLevel(int level, double[] samples, double[] weights, int count) {
+					for (int i = 0; i < count; i++) {
+						kernel.addToLevel(store, level, samples[i], weights[i]);
+					}
+				}
+			});
+		}
+	}
+	
+	/**
+	 * @return the estimator's parameters
+	 */
+	public Configuration getConfiguration() {
+		return configuration;
+	}
+	
+	/**
+	 * @return how many samples have been read in, including any queued for the shards
+	 */
+	public synchronized long getSampleCount() {
+		return N + shardQueueSize;
+	}
+	
+	/**
+	 * Updates the function coefficients based on the incoming data point and
+	 * the data point leaving the sliding window.
+	 * 
+	 * Post: the coefficients are updated as needed
+	 * 
+	 * @param Xnew : the new data point to update the coefficients based on
+	 */
+	public synchronized void updateCoefficients(double Xnew){
+		
+		// Leave the data point to the shards if there are any
+		if (shardQueue != null) {
+			shardQueue[shardQueueSize++] = Xnew;
+			if (shardQueueSize == shardQueue.length) {
+				readShardQueue();
+			}
+			return;
+		}
+		
+		// Stamp the data point with its arrival if time aging is used
+		if (configuration.isTimeAged()) {
+			updateTimed(currentTime(), Xnew);
+		}
+		else {
+			kernel.addPoint(store, N, Xnew);
+		}
+		
+		N++;
+		
+		if (batchSize >= BATCH_SIZE) {
+			submitBatch();
+		}
+	} // end updateCoefficients
+	
+	/**
+	 * Updates the function coefficients based on an incoming data point
+	 * taken at the given time. Without time aging the time is ignored.
+	 * 
+	 * Post: the coefficients are updated as needed
+	 * 
+	 * @param timestamp : the time the data point was taken, in seconds
+	 * @param Xnew      : the new data point to update the coefficients based on
+	 * @throws IllegalArgumentException if the timestamp is not finite
+	 */
+	public synchronized void updateCoefficients(double timestamp, double Xnew) {
+		
+		checkTimestamp(timestamp);
+		if (!configuration.isTimeAged()) {
+			updateCoefficients(Xnew);
+			return;
+		}
+		
+		updateTimed(timestamp, Xnew);
+		N++;
+		
+		if (batchSize >= BATCH_SIZE) {
+			submitBatch();
+		}
+	} // end updateCoefficients
+	
+	/**
+	 * Updates the function coefficients based on a block of incoming data
+	 * points, each taken at the time at the same index of timestamps. This
+	 * gives the same coefficients as passing the points to updateCoefficients
+	 * one at a time. Without time aging the times are ignored.
+	 * 
+	 * Post: the coefficients are updated as needed
+	 * 
+	 * @param timestamps : array holding the times the data points were taken, in seconds
+	 * @param samples    : array holding the new data points
+	 * @param off        : index of the first data point to use
+	 * @param len        : number of data points to use
+	 * @throws IndexOutOfBoundsException if the block lies outside of samples or timestamps
+	 * @throws IllegalArgumentException if a timestamp is not finite, in which case no point is used
+	 */
+	public synchronized void updateCoefficients(double[] timestamps, double[] samples, int off, int len) {
+		
+		if (off < 0 || len < 0 || off > samples.length - len || off > timestamps.length - len) {
+			throw new IndexOutOfBoundsException("Block [" + off + ", " + off + "+" + len
+					+ ") is outside of " + Math.min(samples.length, timestamps.length) + " samples");
+		}
+		if (!configuration.isTimeAged()) {
+			updateCoefficients(samples, off, len);
+			return;
+		}
+		for (int i = off; i < off + len; i++) {
+			checkTimestamp(timestamps[i]);
+		}
+		
+		// Time window aging may also remove points leaving the window
+		if (workers != null) {
+			reserveBatch(configuration.agingFlag == Settings.timeWindowAge ? 2 * len : len);
+		}
+		for (int i = off; i < off + len; i++) {
+			updateTimed(timestamps[i], samples[i]);
+			N++;
+		}
+		
+		submitBatch();
+	} // end updateCoefficients
+	
+	/**
+	 * Ages the coefficients to the given time without adding a data point,
+	 * so that with time window aging the density leaves out data points
+	 * older than the window even when no new points arrive. Decay aging
+	 * weighs every point alike, so its density does not change.
+	 * 
+	 * @param timestamp : the current time, in seconds
+	 * @throws IllegalArgumentException if the timestamp is not finite
+	 */
+	public synchronized void advanceTime(double timestamp) {
+		
+		checkTimestamp(timestamp);
+		if (!configuration.isTimeAged() || timestamp <= lastTime) {
+			return;
+		}
+		
+		if (configuration.agingFlag == Settings.decayAge) {
+			totalWeight *= Math.exp(-configuration.decayRate * (timestamp - lastTime));
+		}
+		else {
+			evictBefore(timestamp - configuration.timeWindow);
+		}
+		lastTime = timestamp;
+	} // end advanceTime
+	
+	/**
+	 * Updates the function coefficients based on a block of incoming data
+	 * points. This gives the same coefficients as passing the points to
+	 * updateCoefficients one at a time, but the aging method is only
+	 * examined once and the Caudle and no aging decays are applied in
+	 * closed form across the whole block.
+	 * 
+	 * Post: the coefficients are updated as needed
+	 * 
+	 * @param samples : array holding the new data points
+	 * @param off     : index of the first data point to use
+	 * @param len     : number of data points to use
+	 * @throws IndexOutOfBoundsException if the block lies outside of samples
+	 */
+	public synchronized void updateCoefficients(double[] samples, int off, int len) {
+		
+		if (off < 0 || len < 0 || off > samples.length - len) {
+			throw new IndexOutOfBoundsException("Block [" + off + ", " + off + "+" + len
+					+ ") is outside of " + samples.length + " samples");
+		}
+		
+		// Leave the data points to the shards if there are any
+		if (shardQueue != null) {
+			while (len > 0) {
+				int count = Math.min(len, shardQueue.length - shardQueueSize);
+				System.arraycopy(samples, off, shardQueue, shardQueueSize, count);
+				shardQueueSize += count;
+				off += count;
+				len -= count;
+				if (shardQueueSize == shardQueue.length) {
+					readShardQueue();
+				}
+			}
+			return;
+		}
+		
+		// Time aging stamps the whole block with its arrival
+		if (configuration.isTimeAged()) {
+			double now = currentTime();
+			if (workers != null) {
+				reserveBatch(configuration.agingFlag == Settings.timeWindowAge ? 2 * len : len);
+			}
+			for (int i = off; i < off + len; i++) {
+				updateTimed(now, samples[i]);
+				N++;
+			}
+			submitBatch();
+			return;
+		}
+		
+		updateBlock(samples, off, len);
+	} // end updateCoefficients
+	
+	/**
+	 * Adds a block of data points with Caudle, no or window aging (see updateCoefficients).
+	 */
+	private void updateBlock(double[] samples, int off, int len) {
+		
+		// Window aging adds the point leaving the window as well as the new one
+		if (workers != null) {
+			reserveBatch(configuration.agingFlag == Settings.windowAge ? 2 * len : len);
+		}
+		
+		kernel.addPoints(store, N, samples, off, len);
+		N += len;
+		
+		submitBatch();
+	} // end updateBlock
+	
+	/**
+	 * Adds a data point taken at the given time with decay or time window
+	 * aging. With decay aging the coefficients are the mean of the points
+	 * weighted by exp(-decayRate * age), so each new point decays the total
+	 * weight W to d*W and adds 1, where d is the decay since the last point.
+	 * With time window aging they are the plain mean of the n points in the
+	 * window, so each point entering or leaving scales them by n / (n + 1)
+	 * or n / (n - 1).
+	 * 
+	 * @param timestamp : the time the data point was taken, in seconds
+	 * @param Xnew      : the new data point
+	 */
+	private void updateTimed(double timestamp, double Xnew) {
+		
+		double time = Math.max(timestamp, lastTime);
+		
+		if (configuration.agingFlag == Settings.decayAge) {
+			double decayed = totalWeight * Math.exp(-configuration.decayRate * (time - lastTime));
+			double weight = decayed + 1;
+			kernel.rescale(store, decayed / weight);
+			queueSample(Xnew, 1.0 / (weight * transform.scale));
+			totalWeight = weight;
+		}
+		else {
+			evictBefore(time - configuration.timeWindow);
+			if (windowCount == windowTimes.length) {
+				resizeTimeWindow(2 * windowTimes.length);
+			}
+			int n = windowCount;
+			kernel.rescale(store, n / (n + 1.0));
+			queueSample(Xnew, 1.0 / ((n + 1) * transform.scale));
+			int slot = (windowHead + n) % windowTimes.length;
+			windowTimes[slot]  = time;
+			windowValues[slot] = Xnew;
+			windowCount++;
+		}
+		lastTime = time;
+	} // end updateTimed
+	
+	/**
+	 * Removes the data points taken before the given time from the time
+	 * window, shrinking the window once it is mostly empty.
+	 * 
+	 * @param cutoff : the time of the oldest data point to keep
+	 */
+	private void evictBefore(double cutoff) {
+		
+		while (windowCount > 0 && windowTimes[windowHead] < cutoff) {
+			int n = windowCount;
+			
+			// The mean of no points is zero
+			if (n == 1) {
+				kernel.rescale(store, 0.0);
+			}
+			else {
+				kernel.rescale(store, n / (n - 1.0));
+				queueSample(windowValues[windowHead], -1.0 / ((n - 1) * transform.scale));
+			}
+			windowHead = (windowHead + 1) % windowTimes.length;
+			windowCount--;
+		}
+		
+		if (windowTimes.length > MIN_TIME_WINDOW && windowCount < windowTimes.length / 4) {
+			resizeTimeWindow(windowTimes.length / 2);
+		}
+	} // end evictBefore
+	
+	/**
+	 * Moves the time window into arrays of the given capacity, oldest point first.
+	 * 
+	 * @param capacity : the new capacity, at least the number of points in the window
+	 */
+	private void resizeTimeWindow(int capacity) {
+		double[] times  = new double[capacity];
+		double[] values = new double[capacity];
+		for (int i = 0; i < windowCount; i++) {
+			int slot = (windowHead + i) % windowTimes.length;
+			times[i]  = windowTimes[slot];
+			values[i] = windowValues[slot];
+		}
+		windowTimes  = times;
+		windowValues = values;
+		windowHead   = 0;
+	} // end resizeTimeWindow
+	
+	/**
+	 * @param timestamp : a time given for a data point
+	 * @throws IllegalArgumentException if the time is not finite
+	 */
+	private static void checkTimestamp(double timestamp) {
+		if (Double.isNaN(timestamp) || Double.isInfinite(timestamp)) {
+			throw new IllegalArgumentException("Timestamp " + timestamp + " is not a finite time");
+		}
+	} // end checkTimestamp
+	
+	/**
+	 * @return the current time in seconds, for data points given without a timestamp
+	 */
+	private static double currentTime() {
+		return System.currentTimeMillis() / 1000.0;
+	} // end currentTime
+	
+	/**
+	 * Adds the data points queued for the shards to the coefficients,
+	 * through the shards if there are enough of them to be worth splitting.
+	 */
+	private void readShardQueue() {
+		
+		int len = shardQueueSize;
+		if (len == 0) {
+			return;
+		}
+		shardQueueSize = 0;
+		if (len >= configuration.shards * MIN_SHARD_SIZE) {
+			updateSharded(shardQueue, 0, len);
+		}
+		else {
+			updateBlock(shardQueue, 0, len);
+		}
+	} // end readShardQueue
+	
+	/**
+	 * Splits a block of data points between the shards, which read their
+	 * parts in parallel, and merges the shards in order.
+	 */
+	private void updateSharded(final double[] samples, int off, int len) {
+		
+		if (shards == null) {
+			shards = new DensityEstimator[configuration.shards];
+			Configuration shardConfiguration = configuration.forShard();
+			for (int s = 0; s < shards.length; s++) {
+				shards[s] = new DensityEstimator(shardConfiguration);
+			}
+		}
+		
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int s = 0; s < shards.length; s++) {
+			final DensityEstimator shard = shards[s];
+			final int from = off + (int) ((long) len * s / shards.length);
+			final int to   = off + (int) ((long) len * (s + 1) / shards.length);
+			tasks.add(new Callable<Void>() {
+				public Void call() {
+					shard.reset();
+					shard.updateCoefficients(samples, from, to - from);
+					return null;
+				}
+			});
+		}
+		
+		try
+		{
+			for (Future<Void> result : shardPool.invokeAll(tasks)) {
+				result.get();
+			}
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while reading shards", ex);
+		}
+		catch (ExecutionException ex) {
+			throw new IllegalStateException("Reading a shard failed", ex.getCause());
+		}
+		
+		flush();
+		for (DensityEstimator shard : shards) {
+			synchronized (shard) {
+				mergeFrom(shard);
+			}
+		}
+	} // end updateSharded
+	
+	/**
+	 * Adds the effect of the samples read by another estimator, as though
+	 * they had been read by this estimator after its own samples. Without
+	 * aging the order of the samples does not matter. The other estimator
+	 * is left unchanged.
+	 * 
+	 * Both estimators are locked, this one first, so two threads must not
+	 * merge a pair of estimators into each other at the same time.
+	 * 
+	 * @param later : an estimator which read the samples following this estimator's samples
+	 * @throws IllegalArgumentException if the estimators' parameters differ (see Configuration.isMergeableWith),
+	 *         or they use time aging
+	 */
+	public synchronized void merge(DensityEstimator later) {
+		
+		if (later == this) {
+			throw new IllegalArgumentException("An estimator cannot be merged with itself");
+		}
+		if (!configuration.isMergeableWith(later.configuration)) {
+			throw new IllegalArgumentException("Estimators with different parameters cannot be merged");
+		}
+		if (configuration.isTimeAged()) {
+			throw new IllegalArgumentException("Estimators with time aging cannot be merged");
+		}
+		
+		flush();
+		synchronized (later) {
+			later.flush();
+			mergeFrom(later);
+		}
+	} // end merge
+	
+	/**
+	 * Merges another estimator's coefficients into these (see merge).
+	 * Pre: neither estimator has data points waiting for ingest threads
+	 */
+	private void mergeFrom(DensityEstimator later) {
+		
+		long laterN = later.N;
+		if (laterN == 0) {
+			return;
+		}
+		function = null;
+		
+		// The coefficients are the mean over all of the samples
+		if (configuration.agingFlag == Settings.noAge) {
+			double total = (double) N + laterN;
+			transform.combine(N / total, later.transform, laterN / total);
+		}
+		
+		// The later samples age these coefficients by theta each
+		else if (configuration.agingFlag == Settings.caudleAge) {
+			transform.combine(Math.pow(configuration.agingTheta, laterN), later.transform, 1.0);
+		}
+		
+		// The later samples push the oldest samples out of the window
+		else if (configuration.agingFlag == Settings.windowAge) {
+			int windowSize = configuration.windowSize;
+			if (laterN >= windowSize) {
+				transform.combine(0.0, later.transform, 1.0);
+			}
+			else {
+				transform.combine(1.0, later.transform, 1.0);
+				double weight = 1.0 / windowSize;
+				for (long n = Math.max(N - windowSize, 0); n < N + laterN - windowSize; n++) {
+					kernel.addSample(store, oldSamples[(int) (n % windowSize)], -weight);
+				}
+			}
+			
+			// Move the later samples still in the window to their slots in this window
+			for (long m = Math.max(laterN - windowSize, 0); m < laterN; m++) {
+				oldSamples[(int) ((N + m) % windowSize)] = later.oldSamples[(int) (m % windowSize)];
+			}
+		}
+		
+		N += laterN;
+	} // end mergeFrom
+	
+	/**
+	 * Clears the coefficients and the window, as though no data points had been read.
+	 */
+	private synchronized void reset() {
+		flush();
+		kernel.rescale(store, 0.0);
+		N = 0;
+		lastTime = Double.NEGATIVE_INFINITY;
+		totalWeight = 0;
+		windowHead = 0;
+		windowCount = 0;
+	} // end reset
+	
+	/**
+	 * Adds a weighted data point to the coefficients, or queues it for
+	 * the ingest threads if there are any.
+	 * 
+	 * @param X      : the data point
+	 * @param weight : the weight of the point in the stored coefficients
+	 */
+	private void queueSample(double X, double weight) {
+		
+		function = null;
+		if (workers == null) {
+			kernel.addSample(store, X, weight);
+			return;
+		}
+		
+		reserveBatch(1);
+		batchSamples[batchSize] = X;
+		batchWeights[batchSize] = weight;
+		batchSize++;
+	} // end queueSample
+	
+	/**
+	 * Makes room for the given number of data points to be queued.
+	 * 
+	 * @param count : the number of data points about to be queued
+	 */
+	private void reserveBatch(int count) {
+		if (batchSamples == null) {
+			
+			// Queue in the arrays of a batch the threads have finished, if there is one
+			double[][] arrays = workers.reuse(Math.max(count, BATCH_SIZE));
+			batchSamples = (arrays != null) ? arrays[0] : new double[Math.max(count, BATCH_SIZE)];
+			batchWeights = (arrays != null) ? arrays[1] : new double[batchSamples.length];
+		}
+		else if (batchSize + count > batchSamples.length) {
+			int capacity = Math.max(batchSize + count, 2 * batchSamples.length);
+			batchSamples = Arrays.copyOf(batchSamples, capacity);
+			batchWeights = Arrays.copyOf(batchWeights, capacity);
+		}
+	} // end reserveBatch
+	
+	/**
+	 * Hands the queued data points to the ingest threads, waiting only if too
+	 * many batches are outstanding. The threads keep the arrays, so the next
+	 * data points are queued in the arrays of a finished batch or new ones.
+	 */
+	private void submitBatch() {
+		if (workers != null && batchSize > 0) {
+			workers.submit(batchSamples, batchWeights, batchSize);
+			batchSamples = null;
+			batchWeights = null;
+			batchSize    = 0;
+		}
+	} // end submitBatch
+	
+	/**
+	 * Waits until every data point given so far has been added to the
+	 * coefficients, by the shards and the ingest threads if there are any.
+	 */
+	public synchronized void flush() {
+		readShardQueue();
+		if (workers != null) {
+			submitBatch();
+			workers.drain();
+		}
+	} // end flush
+	
+	/**
+	 * The estimator's coefficients and window as the update kernel sees
+	 * them. Samples are queued for the ingest threads if there are any,
+	 * which are drained before the stored coefficients are rewritten.
+	 */
+	private final class TransformStore extends UpdateKernel.Store {
+		
+		// The coefficients of each level, scaling functions first
+		private final double[][] levels = new double[kernel.getLevelCount()][];
+		
+		TransformStore() {
+			levels[0] = transform.scalingCoefficients;
+			for (int level = 1; level < levels.length; level++) {
+				levels[level] = transform.waveletCoefficients[level - 1];
+			}
+		}
+		
+		double getScale() {
+			return transform.scale;
+		}
+		
+		void setScale(double scale) {
+			transform.scale = scale;
+			function = null;
+		}
+		
+		void addStored(int level, int index, double value) {
+			levels[level][index] += value;
+		}
+		
+		void rewriteStored(double factor) {
+			flush();
+			transform.multiplyStored(factor);
+		}
+		
+		double getWindowSample(int slot) {
+			return oldSamples[slot];
+		}
+		
+		void setWindowSample(int slot, double X) {
+			oldSamples[slot] = X;
+		}
+		
+		void queueSample(double X, double weight) {
+			DensityEstimator.this.queueSample(X, weight);
+		}
+		
+		void markChanged(int level, int first, int last) {
+			if (grid != null) {
+				grid.markChanged(level, first, last);
+			}
+		}
+	} // end TransformStore
+	
+	/**
+	 * Calculates the density at each discrete point in the
+	 * range pre-specified.
+	 * 
+	 * @return the normalized density estimate
+	 */
+	public synchronized double[] getDensity() {
+		
+		flush();
+		
+		// The basis values at the grid points are built once and shared
+		if (basis == null) {
+			basis = BasisMatrix.getInstance(configuration, wavelet, transform);
+		}
+		
+		// Calculate un-normalized density for each point in domain, from the
+		// thresholded coefficients (which change as a whole with every sample),
+		// or else either in full or from the changes since the last call
+		double[] density = new double[basis.rows];
+		if (configuration.isThresholded()) {
+			basis.multiply(transform, new SparseCoefficients(transform, configuration), density,
+					configuration.parallelThreshold);
+		}
+		else if (configuration.incrementalFlag) {
+			if (grid == null) {
+				grid = new DensityGrid(basis, transform, configuration.parallelThreshold);
+			}
+			grid.getDensity(density);
+		}
+		else {
+			basis.multiply(transform, density, configuration.parallelThreshold);
+		}
+		
+		//Normalize density
+		return DensityHelper.normalizeDensity(density, configuration);
+	}
+	
+	/**
+	 * Takes the current estimate as a density function, which evaluates the
+	 * density, cumulative distribution and quantiles at single points
+	 * without evaluating the density over the whole range. The function is
+	 * kept until the coefficients next change, so asking again costs nothing.
+	 * 
+	 * @return the density function of the current coefficients
+	 */
+	public synchronized DensityFunction getDensityFunction() {
+		
+		flush();
+		if (function == null) {
+			function = new DensityFunction(configuration, wavelet, transform);
+		}
+		return function;
+	}
+	
+	/**
+	 * Takes the old normalized density over the supported range and
+	 * updates it based on the current coefficients.
+	 * @param densityTable : the data table containing the density information
+	 */
+	public void updateDensity(DataTable densityTable) {
+		
+		double[] normDensity = getDensity();
+		
+		// Update each density in the range
+        for (int i = 0; i < normDensity.length; i++) {
+            densityTable.set(1, i, normDensity[i]);
+        }
+	
+	}
+	
+	/**
+	 * Saves the coefficients, sample count and window (with time aging, the
+	 * timestamps) to a checkpoint file, from which an estimator with the
+	 * same parameters can carry on. Checkpoints are saved one at a time, so
+	 * one taken earlier never replaces one taken later.
+	 * @param fileName : the checkpoint file, replaced once the new checkpoint is written.
+	 * @throws IOException if the file cannot be written.
+	 */
+	public void saveCheckpoint(String fileName) throws IOException {
+		synchronized (checkpointLock) {
+			takeCheckpoint().write(fileName);
+		}
+	} // end saveCheckpoint
+	
+	/**
+	 * Copies the state to be saved, so the file can be written without holding the lock.
+	 */
+	private synchronized Checkpoint takeCheckpoint() {
+		flush();
+		double[] times  = new double[windowCount];
+		double[] values = new double[windowCount];
+		for (int i = 0; i < windowCount; i++) {
+			times[i]  = windowTimes[(windowHead + i) % windowTimes.length];
+			values[i] = windowValues[(windowHead + i) % windowTimes.length];
+		}
+		return new Checkpoint(configuration.coefficientHash(), N, transform, oldSamples,
+				lastTime, totalWeight, times, values);
+	} // end takeCheckpoint
+	
+	/**
+	 * Replaces the coefficients, sample count and window with those saved
+	 * in a checkpoint file. The time taken depends on the size of the file
+	 * rather than on how many samples were read before it was saved.
+	 * @param fileName : the checkpoint file.
+	 * @throws IOException if the file cannot be read, or was saved by an
+	 *         estimator with different parameters.
+	 */
+	public synchronized void restoreCheckpoint(String fileName) throws IOException {
+		Checkpoint checkpoint = Checkpoint.read(fileName);
+		if (checkpoint.configurationHash != configuration.coefficientHash()) {
+			throw new IOException("Checkpoint " + fileName + " was saved with different estimator parameters");
+		}
+		flush();
+		checkpoint.restore(transform, oldSamples);
+		function = null;
+		N = checkpoint.sampleCount;
+		lastTime    = checkpoint.lastTime;
+		totalWeight = checkpoint.totalWeight;
+		if (windowTimes != null) {
+			int count = checkpoint.times.length;
+			windowTimes  = new double[Math.max(MIN_TIME_WINDOW, Integer.highestOneBit(Math.max(count, 1)) * 2)];
+			windowValues = new double[windowTimes.length];
+			System.arraycopy(checkpoint.times, 0, windowTimes, 0, count);
+			System.arraycopy(checkpoint.timedSamples, 0, windowValues, 0, count);
+			windowHead  = 0;
+			windowCount = count;
+		}
+	} // end restoreCheckpoint
+	
+	/**
+	 * Saves a checkpoint periodically on a background thread until the
+	 * estimator is closed. Reading samples only waits while the state is
+	 * copied, not while the file is written. A failure to save is kept
+	 * (see getCheckpointFailure) and the next period tries again.
+	 * @param fileName     : the checkpoint file.
+	 * @param periodMillis : time between checkpoints in milliseconds.
+	 */
+	public synchronized void startCheckpointing(final String fileName, long periodMillis) {
+		if (checkpointer != null) {
+			throw new IllegalStateException("Checkpoints are already being saved");
+		}
+		checkpointer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "Checkpointer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		checkpointer.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try
+				{
+					saveCheckpoint(fileName);
+					checkpointFailure = null;
+				}
+				catch (IOException ex) {
+					checkpointFailure = ex;
+				}
+			}
+		}, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	} // end startCheckpointing
+	
+	/**
+	 * @return the failure of the last periodic checkpoint, or null if it was saved.
+	 */
+	public IOException getCheckpointFailure() {
+		return checkpointFailure;
+	}
+	
+	/**
+	 * Waits for the ingest threads to add every data point and stops them,
+	 * along with any periodic checkpoints, waiting for a checkpoint being
+	 * saved to be written. The estimator may still be used afterwards,
+	 * updating the levels on the calling thread.
+	 */
+	public void close() {
+		ScheduledExecutorService stopped;
+		synchronized (this) {
+			stopped = checkpointer;
+			checkpointer = null;
+			if (stopped != null) {
+				stopped.shutdown();
+			}
+			readShardQueue();
+			if (workers != null) {
+				try
+				{
+					submitBatch();
+				}
+				finally
+				{
+					workers.close();
+					workers = null;
+				}
+			}
+		}
+		
+		// A checkpoint being saved needs the lock to copy the state, so it is awaited without it
+		if (stopped != null) {
+			try
+			{
+				stopped.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			}
+			catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	} // end close
+
+} // end class DensityEstimator.
@@ -0,0 +1,571 @@
+package edu.fit.estimator1D;
+
+import java.util.Arrays;
+
+/**
+ * A density estimate at one moment, which answers point queries for the
+ * density, the cumulative distribution and its quantiles without
+ * evaluating the density over the whole density domain.
+ * 
+ * The estimate is a sum of scaled and translated basis functions, and a
+ * point lies in the support of only a few translates at each resolution
+ * level, so the estimate at a point is a sum over those translates. Its
+ * integral up to a point is likewise a sum over the integrals of the
+ * supporting translates, which come from the integrated look-up tables of
+ * the wavelet, plus the whole integrals of the translates left of the
+ * point, which come from running sums of the coefficients taken when the
+ * function is created.
+ * 
+ * The density is normalized as getDensity normalizes it (with iterative
+ * normalization, to the limit of the iteration), to max(f - c, 0) + s for
+ * the water level c and uniform shift s of
+ * DensityHelper.exactNormalization, which are found once, from the
+ * estimate over the density domain's grid, when the function is created.
+ * Point queries need nothing more. The cumulative distribution and the
+ * quantiles also need the segments of the domain where the estimate lies
+ * above the water level, which are only found on the first such query.
+ * They are found on a grid at least as fine as a thirty-second of a
+ * translate at the finest level, and their ends are then found precisely
+ * by false position. Within a segment the cumulative distribution is the
+ * integral of f - c from the segment's start, and between segments it
+ * grows only with the shift, so it never decreases. It is divided by the
+ * whole mass so that it reaches one at the end of the domain; the whole
+ * mass differs from one only by the error of the grid's sum as an
+ * integral, which is small unless the grid is coarse for the finest level.
+ * Quantiles are found by searching the masses up to each segment for the
+ * segment holding the quantile, and then by Newton's method within it,
+ * safeguarded by bisection.
+ * 
+ * A density function never changes once created, so it may be shared by
+ * threads.
+ * 
+ * @author Daniel Weinand & Gedeon Nyengele
+ */
+public class DensityFunction {
+	
+	// Most steps of a quantile search, and the step, relative to the density
+	// domain, at which it stops.
+	private static final int MAX_STEPS = 100;
+	private static final double QUANTILE_TOLERANCE = 1e-12;
+	
+	// Points per unit translate of the finest level at which the segments
+	// above the water level are looked for.
+	private static final int POINTS_PER_TRANSLATE = 32;
+	
+	// Points evaluated together by the batch evaluation.
+	private static final int BLOCK_SIZE = 64;
+	
+	private final Wavelet wavelet;				// The wavelet used
+	private final double supportMin;			// The wavelet's support
+	private final double supportMax;
+	private final int translatesPerPoint;		// Most translates at a level supporting a point
+	private final double minimumRange;			// The density domain
+	private final double maximumRange;
+	private final double[][] coefficients;		// True coefficients of each level, scaling functions first
+	private final double[][] leftSums;			// Sums of each level's coefficients before each index
+	private final int[] offsets;				// First translate of each level
+	private final double[] dyadicScales;		// 2^j for each level
+	private final double[] levelNormalizers;	// 2^(j/2) for each level
+	private final double phiTotal;				// Integrals of phi and psi over their tables
+	private final double psiTotal;
+	private final double waterLevel;			// Normalization max(f - c, 0) + s of the estimate f,
+	private final double shift;					// with water level c and shift s
+	private final double discretization;		// The distance between the grid points
+	private double[] gridPoints;				// The grid of the density domain and the estimate
+	private double[] gridEstimates;				// over it, until the segments are found
+	private volatile Segments segments;			// The segments above the water level, once they are needed
+	
+	/**
+	 * The segments of the domain where the estimate lies above the water
+	 * level, with the masses of the normalized density up to them.
+	 */
+	private final class Segments {
+		final double[] starts;				// Ends of each segment
+		final double[] ends;
+		final double[] startIntegrals;		// Integral of f - c up to the start of each segment
+		final double[] massBefore;			// Integral of max(f - c, 0) up to the start of each segment
+		final double[] massAfter;			// and up to the end of each segment
+		final double totalMass;				// Integral of the normalized density over the domain
+		
+		/**
+		 * Finds the segments on a grid fine enough for the finest level's features.
+		 * @param points : the grid points of the density domain
+		 * @param grid   : the estimate at the grid points
+		 */
+		Segments(double[] points, double[] grid) {
+			
+			double spacing = 1.0 / (POINTS_PER_TRANSLATE * dyadicScales[dyadicScales.length - 1]);
+			if (spacing < discretization) {
+				points = new double[(int) Math.ceil((maximumRange - minimumRange) / spacing)];
+				for (int i = 0; i < points.length; i++) {
+					points[i] = minimumRange + i * spacing;
+				}
+				grid = new double[points.length];
+				estimate(points, grid);
+			}
+			int count = 0;
+			for (int i = 0; i < grid.length; i++) {
+				if (grid[i] > waterLevel && (i == 0 || !(grid[i - 1] > waterLevel))) {
+					count++;
+				}
+			}
+			starts         = new double[count];
+			ends           = new double[count];
+			startIntegrals = new double[count];
+			massBefore     = new double[count];
+			massAfter      = new double[count];
+			
+			int segment = 0;
+			double mass = 0.0;
+			for (int i = 0; i < grid.length; i++) {
+				if (!(grid[i] > waterLevel)) {
+					continue;
+				}
+				if (i == 0 || !(grid[i - 1] > waterLevel)) {
+					starts[segment]         = (i == 0) ? minimumRange : crossing(points[i - 1], points[i], grid[i - 1], grid[i]);
+					startIntegrals[segment] = levelIntegral(starts[segment]);
+					massBefore[segment]     = mass;
+				}
+				if (i == grid.length - 1 || !(grid[i + 1] > waterLevel)) {
+					ends[segment] = (i == grid.length - 1) ? maximumRange : crossing(points[i], points[i + 1], grid[i], grid[i + 1]);
+					mass += Math.max(levelIntegral(ends[segment]) - startIntegrals[segment], 0.0);
+					massAfter[segment] = mass;
+					segment++;
+				}
+			}
+			totalMass = mass + shift * (maximumRange - minimumRange);
+		}
+		
+		/**
+		 * @param x : a point of the density domain
+		 * @return the index of the last segment starting at or before x, or -1 if there is none
+		 */
+		int segmentAt(double x) {
+			
+			int low  = 0;
+			int high = starts.length;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (starts[middle] <= x) {
+					low = middle + 1;
+				}
+				else {
+					high = middle;
+				}
+			}
+			return low - 1;
+		} // end segmentAt
+		
+		/**
+		 * Integrates the normalized density from the start of the domain.
+		 * @param x       : the end point of the integral
+		 * @param segment : the last segment starting at or before x, or -1 if there is none
+		 * @return the mass up to x, which never decreases with x
+		 */
+		double massTo(double x, int segment) {
+			
+			double mass = shift * (x - minimumRange);
+			if (segment < 0) {
+				return mass;
+			}
+			if (x >= ends[segment]) {
+				return mass + massAfter[segment];
+			}
+			
+			// Clamped to the segment's masses, against rounding
+			double within = massBefore[segment] + levelIntegral(x) - startIntegrals[segment];
+			return mass + Math.min(Math.max(within, massBefore[segment]), massAfter[segment]);
+		} // end massTo
+	} // end Segments
+	
+	
+	/**
+	 * Takes a density function from the coefficients of an estimator.
+	 * @param configuration : the estimator's parameters
+	 * @param wavelet       : the wavelet used
+	 * @param transform     : the coefficients, which are copied (thresholded if configured)
+	 */
+	DensityFunction(Configuration configuration, Wavelet wavelet, Transform transform) {
+		
+		this.wavelet = wavelet;
+		double[] support = wavelet.getSupport();
+		supportMin   = support[0];
+		supportMax   = support[1];
+		translatesPerPoint = (int) Math.floor(supportMax - supportMin) + 1;
+		minimumRange = configuration.getMinimumRange();
+		maximumRange = configuration.getMaximumRange();
+		phiTotal     = wavelet.getPhiIntegralAt(supportMax);
+		psiTotal     = wavelet.getPsiIntegralAt(supportMax);
+		
+		int levelCount   = configuration.waveletFlag ? configuration.stopLevel - configuration.startLevel + 2 : 1;
+		coefficients     = new double[levelCount][];
+		leftSums         = new double[levelCount][];
+		offsets          = new int[levelCount];
+		dyadicScales     = new double[levelCount];
+		levelNormalizers = new double[levelCount];
+		
+		SparseCoefficients sparse = configuration.isThresholded() ? new SparseCoefficients(transform, configuration) : null;
+		for (int level = 0; level < levelCount; level++) {
+			
+			// The scaling functions are at the start level, as are the first wavelets
+			int j = configuration.startLevel + Math.max(level - 1, 0);
+			dyadicScales[level]     = Math.pow(2, j);
+			levelNormalizers[level] = Math.pow(2, j / 2.0);
+			
+			if (level == 0) {
+				offsets[level] = transform.scalingOffset;
+				coefficients[level] = scaled(transform.scalingCoefficients, transform.scale);
+			}
+			else if (sparse == null) {
+				offsets[level] = transform.waveletOffsets[level - 1];
+				coefficients[level] = scaled(transform.waveletCoefficients[level - 1], transform.scale);
+			}
+			else {
+				offsets[level] = transform.waveletOffsets[level - 1];
+				coefficients[level] = new double[transform.waveletCounts[level - 1]];
+				for (int i = 0; i < sparse.indices[level - 1].length; i++) {
+					coefficients[level][sparse.indices[level - 1][i]] = sparse.values[level - 1][i];
+				}
+			}
+			
+			leftSums[level] = new double[coefficients[level].length + 1];
+			for (int i = 0; i < coefficients[level].length; i++) {
+				leftSums[level][i + 1] = leftSums[level][i] + coefficients[level][i];
+			}
+		}
+		
+		// Normalize as the density over the grid is normalized
+		discretization = configuration.discretization;
+		gridPoints     = configuration.getGridPoints();
+		gridEstimates  = new double[gridPoints.length];
+		estimate(gridPoints, gridEstimates);
+		double[] normalization = DensityHelper.exactNormalization(gridEstimates, discretization);
+		waterLevel = normalization[0];
+		shift      = normalization[1];
+	}
+	
+	/**
+	 * @return the segments above the water level, found on the first call
+	 */
+	private Segments segments() {
+		Segments found = segments;
+		if (found == null) {
+			synchronized (this) {
+				found = segments;
+				if (found == null) {
+					found = new Segments(gridPoints, gridEstimates);
+					segments      = found;
+					gridPoints    = null;
+					gridEstimates = null;
+				}
+			}
+		}
+		return found;
+	} // end segments
+	
+	/**
+	 * Finds where the estimate crosses the water level between two points
+	 * on either side of it, by the Illinois variant of false position.
+	 * @param low       : the left point
+	 * @param high      : the right point
+	 * @param lowValue  : the estimate at the left point
+	 * @param highValue : the estimate at the right point
+	 * @return the crossing
+	 */
+	private double crossing(double low, double high, double lowValue, double highValue) {
+		
+		double tolerance = QUANTILE_TOLERANCE * (maximumRange - minimumRange);
+		double lowExcess  = lowValue - waterLevel;
+		double highExcess = highValue - waterLevel;
+		int side = 0;
+		for (int step = 0; step < MAX_STEPS && high - low > tolerance; step++) {
+			double next = (low * highExcess - high * lowExcess) / (highExcess - lowExcess);
+			if (!(next > low && next < high)) {
+				next = 0.5 * (low + high);
+			}
+			double excess = estimate(next) - waterLevel;
+			if ((excess > 0) == (highExcess > 0)) {
+				high = next;
+				highExcess = excess;
+				
+				// Halve the excess kept at the other end when it is kept twice
+				if (side == 1) {
+					lowExcess *= 0.5;
+				}
+				side = 1;
+			}
+			else {
+				low = next;
+				lowExcess = excess;
+				if (side == -1) {
+					highExcess *= 0.5;
+				}
+				side = -1;
+			}
+		}
+		return 0.5 * (low + high);
+	} // end crossing
+	
+	/**
+	 * @return the coefficients multiplied by the scale
+	 */
+	private static double[] scaled(double[] stored, double scale) {
+		double[] values = new double[stored.length];
+		for (int i = 0; i < stored.length; i++) {
+			values[i] = scale * stored[i];
+		}
+		return values;
+	} // end scaled
+	
+	/**
+	 * Evaluates the normalized density at a point.
+	 * @param x : the point
+	 * @return the density, which is zero outside of the density domain
+	 */
+	public double getDensityAt(double x) {
+		
+		if (!(x >= minimumRange && x <= maximumRange)) {
+			return 0.0;
+		}
+		return Math.max(estimate(x) - waterLevel, 0.0) + shift;
+	} // end getDensityAt
+	
+	/**
+	 * Evaluates the normalized density at many points, which is much
+	 * faster than evaluating them one at a time. The points are taken in
+	 * blocks, and each block is summed one translate at a time over all of
+	 * its points (see Wavelet.addPhiAt), so the sums of different points
+	 * do not wait on each other.
+	 * @param points    : the points
+	 * @param densities : receives the density at each point, zero outside of the density domain
+	 * @throws IllegalArgumentException if there are fewer densities than points
+	 */
+	public void getDensityAt(double[] points, double[] densities) {
+		
+		if (densities.length < points.length) {
+			throw new IllegalArgumentException("There are " + points.length + " points but room for "
+					+ densities.length + " densities");
+		}
+		
+		estimate(points, densities);
+		for (int p = 0; p < points.length; p++) {
+			double x = points[p];
+			densities[p] = (x >= minimumRange && x <= maximumRange) ? Math.max(densities[p] - waterLevel, 0.0) + shift : 0.0;
+		}
+	} // end getDensityAt
+	
+	/**
+	 * Evaluates the un-normalized estimate at many points (see getDensityAt).
+	 * @param points    : the points
+	 * @param estimates : receives the estimate at each point, zero outside of the density domain
+	 */
+	private void estimate(double[] points, double[] estimates) {
+		
+		double[] scaled    = new double[BLOCK_SIZE];
+		int[] firstIndices = new int[BLOCK_SIZE];
+		double[] positions = new double[BLOCK_SIZE];
+		double[] weights   = new double[BLOCK_SIZE];
+		double[] levelSums = new double[BLOCK_SIZE];
+		double[] sums      = new double[BLOCK_SIZE];
+		
+		for (int start = 0; start < points.length; start += BLOCK_SIZE) {
+			int count = Math.min(BLOCK_SIZE, points.length - start);
+			Arrays.fill(sums, 0, count, 0.0);
+			
+			for (int level = 0; level < coefficients.length; level++) {
+				double[] levelCoefficients = coefficients[level];
+				int firstTranslate = offsets[level];
+				for (int p = 0; p < count; p++) {
+					double x = points[start + p];
+					scaled[p] = dyadicScales[level] * x;
+					
+					// Points outside of the density domain start past the last translate and add 0
+					firstIndices[p] = (x >= minimumRange && x <= maximumRange)
+							? DensityHelper.firstRelevantIndex(scaled[p], firstTranslate, supportMax)
+							: levelCoefficients.length;
+				}
+				Arrays.fill(levelSums, 0, count, 0.0);
+				
+				// The t-th translate from the first supporting each point; translates
+				// past the last supporting one lie outside of the tables and add 0
+				for (int t = 0; t < translatesPerPoint; t++) {
+					for (int p = 0; p < count; p++) {
+						int i = firstIndices[p] + t;
+						positions[p] = scaled[p] - (firstTranslate + i);
+						weights[p]   = (i < levelCoefficients.length) ? levelCoefficients[i] : 0.0;
+					}
+					if (level == 0) {
+						wavelet.addPhiAt(positions, weights, levelSums, count);
+					}
+					else {
+						wavelet.addPsiAt(positions, weights, levelSums, count);
+					}
+				}
+				
+				for (int p = 0; p < count; p++) {
+					sums[p] += levelNormalizers[level] * levelSums[p];
+				}
+			}
+			
+			System.arraycopy(sums, 0, estimates, start, count);
+		}
+	} // end estimate
+	
+	/**
+	 * Evaluates the cumulative distribution at a point.
+	 * @param x : the point
+	 * @return the probability of a sample no greater than x
+	 */
+	public double getCumulativeAt(double x) {
+		
+		if (x <= minimumRange) {
+			return 0.0;
+		}
+		if (x >= maximumRange) {
+			return 1.0;
+		}
+		Segments found = segments();
+		return Math.min(found.massTo(x, found.segmentAt(x)) / found.totalMass, 1.0);
+	} // end getCumulativeAt
+	
+	/**
+	 * Finds a quantile of the distribution: the segment holding it is found
+	 * by searching the masses up to the segments, and the quantile within
+	 * it by Newton's method on the cumulative distribution, whose derivative
+	 * is the density. The quantile is kept bracketed by the segment, and
+	 * steps which would leave the bracket bisect it instead.
+	 * @param p : the probability
+	 * @return the smallest point x at which the cumulative distribution reaches p
+	 * @throws IllegalArgumentException if p does not lie between 0 and 1
+	 */
+	public double getQuantile(double p) {
+		
+		if (!(p >= 0 && p <= 1)) {
+			throw new IllegalArgumentException("The probability " + p + " does not lie between 0 and 1");
+		}
+		Segments found = segments();
+		double target = p * found.totalMass;
+		
+		// The first segment whose end reaches the target mass
+		int low  = 0;
+		int high = found.starts.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (found.massAfter[middle] + shift * (found.ends[middle] - minimumRange) < target) {
+				low = middle + 1;
+			}
+			else {
+				high = middle;
+			}
+		}
+		int segment = low;
+		
+		// Between segments the density is the shift alone
+		double gapStart = (segment > 0) ? found.ends[segment - 1] : minimumRange;
+		double gapEnd   = (segment < found.starts.length) ? found.starts[segment] : maximumRange;
+		double gapMass  = ((segment > 0) ? found.massAfter[segment - 1] : 0.0) + shift * (gapStart - minimumRange);
+		if (segment == found.starts.length || target <= gapMass + shift * (gapEnd - gapStart)) {
+			double x = (shift > 0) ? gapStart + (target - gapMass) / shift : gapStart;
+			return Math.min(Math.max(x, gapStart), gapEnd);
+		}
+		
+		double left      = found.starts[segment];
+		double right     = found.ends[segment];
+		double tolerance = QUANTILE_TOLERANCE * (maximumRange - minimumRange);
+		double leftMass  = found.massTo(left, segment);
+		double rightMass = found.massTo(right, segment);
+		double x = left + (right - left) * (target - leftMass) / (rightMass - leftMass);
+		for (int step = 0; step < MAX_STEPS; step++) {
+			double mass = found.massTo(x, segment);
+			if (mass == target) {
+				return x;
+			}
+			if (mass < target) {
+				left = x;
+			}
+			else {
+				right = x;
+			}
+			
+			double density = Math.max(estimate(x) - waterLevel, 0.0) + shift;
+			double next = (density > 0) ? x - (mass - target) / density : Double.NaN;
+			if (!(next > left && next < right)) {
+				next = 0.5 * (left + right);
+			}
+			if (Math.abs(next - x) <= tolerance) {
+				return next;
+			}
+			x = next;
+		}
+		return x;
+	} // end getQuantile
+	
+	/**
+	 * @return the water level subtracted from the un-normalized estimate to normalize it
+	 */
+	public double getWaterLevel() {
+		return waterLevel;
+	} // end getWaterLevel
+	
+	/**
+	 * @param x : the end point of the integral
+	 * @return the integral of the estimate less the water level, from minus infinity
+	 *         for the estimate and from 0 for the water level
+	 */
+	private double levelIntegral(double x) {
+		return integral(x) - waterLevel * x;
+	} // end levelIntegral
+	
+	/**
+	 * Evaluates the un-normalized estimate at a point from the translates supporting it.
+	 * @param x : the point
+	 * @return the sum of the coefficients times their basis functions at x
+	 */
+	private double estimate(double x) {
+		
+		double sum = 0.0;
+		for (int level = 0; level < coefficients.length; level++) {
+			double[] levelCoefficients = coefficients[level];
+			double scaledX  = dyadicScales[level] * x;
+			int firstIndex  = DensityHelper.firstRelevantIndex(scaledX, offsets[level], supportMax);
+			int lastIndex   = DensityHelper.lastRelevantIndex(scaledX, offsets[level], levelCoefficients.length, supportMin);
+			
+			double levelSum = 0.0;
+			for (int i = firstIndex; i <= lastIndex; i++) {
+				double Xi = scaledX - (offsets[level] + i);
+				levelSum += levelCoefficients[i] * ((level == 0) ? wavelet.getPhiAt(Xi) : wavelet.getPsiAt(Xi));
+			}
+			sum += levelNormalizers[level] * levelSum;
+		}
+		return sum;
+	} // end estimate
+	
+	/**
+	 * Integrates the un-normalized estimate up to a point. Translates wholly
+	 * left of the point contribute their whole integrals, through the sums
+	 * of their coefficients, and only the supporting translates are looked up.
+	 * @param x : the end point of the integral
+	 * @return the integral of the estimate from minus infinity to x
+	 */
+	private double integral(double x) {
+		
+		double sum = 0.0;
+		for (int level = 0; level < coefficients.length; level++) {
+			double[] levelCoefficients = coefficients[level];
+			double scaledX  = dyadicScales[level] * x;
+			int firstIndex  = DensityHelper.firstRelevantIndex(scaledX, offsets[level], supportMax);
+			int lastIndex   = DensityHelper.lastRelevantIndex(scaledX, offsets[level], levelCoefficients.length, supportMin);
+			
+			// Each translate of phi or psi integrates to 2^(-j/2) times its table integral
+			double whole = (level == 0) ? phiTotal : psiTotal;
+			double levelSum = whole * leftSums[level][Math.min(firstIndex, levelCoefficients.length)];
+			for (int i = firstIndex; i <= lastIndex; i++) {
+				double Xi = scaledX - (offsets[level] + i);
+				levelSum += levelCoefficients[i] * ((level == 0) ? wavelet.getPhiIntegralAt(Xi) : wavelet.getPsiIntegralAt(Xi));
+			}
+			sum += levelSum / levelNormalizers[level];
+		}
+		return sum;
+	} // end integral
+
+} // end class DensityFunction.
@@ -0,0 +1,195 @@
+package edu.fit.estimator1D;
+
+import java.util.Arrays;
+
+/**
+ * The un-normalized density at every grid point, kept up to date as the
+ * coefficients change.
+ * 
+ * A sample only changes the coefficients whose support covers it, and those
+ * only change the grid points within their support. The grid remembers the
+ * coefficients it was last computed from, and the estimator marks the range
+ * of coefficients each sample touches at every level. Bringing the grid up
+ * to date then only applies the differences over the marked ranges, at a
+ * cost proportional to the changed region rather than the whole grid.
+ * 
+ * The grid is held in the units of the stored coefficients, so the lazy
+ * aging scale does not touch it. When the stored coefficients are rewritten
+ * in place (cleared or renormalized) the grid is recomputed in full, as it
+ * is every REBUILD_INTERVAL updates to discard accumulated rounding error.
+ * 
+ * @author Daniel Weinand & Gedeon Nyengele
+ */
+class DensityGrid {
+	
+	// Number of incremental updates between full recomputations.
+	private static final int REBUILD_INTERVAL = 1024;
+	
+	// Number of separate ranges of changed coefficients tracked at each level.
+	private static final int MAX_RANGES = 8;
+	
+	private final BasisMatrix basis;		// The basis values at the grid points
+	private final Transform transform;		// The coefficients the grid follows
+	private final int parallelThreshold;	// Grid size from which full recomputation is parallel
+	private final double[] grid;			// The un-normalized density, in stored units
+	private final double[][] computedFrom;	// For each level, the coefficients the grid was computed from
+	private final double[] differences;		// Scratch space for the changes in one level's coefficients
+	private final int[][] dirtyFirst;		// For each level, the first and last coefficient of
+	private final int[][] dirtyLast;		// each range changed since the grid was updated
+	private final int[] dirtyCount;			// For each level, the number of changed ranges
+	private int rewrites;					// The transform's rewrite count when the grid was updated
+	private int updates;					// Incremental updates since the last full recomputation
+	
+	/**
+	 * Creates the grid, computed in full from the current coefficients.
+	 * @param basis     : the basis values at the grid points
+	 * @param transform         : the coefficients, laid out as when the basis was built
+	 * @param parallelThreshold : the number of grid points from which a full recomputation is parallel
+	 */
+	DensityGrid(BasisMatrix basis, Transform transform, int parallelThreshold) {
+		this.basis             = basis;
+		this.transform         = transform;
+		this.parallelThreshold = parallelThreshold;
+		
+		int levels   = basis.values.length;
+		grid         = new double[basis.rows];
+		computedFrom = new double[levels][];
+		dirtyFirst   = new int[levels][MAX_RANGES];
+		dirtyLast    = new int[levels][MAX_RANGES];
+		dirtyCount   = new int[levels];
+		int largest  = 0;
+		for (int level = 0; level < levels; level++) {
+			computedFrom[level] = new double[coefficients(level).length];
+			largest = Math.max(largest, computedFrom[level].length);
+		}
+		differences = new double[largest];
+		
+		recompute();
+	}
+	
+	/**
+	 * Records that the coefficients in the given range of a level have changed.
+	 * The range joins a recorded range it touches, or else is recorded
+	 * separately. Once MAX_RANGES are recorded, the nearest one is widened.
+	 * @param level      : the level, 0 for the scaling functions and 1 onwards for the wavelet levels
+	 * @param firstIndex : index of the first changed coefficient
+	 * @param lastIndex  : index of the last changed coefficient
+	 */
+	void markChanged(int level, int firstIndex, int lastIndex) {
+		
+		int[] first = dirtyFirst[level];
+		int[] last  = dirtyLast[level];
+		int ranges  = dirtyCount[level];
+		
+		int nearest = -1;
+		int nearestGap = Integer.MAX_VALUE;
+		for (int r = 0; r < ranges; r++) {
+			int gap = Math.max(first[r] - lastIndex, firstIndex - last[r]);
+			if (gap < nearestGap) {
+				nearest    = r;
+				nearestGap = gap;
+			}
+		}
+		
+		if (nearestGap > 1 && ranges < MAX_RANGES) {
+			first[ranges] = firstIndex;
+			last[ranges]  = lastIndex;
+			dirtyCount[level]++;
+		}
+		else {
+			first[nearest] = Math.min(first[nearest], firstIndex);
+			last[nearest]  = Math.max(last[nearest], lastIndex);
+		}
+	} // end markChanged
+	
+	/**
+	 * Brings the grid up to date and copies the un-normalized density,
+	 * with the coefficients' shared scale applied, into the given array.
+	 * @param density : array to hold the density at each grid point
+	 */
+	void getDensity(double[] density) {
+		
+		if (rewrites != transform.rewrites || updates >= REBUILD_INTERVAL) {
+			recompute();
+		}
+		else {
+			for (int level = 0; level < computedFrom.length; level++) {
+				for (int r = 0; r < dirtyCount[level]; r++) {
+					applyChanges(level, dirtyFirst[level][r], dirtyLast[level][r]);
+				}
+			}
+			clearChanges();
+			updates++;
+		}
+		
+		for (int i = 0; i < grid.length; i++) {
+			density[i] = grid[i] * transform.scale;
+		}
+	} // end getDensity
+	
+	/**
+	 * Adds the effect of a range of changed coefficients at one level to the grid.
+	 * Ranges may overlap, as a coefficient only differs the first time it is applied.
+	 */
+	private void applyChanges(int level, int from, int to) {
+		
+		double[] coefficients = coefficients(level);
+		double[] previous     = computedFrom[level];
+		int[] firstRow        = basis.firstRow[level];
+		int[] lastRow         = basis.lastRow[level];
+		
+		// Find the changes and the grid points they affect
+		int startRow = grid.length;
+		int stopRow  = -1;
+		for (int k = from; k <= to; k++) {
+			differences[k]  = coefficients[k] - previous[k];
+			previous[k]     = coefficients[k];
+			startRow = Math.min(startRow, firstRow[k]);
+			stopRow  = Math.max(stopRow, lastRow[k]);
+		}
+		
+		// Add the changes times the basis values to the affected grid points
+		double[] levelValues = basis.values[level];
+		int[] first = basis.first[level];
+		int[] count = basis.count[level];
+		for (int i = startRow; i <= stopRow; i++) {
+			int base   = i * basis.width;
+			int tStart = Math.max(from - first[i], 0);
+			int tStop  = Math.min(to - first[i], count[i] - 1);
+			double sum = 0.0;
+			for (int t = tStart; t <= tStop; t++) {
+				sum += levelValues[base + t] * differences[first[i] + t];
+			}
+			grid[i] += sum;
+		}
+	} // end applyChanges
+	
+	/**
+	 * Computes the grid in full from the current coefficients.
+	 */
+	private void recompute() {
+		basis.multiplyStored(transform, grid, parallelThreshold);
+		for (int level = 0; level < computedFrom.length; level++) {
+			double[] coefficients = coefficients(level);
+			System.arraycopy(coefficients, 0, computedFrom[level], 0, coefficients.length);
+		}
+		clearChanges();
+		rewrites = transform.rewrites;
+		updates  = 0;
+	} // end recompute
+	
+	/**
+	 * Marks every level as unchanged.
+	 */
+	private void clearChanges() {
+		Arrays.fill(dirtyCount, 0);
+	} // end clearChanges
+	
+	/**
+	 * @return the stored coefficients at a level, 0 being the scaling functions
+	 */
+	private double[] coefficients(int level) {
+		return level == 0 ? transform.scalingCoefficients : transform.waveletCoefficients[level - 1];
+	} // end coefficients
+
+} // end class DensityGrid.
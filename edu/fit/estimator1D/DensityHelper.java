@@ -1,408 +1,207 @@
 package edu.fit.estimator1D;
 
+import java.util.Arrays;
+
 /**
- * Helper functions for the density estimation algorithm.
+ * Stateless helper functions for the density estimation algorithm.
  * 
  * @author Daniel Weinand & Gedeon Nyengele
  * 
  */
-import java.util.ArrayList;
-import java.util.Collections;
-
-import de.erichseifert.gral.data.DataTable;
-
 
 public class DensityHelper {
 	
-	private static double[] oldSamples;		// The old samples in the window
-	private static int N;					// How many samples have been read in
+	// Passes of the water level search in normalizeExactly before it sorts instead.
+	private static final int MAX_LEVEL_PASSES = 32;
 	
 	/**
 	 * Checks that the sample point X is within the domain of the density function.
-	 * @param X : the data point to check
+	 * @param X             : the data point to check
+	 * @param configuration : the estimator's parameters
 	 * @return  : whether or not the point is in the domain
 	 */
-	public static boolean inRange (double X) {
-		return (X >= Settings.getMinimumRange() && X <= Settings.getMaximumRange());
+	public static boolean inRange (double X, Configuration configuration) {
+		return (X >= configuration.getMinimumRange() && X <= configuration.getMaximumRange());
 	} // end inRange.
 	
 	/**
-	 * Updates the function coefficients based on the incoming data point and
-	 * the data point leaving the sliding window.
-	 * 
-	 * Post: the coefficients are updated as needed
+	 * Finds the index of the first translate whose basis function
+	 * supports the data point.  A translate k supports the point when
+	 * 2^j*X - k lies within the wavelet's support, i.e. when
+	 * 2^j*X - supp[1] <= k <= 2^j*X - supp[0].
 	 * 
-	 * @param Xnew : the new data point to update the coefficients based on
+	 * @param scaledX    : the data point scaled to the resolution level, 2^j*X
+	 * @param offset     : the translate stored at index 0 for that resolution level
+	 * @param supportMax : the upper end of the wavelet's support, supp[1]
+	 * @return the coefficient index of the smallest supporting translate,
+	 *         clamped to the first translate
 	 */
-	public static void updateCoefficients(double Xnew){
-		
-		if (Settings.waveletFlag) {
-			updateWaveletCoefficients(Xnew);
-		}
-		
-		// The normalizing constant for the scaling basis functions
-		double scaleNormalizer = Math.pow(2, Settings.startLevel/2.0);
-		if (Settings.agingFlag == Settings.windowAge) {
-			scaleNormalizer /= Settings.windowSize;
-		}
-		else if (Settings.agingFlag == Settings.caudleAge) {
-			scaleNormalizer *= (1 - Settings.agingTheta);
-		}
-		else if (Settings.agingFlag == Settings.noAge) {
-			scaleNormalizer /= (N+1)*1.0;
-		}
-		
-		// Scale coefficients if Caudle aging is being used
-		if (Settings.agingFlag == Settings.caudleAge) {
-			for (int scalIndex = 0; 
-					scalIndex < Transform.scalingCoefficients.size();
-					scalIndex++) {
-				double newCoef = Settings.agingTheta*Transform.scalingCoefficients.get(scalIndex);
-				Transform.scalingCoefficients.set(scalIndex,  newCoef);
-			}
-				
-		}
-		
-		// Recursively compute coefficients if no aging is used
-		else if (Settings.agingFlag == Settings.noAge){
-			for (int scalIndex = 0; 
-					scalIndex < Transform.scalingCoefficients.size();
-					scalIndex++) {
-				double newCoef = (N)/(N+1.0)*Transform.scalingCoefficients.get(scalIndex);
-				Transform.scalingCoefficients.set(scalIndex,  newCoef);
-			}
-		}
-		
-		// Subtract old samples effect if window aging is used
-		else if (Settings.agingFlag == Settings.windowAge) {
-			
-			// Only remove a sample if there have been more than window size samples
-			if (N > Settings.windowSize){ 
-				double Xold = oldSamples[N % Settings.windowSize];
-			
-			
-				//Loop through the translations for the scaling basis functions
-				int scaleInd = 0;
-				for (double k : Transform.scalingTranslates) {
-				
-					// Get the translated & scaled data point
-					double xScaled = Math.pow(2, Settings.startLevel) * Xold - k;
-				
-					// If the wavelet supports the data point, update the coefficient
-					if (Wavelet.inSupport(xScaled)) {
-						double scaleNew = Transform.scalingCoefficients.get(scaleInd) 
-							          	- scaleNormalizer*Wavelet.getPhiAt(xScaled);
-						Transform.scalingCoefficients.set(scaleInd, scaleNew);
-					
-					}
-					scaleInd++;
-				}
-			}
-			
-			oldSamples[N % Settings.windowSize] = Xnew;
-		}
-		
-		//Loop through the translations for the scaling basis functions
-		int scaleInd = 0;
-		for (double k : Transform.scalingTranslates) {
-			
-			// Get the translated & scaled data point
-			double xScaled = Math.pow(2, Settings.startLevel) * Xnew - k;
-			
-			// If the wavelet supports the data point, update the coefficient
-			if (Wavelet.inSupport(xScaled)) {
-				double scaleNew = Transform.scalingCoefficients.get(scaleInd) 
-						          + scaleNormalizer*Wavelet.getPhiAt(xScaled);
-				Transform.scalingCoefficients.set(scaleInd, scaleNew);
-				
-			}
-			scaleInd++;
-		}
-		
-		N++;
-	} // end updateCoefficients
+	static int firstRelevantIndex(double scaledX, int offset, double supportMax) {
+		double kMin = Math.ceil(scaledX - supportMax);
+		return (int) Math.max(kMin - offset, 0);
+	} // end firstRelevantIndex
 	
 	/**
-	 * Updates the wavelet coefficients based on the incoming data point and
-	 * the data point leaving the sliding window.
+	 * Finds the index of the last translate whose basis function
+	 * supports the data point (see firstRelevantIndex).
 	 * 
-	 * Post: the coefficients are updated as needed
-	 * 
-	 * @param Xnew : the new data point to update the coefficients based on
+	 * @param scaledX    : the data point scaled to the resolution level, 2^j*X
+	 * @param offset     : the translate stored at index 0 for that resolution level
+	 * @param count      : the number of translates at that resolution level
+	 * @param supportMin : the lower end of the wavelet's support, supp[0]
+	 * @return the coefficient index of the largest supporting translate,
+	 *         clamped to the last translate. This is less than the first
+	 *         relevant index if no translate supports the point.
 	 */
-	private static void updateWaveletCoefficients(double Xnew) {
-		
-		// Short hand for start level
-		int j0 = Settings.startLevel;
-		
-		// Loop through for each resolution level
-		for (int j = Settings.startLevel; j <= Settings.stopLevel; j++) {
-			
-			// The normalizing constant for the wavelet basis functions
-			double waveNormalizer = Math.pow(2, j/2.0);
-			if (Settings.agingFlag == Settings.windowAge) {
-				waveNormalizer /= Settings.windowSize;
-			}
-			else if (Settings.agingFlag == Settings.caudleAge) {
-				waveNormalizer *= (1 - Settings.agingTheta);
-			}
-			else if (Settings.agingFlag == Settings.noAge) {
-				waveNormalizer /= (N+1)*1.0;
-			}
-			
-			// Scale coefficients if Caudle aging is being used
-			if (Settings.agingFlag == Settings.caudleAge) {
-				for (int wavIndex = 0; 
-						wavIndex < Transform.waveletCoefficients.get(j - j0).size();
-						wavIndex++) {
-					double newCoef = Settings.agingTheta*
-							Transform.waveletCoefficients.get(j - j0).get(wavIndex);
-					Transform.waveletCoefficients.get(j - j0).set(wavIndex,  newCoef);
-				}
-					
-			}
-			
-			// Recursively compute coefficients if no aging is used
-			else if (Settings.agingFlag == Settings.noAge){
-				for (int wavIndex = 0; 
-						wavIndex < Transform.waveletCoefficients.get(j - j0).size();
-						wavIndex++) {
-					double newCoef = (N)/(N+1.0)*Transform.waveletCoefficients.get(j - j0).get(wavIndex);
-					Transform.waveletCoefficients.get(j - j0).set(wavIndex,  newCoef);
-				}
-			}
-			
-			// Subtract old samples effect if window aging is used
-			else if (Settings.agingFlag == Settings.windowAge) {
-				
-				// Only remove a sample if there have been more than window size samples
-				if (N > Settings.windowSize){ 
-					double Xold = oldSamples[N % Settings.windowSize];
-				
-				
-					//Loop through the translations for the wavelet basis functions
-					int waveInd = 0;
-					for (double k : Transform.waveletTranslates.get(j - j0)) {
-					
-						// Get the translated & scaled data point
-						double xScaled = Math.pow(2, j) * Xold - k;
-					
-						// If the wavelet supports the data point, update the coefficient
-						if (Wavelet.inSupport(xScaled)) {
-							double scaleNew = Transform.waveletCoefficients.get(j - j0)
-									.get(waveInd) - waveNormalizer*Wavelet.getPsiAt(xScaled);
-							Transform.waveletCoefficients.get(j - j0).set(waveInd, scaleNew);
-						
-						}
-						waveInd++;
-					}
-				}
-			}
-			
-			//Loop through the translations for the wavelet basis functions
-			int waveInd = 0;
-			for (double k : Transform.waveletTranslates.get(j - j0)) {
-				
-				// Get the translated & scaled data point
-				double xScaled = Math.pow(2, j) * Xnew - k;
-				
-				// If the wavelet supports the data point, update the coefficient
-				if (Wavelet.inSupport(xScaled)) {
-					double scaleNew = Transform.waveletCoefficients.get(j - j0)
-							.get(waveInd) + waveNormalizer*Wavelet.getPsiAt(xScaled);
-					Transform.waveletCoefficients.get(j - j0).set(waveInd, scaleNew);
-					
-				}
-				waveInd++;
-			}
-		}
-		
-		
-	} // end updateWaveletCoefficients
+	static int lastRelevantIndex(double scaledX, int offset, int count, double supportMin) {
+		double kMax = Math.floor(scaledX - supportMin);
+		return (int) Math.min(kMax - offset, count - 1);
+	} // end lastRelevantIndex
 
 	/**
-	 * Find the maximum and minimum translation indices which
-	 * support the incoming data point.
+	 * Takes in an un-normalized density estimate and returns the
+	 * normalized version, which is non-negative and integrates to 1.
+	 * The method is selected by the configuration's normalization flag.
 	 * 
-	 * @param X : the data point
-	 * @param j : the resolution level
-	 * @return : An array containing the minimum and maximum
-	 *           translation indices which support the data point
+	 * @param unNormDensity : the un-normalized density estimate
+	 *                        over the domain range.
+	 * @param configuration : the estimator's parameters
+	 * @return the normalized density, in the same array.
 	 */
-	private static double[] findRelevantKIndices(double X, int j) {
-		//NOT YET VETTED, potentially could be used in future optimization
-		
-		// Get the max & min values for the wavelet's support
-		double[] waveletMinMax = Wavelet.getSupport();
-		
-		double kMin = Math.ceil(Math.pow(2,j*X) - waveletMinMax[0]);
-		double kMax = Math.floor(Math.pow(2,j*X) - waveletMinMax[1]);
-		double[] kMinMax = new double[2];
-		kMinMax[0] = kMin;
-		kMinMax[1] = kMax;
-		return (kMinMax);
-		
-	} //end findRelevantKIndices
+	static double[] normalizeDensity(double[] unNormDensity, Configuration configuration){
+		if (configuration.normalizationFlag == Settings.iterativeNormalize) {
+			return normalizeIteratively(unNormDensity, configuration);
+		}
+		return normalizeExactly(unNormDensity, configuration.discretization);
+	} //end normalizeDensity
 	
 	/**
-	 * Initializes the translates for the scaling basis functions,
-	 * based off of the maximum/minimum values supported and
-	 * the starting resolution level.
+	 * Normalizes a density estimate directly, giving the result the
+	 * iteration of Gajek (1986) converges to (see normalizeIteratively).
+	 * 
+	 * If the positive part of the estimate integrates to at least 1, the
+	 * iteration converges to max(f - c, 0) for the water level c >= 0 at
+	 * which sum(max(f - c, 0))*dx = 1. Over the points above the water level
+	 * c = (sum of those points - 1/dx) / (number of those points), so c is
+	 * found by repeatedly dropping the points at or below the current level
+	 * and recomputing it (Michelot 1986), which settles after a few passes.
+	 * Otherwise a single uniform shift of the positive part is needed.
 	 * 
-	 * Post: the translates in Transform are set appropriately
-	 * @return the translates for the scaling basis functions
+	 * @param unNormDensity  : the un-normalized density estimate
+	 *                         over the domain range.
+	 * @param discretization : the distance between the points
+	 * @return the normalized density, in the same array.
 	 */
-	public static void initializeTranslates() {
-		
-		// Initialize the scaling translates
-		Transform.scalingTranslates = new ArrayList<Double> ();
-		int startTranslate = (int) Math.floor((Math.pow(2,Settings.startLevel)*Settings.getMinimumRange())-Wavelet.getSupport()[1]);
-		int stopTranslate = (int) Math.ceil((Math.pow(2,Settings.startLevel)*Settings.getMaximumRange())-Wavelet.getSupport()[0]);
-		for (double k = startTranslate; k <= stopTranslate; k++){
-			Transform.scalingTranslates.add(k);
-		}
-		
-		
-		// Initialize the wavelet translates if wavelets are being used
-		if (Settings.waveletFlag) {
-			Transform.waveletTranslates = new ArrayList<ArrayList<Double>> ();
+	static double[] normalizeExactly(double[] unNormDensity, double discretization){
 		
-			// Loop through resolutions
-			for (int j = Settings.startLevel; j <= Settings.stopLevel; j++){
-				
-				ArrayList<Double> jTranslates = new ArrayList<Double> ();
-				int startWTranslate = (int) Math.floor((Math.pow(2,j)*Settings.getMinimumRange())-Wavelet.getSupport()[1]);
-				int stopWTranslate = (int) Math.ceil((Math.pow(2,j)*Settings.getMaximumRange())-Wavelet.getSupport()[0]);
-				for (double k = startWTranslate; k <= stopWTranslate; k++){
-					jTranslates.add(k);
-				}
-				Transform.waveletTranslates.add(jTranslates);
-			}
+		double[] normalization = exactNormalization(unNormDensity, discretization);
+		double level = normalization[0];
+		double shift = normalization[1];
+		for (int i = 0; i < unNormDensity.length; i++) {
+			unNormDensity[i] = Math.max(unNormDensity[i] - level, 0.0) + shift;
 		}
-	} //end initializeTranslates
+		return unNormDensity;
+	} //end normalizeExactly
 	
 	/**
-	 * Initializes the arrays to hold the scaling basis function
-	 * and wavelet basis function coefficients based off
-	 * of the resolution levels.
+	 * Works out the normalization of normalizeExactly, which is
+	 * max(f - c, 0) + s for the water level c and the uniform shift s, at
+	 * most one of which is non-zero.
 	 * 
-	 * Post: the coefficients arrays are of the appropriate size.
+	 * @param unNormDensity  : the un-normalized density estimate
+	 *                         over the domain range, which is left unchanged.
+	 * @param discretization : the distance between the points
+	 * @return two-element array holding the water level and the shift.
 	 */
-	public static void initializeCoefficients() {
-		N = 0;
+	static double[] exactNormalization(double[] unNormDensity, double discretization){
 		
-		// Create window to store old samples
-		if (Settings.agingFlag == Settings.windowAge) {
-			oldSamples = new double[Settings.windowSize];
+		int n = unNormDensity.length;
+		if (n == 0) {
+			return new double[] {0.0, 0.0};
 		}
 		
-		// Set all scaling coefficients to 0
-		Transform.scalingCoefficients = new ArrayList<Double>(Collections.nCopies(Transform.scalingTranslates.size(), 0.0));
+		// Integrate the positive part of the estimate
+		int positives = 0;
+		double positiveSum = 0.0;
+		for (int i = 0; i < n; i++) {
+			if (unNormDensity[i] > 0.0) {
+				positiveSum += unNormDensity[i];
+				positives++;
+			}
+		}
 		
-		if (Settings.waveletFlag) {
-			Transform.waveletCoefficients = new ArrayList<ArrayList<Double>> ();
+		// Too little mass: zero negative points and shift up uniformly
+		double targetSum = 1.0 / discretization;
+		if (positiveSum <= targetSum) {
+			return new double[] {0.0, (targetSum - positiveSum) / n};
+		}
+		
+		// Raise the level until every point above it stays above it
+		double level = (positiveSum - targetSum) / positives;
+		int pass = 0;
+		while (true) {
+			int above = 0;
+			double aboveSum = 0.0;
+			for (int i = 0; i < n; i++) {
+				if (unNormDensity[i] > level) {
+					aboveSum += unNormDensity[i];
+					above++;
+				}
+			}
+			if (above == positives) {
+				break;
+			}
+			positives = above;
+			level = (aboveSum - targetSum) / above;
 			
-			// Loop through resolutions
-			for (int j = Settings.startLevel; j <= Settings.stopLevel; j++){
-				
-				// Set all wavelet at this resolution coefficients to 0
-				ArrayList<Double> jCoefficients = new ArrayList<Double> (Collections.nCopies
-													(Transform.waveletTranslates.get
-															(j - Settings.startLevel).size(), 0.0));
-				Transform.waveletCoefficients.add(jCoefficients);
+			// Settle inputs which keep dropping few points at a time by sorting
+			if (++pass == MAX_LEVEL_PASSES) {
+				level = waterLevelBySorting(unNormDensity, level, targetSum);
+				break;
 			}
 		}
-	} //end initializeCoefficients
+		return new double[] {level, 0.0};
+	} //end exactNormalization
 	
 	/**
-	 * Calculates the density at each discrete point in the
-	 * range pre-specified.
+	 * Finds the water level of normalizeExactly by sorting the points
+	 * above a known lower bound on it and scanning them from the largest.
 	 * 
-	 * Pre: the coefficient matrices have been created and
-	 *      are the proper size
-	 * @return the normalized density estimate
+	 * @param density   : the un-normalized density estimate
+	 * @param lowerBound : a level at or below the water level
+	 * @param targetSum : the sum the points above the water level must exceed it by
+	 * @return the water level
 	 */
-	private static ArrayList<Double> getDensity() {
-		
-		ArrayList<Double> density = new ArrayList<Double> ();
-		double scaleNormalizer = Math.pow(2, Settings.startLevel/2.0);
+	private static double waterLevelBySorting(double[] density, double lowerBound, double targetSum) {
 		
-		// Calculate un-normalized density for each point in domain
-		for (double i = Settings.getMinimumRange(); 
-				i < Settings.getMaximumRange(); i += Settings.discretization) {
-			
-			// Density at point i
-			double iDense = 0.0;
-			
-			// Cycle through translates for each point
-			int scalIndex = 0;
-			for (double k : Transform.scalingTranslates) {
-				double Xi = Math.pow(2, Settings.startLevel)*i - k;
-				
-				// Only update if the point is supported
-				if (Wavelet.inSupport(Xi)) {
-					iDense += Transform.scalingCoefficients.get(scalIndex) 
-							  * Wavelet.getPhiAt(Xi) * scaleNormalizer;
-				}
-				scalIndex++;
+		int above = 0;
+		for (int i = 0; i < density.length; i++) {
+			if (density[i] > lowerBound) {
+				above++;
 			}
-			density.add(iDense);
 		}
-		
-		if (Settings.waveletFlag) {
-			density = addWaveDensity(density);
+		double[] sorted = new double[above];
+		int next = 0;
+		for (int i = 0; i < density.length; i++) {
+			if (density[i] > lowerBound) {
+				sorted[next++] = density[i];
+			}
 		}
-		
-		//Normalize density
-		density = normalizeDensity(density);
-		
-		return(density);
-	}
-	
-	/**
-	 * Adds the contribution from the wavelet basis functions
-	 * @param density The density from the scaling basis functions
-	 * @return The complete unnormalized density
-	 */
-	private static ArrayList<Double> addWaveDensity(ArrayList<Double> density) {
-		
-		// Short hand for start leve
-		int j0 = Settings.startLevel;
-			
-		// Loop through for each resolution level
-		for (int j = Settings.startLevel; j <= Settings.stopLevel; j++) {
-			
-			double waveNormalizer = Math.pow(2, j/2.0);
-			
-			// Calculate un-normalized density for each point in domain
-			int domainIndex = 0;
-			for (double i = Settings.getMinimumRange(); 
-					i < Settings.getMaximumRange(); i += Settings.discretization) {
-				
-				// Density at point i
-				double iDense = 0.0;
-				
-				// Cycle through translates for each point
-				int wavIndex = 0;
-				for (double k : Transform.waveletTranslates.get(j - j0)) {
-					double Xi = Math.pow(2, j)*i - k;
-					
-					// Only update if the point is supported
-					if (Wavelet.inSupport(Xi)) {
-						iDense += Transform.waveletCoefficients.get(j - j0).get(wavIndex) 
-								  * Wavelet.getPsiAt(Xi) * waveNormalizer;
-					}
-					wavIndex++;
-				}
-				density.set(domainIndex, iDense + density.get(domainIndex));
-				domainIndex++;
+		Arrays.sort(sorted);
+		
+		// Use the largest k points while their level lies at or above the next point
+		double prefixSum = 0.0;
+		for (int k = 1; k <= above; k++) {
+			prefixSum += sorted[above - k];
+			double candidate = (prefixSum - targetSum) / k;
+			double nextValue = (k < above) ? sorted[above - k - 1] : lowerBound;
+			if (candidate >= nextValue) {
+				return candidate;
 			}
 		}
-		
-		
-		return density;
-	}
-
+		return lowerBound;
+	} // end waterLevelBySorting
+	
 	/**
 	 * Takes in an un-normalized density estimate and returns the
 	 * normalized version, using the normalization procedure from
@@ -411,28 +210,29 @@ public class DensityHelper {
 	 * 
 	 * @param unNormDensity : the un-normalized density estimate
 	 *                        over the domain range.
-	 * @return the normalized density.
+	 * @param configuration : the estimator's parameters
+	 * @return the normalized density, in the same array.
 	 */
-	private static ArrayList<Double> normalizeDensity(ArrayList<Double> unNormDensity){
+	static double[] normalizeIteratively(double[] unNormDensity, Configuration configuration){
 		
-		ArrayList<Double> normDens = unNormDensity;
+		double[] normDens = unNormDensity;
 		int iter = 0;
 		double threshold = Math.pow(10, -8);
-		double densityDomainSize = Settings.getMaximumRange() - Settings.getMinimumRange();
+		double densityDomainSize = configuration.getMaximumRange() - configuration.getMinimumRange();
 		
 		while (iter < 1000) {
 			
 			// Zero negative points
-			for (int i = 0; i < unNormDensity.size(); i++) {
-				if (normDens.get(i) < 0.0) {
-					normDens.set(i,0.0);
+			for (int i = 0; i < normDens.length; i++) {
+				if (normDens[i] < 0.0) {
+					normDens[i] = 0.0;
 				}
 			}
 			
 			// Sum over probability density over interval
 			double integralSum = 0.0;
-			for (int i = 0; i < unNormDensity.size(); i++) {
-				integralSum += normDens.get(i)*Settings.discretization;
+			for (int i = 0; i < normDens.length; i++) {
+				integralSum += normDens[i]*configuration.discretization;
 			}
 			
 			// Return if error is under threshold
@@ -442,9 +242,8 @@ public class DensityHelper {
 			
 			// Modify density so that it integrates to 1
 			double normalizeConstant = (integralSum - 1) / densityDomainSize;
-			for (int i = 0; i < unNormDensity.size(); i++) {
-				
-				normDens.set(i, normDens.get(i) - normalizeConstant);
+			for (int i = 0; i < normDens.length; i++) {
+				normDens[i] -= normalizeConstant;
 			}
 			
 			iter++;
@@ -452,26 +251,6 @@ public class DensityHelper {
 		
 		// Settle for the current approximation
 		return normDens;
-	} //end normalizeDensity
-	
-	/**
-	 * Takes the old normalized density over the supported range and
-	 * updates it based on the current coefficients.
-	 * @param density : the data table containing the density information
-	 */
-	public static void updateDensity(DataTable densityTable) {
-		
-		ArrayList<Double> normDensity = getDensity();
-		
-		// Update each density in the range
-        for (int i = 0; i < normDensity.size(); i++) {
-            double Yi = normDensity.get(i);
-            densityTable.set(1, i, Yi);
-            
-        }
-
-	}
+	} //end normalizeIteratively
 	
 }
-
-
@@ -2,20 +2,26 @@ package edu.fit.estimator1D;
 
 /**
  * Thread to perform all calculations and update plots.
+ * 
+ * The background thread never waits for the plot: each density estimate
+ * replaces the last one not yet drawn, and a timer on the event dispatch
+ * thread draws the latest estimate at most FRAMES_PER_SECOND times a
+ * second, reusing the same plot, data series and axis throughout.
  * @author Gedeon Nyengele & Daniel Weinand.
  */
 
 import java.awt.Color;
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.InputStreamReader;
-import java.util.List;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.swing.JButton;
+import javax.swing.JOptionPane;
 import javax.swing.JTextField;
 import javax.swing.SwingWorker;
+import javax.swing.Timer;
 
-import de.erichseifert.gral.data.DataTable;
 import de.erichseifert.gral.plots.XYPlot;
 import de.erichseifert.gral.plots.areas.AreaRenderer;
 import de.erichseifert.gral.plots.areas.DefaultAreaRenderer2D;
@@ -26,55 +32,101 @@ import de.erichseifert.gral.ui.InteractivePanel;
 import de.erichseifert.gral.util.Insets2D;
 
 
-public class DensityRunner extends SwingWorker<Object, Integer>{
+public class DensityRunner extends SwingWorker<Object, Void> implements DensitySink {
+	
+	// Most times per second the plot is redrawn.
+	private static final int FRAMES_PER_SECOND = 30;
+	
+	/**
+	 * A density estimate waiting to be drawn.
+	 */
+	private static final class Snapshot {
+		final long sampleIndex;		// Number of samples read in when the density was estimated
+		final double[] density;		// The normalized density at each point
+		
+		Snapshot( long sampleIndex, double[] density )
+		{
+			this.sampleIndex = sampleIndex;
+			this.density     = density;
+		}
+	} // end class Snapshot.
+	
 	private JTextField sampLabel;
-	private boolean paused;
-	private boolean terminated;
 	private JButton startButton, stopButton, settingsButton;
 	private  final LineRenderer lines = new DefaultLineRenderer2D();
 	private  final AreaRenderer area  = new DefaultAreaRenderer2D();
 	private  final Color invis = new Color(0.0f, 0.3f, 1.0f, 0);
 	private  final Color lineColor = new Color(0.0f, 0.3f, 1.0f);
 	private  final Color areaColor = new Color(0.0f, 0.3f, 1.0f, 0.3f);
-	private  DataTable densityTable = null;
+	private  final Configuration configuration;
+	private  final DensityEstimator estimator;
+	private  final StreamRunner streamRunner;
+	private  final DensitySeries densitySeries;  // The plotted density, only used on the event dispatch thread.
+	private  final AtomicReference<Snapshot> pending = new AtomicReference<Snapshot>();  // Latest estimate not yet drawn.
+	private  final Timer frameTimer;  // Draws the pending estimate on the event dispatch thread.
 	private  XYPlot dataPlot = null;
 	private  InteractivePanel dataPanel = null;
+	private  Axis yAxis = null;
 	private  double maxHeight = 0.0;
-	private  int MAX_WIDTH = 0;
-	private  int MAX_HEIGHT = 0;
+	private  volatile String problem = null;  // Problem reading the data file, shown once the run ends.
 	
 	/**
-	 * Constructor.
+	 * Constructor, called on the event dispatch thread.
 	 * @param smpLabel         	: JLabel component that shows the current sample number.
-	 * @param plotWidth			: width of the plotting area.		
-	 * @param plotHeight		: height of the plotting area.
 	 * @param startButton		: reference to the the applet's start button.
 	 * @param stopButton		: reference to the the applet's stop button.
 	 * @param settingsButton	: reference to the the applet's settings button.
 	 * @param dtPlot			: reference to the the plot.
 	 * @param dtPanel			: reference to the the plot's container.
+	 * @throws IllegalArgumentException if the current settings are inconsistent.
 	 */
-	public DensityRunner ( JTextField smpLabel, int plotWidth, int plotHeight, JButton startButton, JButton stopButton, JButton settingsButton, XYPlot dtPlot, InteractivePanel dtPanel  )
+	public DensityRunner ( JTextField smpLabel, JButton startButton, JButton stopButton, JButton settingsButton, XYPlot dtPlot, InteractivePanel dtPanel  )
 	{
 		sampLabel            = smpLabel;
-		paused               = false;
-		terminated           = false;
 		this.startButton     = startButton;
 		this.stopButton      = stopButton;
 		this.settingsButton  = settingsButton;
 		dataPlot             = dtPlot;
 		dataPanel			 = dtPanel;
-		MAX_WIDTH            = plotWidth;
-		MAX_HEIGHT           = plotHeight;
 		
-		// Initialize the density table to zeros.
-		densityTable = new DataTable( 2, Double.class );
-		for( double x = Settings.getMinimumRange(); x <= Settings.getMaximumRange(); x += Settings.discretization )
-		{
-			double y = 0.0;
-			densityTable.add( x, y );
-		}
+		// Take the estimator's parameters from the current settings.
+		configuration        = Configuration.fromSettings();
+		estimator            = new DensityEstimator( configuration );
+		streamRunner         = new StreamRunner( estimator, this );
+		
+		// Plot the density of the estimator before any samples are read.
+		densitySeries = new DensitySeries( configuration.getGridPoints(), estimator.getDensity() );
+		
+		// Prepare the plot once; later estimates only replace the density.
+		dataPlot.clear();  // Clear the content of the current plot.
+		dataPlot.add( densitySeries );  // Add the density data to the plot.
+		dataPlot.setLineRenderer( densitySeries, lines );  // Style the plot's lines.
+		dataPlot.setAreaRenderer( densitySeries, area );  // Style the area below the curve.
 		
+		// Create some padding between the plot and the window.
+		// This is necessary as otherwise the tick marks on the x-axis will not show.
+		dataPlot.setInsets( new Insets2D.Double( 5, 50, 40, 40 ) );
+		dataPlot.getAxisRenderer( XYPlot.AXIS_Y ).setIntersection( -Double.MAX_VALUE );  // Push the y-axis all the way to the left of the plot.
+		
+		// Apply colors to the plot's lines, points, and area below the curve.
+		dataPlot.getPointRenderer( densitySeries ).setColor( invis );
+		dataPlot.getLineRenderer( densitySeries ).setColor( lineColor );
+		dataPlot.getAreaRenderer( densitySeries ).setColor( areaColor );
+		
+		// The maximum height on the y-axis only grows, so the plot does not jump around.
+		yAxis = dataPlot.getAxis( XYPlot.AXIS_Y );
+		yAxis.setAutoscaled( false );
+		yAxis.setMin( 0.0 );
+		fitHeight();
+		
+		// Draw the latest estimate at the frame rate.
+		frameTimer = new Timer( 1000 / FRAMES_PER_SECOND, new ActionListener() {
+			public void actionPerformed( ActionEvent e )
+			{
+				drawPending();
+			}
+		});
+		frameTimer.start();
 	}
 	
 	/**
@@ -84,138 +136,101 @@ public class DensityRunner extends SwingWorker<Object, Integer>{
 	 */
 	protected Object doInBackground(){
 		
-		// Initialize the algorithm variables
-		Wavelet.init( Settings.waveletType ); 
-    	DensityHelper.initializeTranslates();
-    	DensityHelper.initializeCoefficients();
-    	
-    	// Intialize the current sample index to 1.
-    	int sampInd = 1;
-    	
-    	// Buffer reader used to read the user-provided sample data file.
-		BufferedReader dataReader;
-		
 		try
 		{
-			// Get samples from default file if datafile not specified by user.
-			if(Settings.dataFile.equals(""))
-			{
-				String filename = "/edu/fit/estimator1D/resources/datafiles/skewUni2Claw.csv";
-				java.io.InputStream in = getClass().getResourceAsStream(filename);
-				dataReader = new BufferedReader( new InputStreamReader(in) );
-			}
+			// Get samples from default file if datafile not specified by user,
+			// and from the user's file otherwise.
+			SampleSource samples = StreamRunner.openSamples( Settings.dataFile.equals( "" ) ? null : Settings.dataFile );
 			
-			// Get samples from user's file if specified.
-			else
+			// Feed the samples to the estimator, which calls densityUpdated
+			// at the user-specified frequency.
+			try
 			{
-				// Read the user file.
-				dataReader = new BufferedReader( new FileReader( Settings.dataFile ) ); 
+				streamRunner.run( samples );
 			}
-			
-			
-			// Perform next calculations only if there is a data sample left and
-			// the density runner is not killed.
-			while( dataReader.ready() && !isCancelled() )
+			finally
 			{
-				// Wait if user so requested.
-				while( paused )
-				{
-					// While pausing, close the buffer reader and stop if the user 
-					// terminates the execution of the Density Runner.
-					if( terminated ) 
-					{
-						dataReader.close();  
-						return null;
-					} // end if( terminated ).
-					
-					try
-					{
-						// Sleep while the Runner is still on pause.
-						Thread.sleep( 500 );
-						
-					} // end try Thread.sleep( 500 ).
-					catch(InterruptedException ex){}
-				} // end while( paused ).
-				
-				// Get the next sample.
-				double xNew = Double.parseDouble( dataReader.readLine() );
-				
-				// Update the wavelet's coefficients using the new sample.
-				DensityHelper.updateCoefficients( xNew );
-				
-				// Display the current density at the user-specified frequency.
-				if( sampInd % Settings.updateFrequency == 0 )
-				{
-					// Update the density using the current coefficients.
-					DensityHelper.updateDensity( densityTable );
-					
-					// Perform routines to prepare for plotting.
-					dataPlot.clear();  // Clear the content of the current plot.
-					dataPlot.add( densityTable );  // Add the new density data to the plot.
-					dataPlot.setLineRenderer( densityTable, lines );  // Style the plot's lines.
-			        dataPlot.setAreaRenderer( densityTable, area );  // Style the area below the curve.
-			        
-			        // Create some padding between the plot and the window.
-			        // This is necessary as otherwise the tick marks on the x-axis will not show.
-			        dataPlot.setInsets( new Insets2D.Double( 5, 50, 40, 40 ) );  
-			        dataPlot.getAxisRenderer( XYPlot.AXIS_Y ).setIntersection( -Double.MAX_VALUE );  // Push the y-axis all the way to the left of the plot.
-			        
-			        // Apply colors to the plot's lines, points, and area below the curve.
-			        dataPlot.getPointRenderer( densityTable ).setColor( invis );
-			        dataPlot.getLineRenderer( densityTable ).setColor( lineColor );
-			        dataPlot.getAreaRenderer( densityTable ).setColor( areaColor );
-			        
-					// Fix the maximum height on the y-axis.
-					Axis yAx = dataPlot.getAxis( XYPlot.AXIS_Y );  // get a handle of the y-axis.
-					double curYMax = ( Double ) yAx.getMax(); // get the maximum y value.
-					
-					// Adjust the maximum y value on the plot.
-					if ( curYMax > maxHeight ) {
-						maxHeight = curYMax + 0.8; // Adds some space between the the curve and the plot's frame.
-					}
-					
-					// Reset the y-axis new max value.
-					Axis nYAx = new Axis(); // Create a brand new axis.
-					nYAx.setMax( maxHeight ); // Set the maximum value on this new axis ( = maxHeight ).
-					nYAx.setMin( yAx.getMin() ); // Set the minimum value on this new axis equal the minimum value on the old axis.
-					dataPlot.setAxis( "y",  nYAx ); // Replace the old y axis with the new axis in the plot.
-					
-					// Send the current sample index to the process method
-					// for updating the sample index label in the applet.
-					// !! the pubish method is defined in the SwingWorker class !!.
-					publish( sampInd );
-					
-				} // end if( sampInd % Settings.updateFrequency == 0 ).
-
-				try
-				{
-					// Give some time to the event queue
-					// to handle the plot update.
-					Thread.sleep( 1 );
-					
-				} // end try{ Thread.sleep ( 1 ) }
-				catch( InterruptedException ex){}
-				
-				// Increment the sample index.
-				sampInd++;
-			} // end while( dataReader.ready() && !isCancelled() )
+				// Close the data file when execution terminates.
+				samples.close();
+			}
 			
-			// Close the buffer reader when execution terminates.
-			dataReader.close();
+			// Report any lines which were skipped.
+			problem = StreamRunner.describeMalformed( samples );
 			
 		} // end the main try{}
-		catch(Exception ex){}
+		catch( IOException ex )
+		{
+			problem = "Could not read the data file: " + ex.getMessage();
+		}
+		catch( RuntimeException ex )
+		{
+			problem = "Density estimation failed: " + ex;
+		}
+		
+		// Stop the estimator's ingest threads, if it has any.
+		estimator.close();
 		
 		// doInBackground has to return an object.
 		// We return null as there is no meaningful object returned by this method.
 		return null;
 	} // end method public Object doInBackground().
 	
+	/**
+	 * Hands the current density estimate to the plot without waiting for it to be drawn.
+	 * An estimate which has not been drawn by the next one is skipped.
+	 * This method implements DensitySink and is called from the background thread.
+	 * @param sampleIndex : number of samples read in so far.
+	 * @param points      : the points at which the density was estimated.
+	 * @param density     : the normalized density at each of the points.
+	 */
+	public void densityUpdated( long sampleIndex, double[] points, double[] density ){
+		pending.set( new Snapshot( sampleIndex, density ) );
+	} // end method densityUpdated.
+	
+	/**
+	 * Draws the latest density estimate, if there is a new one, and updates
+	 * the sample index label in the applet. Called on the event dispatch thread.
+	 */
+	private void drawPending(){
+		
+		Snapshot snapshot = pending.getAndSet( null );
+		if( snapshot == null )
+		{
+			return;
+		}
+		
+		// Replace the plotted density, which rescales the x-axis and lays the plot out once.
+		densitySeries.setDensity( snapshot.density );
+		fitHeight();
+		
+		// Update the sample index label in the applet.
+		sampLabel.setText( Long.toString( snapshot.sampleIndex ) );
+		
+		// Repaint the plot.
+		dataPanel.repaint();
+	} // end method drawPending.
+	
+	/**
+	 * Raises the maximum height on the y-axis if the density no longer fits below it.
+	 */
+	private void fitHeight(){
+		double peak = densitySeries.getPeak();
+		if ( peak > maxHeight ) {
+			maxHeight = peak + 0.8; // Adds some space between the the curve and the plot's frame.
+			yAxis.setMax( maxHeight );
+		}
+	} // end method fitHeight.
+	
 	/**
 	 * Resets the applet's UI components to their original states.
 	 * This method overrides the SwingWorker class's protected void done().
 	 */
 	protected void done(){
+		
+		// Draw the final estimate and stop the frame timer.
+		frameTimer.stop();
+		drawPending();
+		
 		try
 		{
 			startButton.setEnabled( true );    // Enable the start button in the applet.
@@ -224,40 +239,27 @@ public class DensityRunner extends SwingWorker<Object, Integer>{
 			if( stopButton.getText() == "Resume" ) stopButton.setText( "Stop" ); // Assign a proper label to the stop button.
 		} // end try{}
 		catch(Exception ex){}
-	} // end method protected void done().
-	
-	/**
-	 * Updates the sample index label in the applet and repaints the plot in the applet.
-	 * This method overrides the protected void process() method in SwingWorker class.
-	 * @param published : List of published sample indexes from doInBackground method.
-	 */
-	protected void process( List<Integer> published ){
-		
-		// Get the current sample index from the List.
-		Integer sampIndex = published.get( published.size() - 1 );
 		
-		// Update the sample index label in the applet.
-		sampLabel.setText( sampIndex.toString() );
-		
-		
-		// Repaint the plot.
-		dataPanel.paintImmediately( 0, 0, MAX_WIDTH, MAX_HEIGHT );
-	} // end method protected void process().
+		// Tell the user about any problem with the data file.
+		if( problem != null )
+		{
+			JOptionPane.showMessageDialog( dataPanel, problem, "Data file", JOptionPane.WARNING_MESSAGE );
+		}
+	} // end method protected void done().
 	
 	/**
 	 * Pauses the Density Runner.
 	 */
 	public void pause()
 	{
-		paused = true;
+		streamRunner.pause();
 	} // end method pause.
 	
 	/**
 	 * Resumes the Density Runner.
 	 */
-	public synchronized void resume(){
-		paused = false;
-		notify();
+	public void resume(){
+		streamRunner.resume();
 	} // end method resume.
 	
 	/**
@@ -265,7 +267,7 @@ public class DensityRunner extends SwingWorker<Object, Integer>{
 	 */
 	public void terminate()
 	{
-		terminated = true;
+		streamRunner.terminate();
 	}// end method terminate().
 	
 } // end class DensityRunner.
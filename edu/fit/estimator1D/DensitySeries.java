@@ -0,0 +1,89 @@
+package edu.fit.estimator1D;
+
+import java.util.Arrays;
+
+import de.erichseifert.gral.data.AbstractDataSource;
+import de.erichseifert.gral.data.DataChangeEvent;
+
+/**
+ * The density estimate plotted by the applet, as a data source with a
+ * column of points and a column of densities.
+ * 
+ * Unlike a DataTable, which tells the plot about each value set (and the
+ * plot then rescales its axes and lays itself out again each time), the
+ * whole density is replaced at once with a single notification. The
+ * series is only used on the event dispatch thread.
+ * 
+ * The plot reads every value several times per repaint, so the points are
+ * boxed once and each density value is boxed on its first read after the
+ * density is replaced, rather than on every read.
+ * 
+ * @author Gedeon Nyengele & Daniel Weinand
+ */
+class DensitySeries extends AbstractDataSource {
+	
+	private static final long serialVersionUID = 1L;
+	
+	private final Double[] points;		// The points at which the density is estimated
+	private double[] density;			// The density at each point
+	private Double[] boxedDensity;		// The density values read since it was replaced, else null
+	
+	/**
+	 * Constructor.
+	 * @param points  : the points at which the density is estimated.
+	 * @param density : the initial density at each point; kept, not copied.
+	 */
+	@SuppressWarnings("unchecked")
+	DensitySeries(double[] points, double[] density) {
+		super(Double.class, Double.class);
+		this.points = new Double[points.length];
+		for (int i = 0; i < points.length; i++) {
+			this.points[i] = points[i];
+		}
+		this.density      = density;
+		this.boxedDensity = new Double[density.length];
+	}
+	
+	/**
+	 * Replaces the density and tells the plot once.
+	 * @param density : the density at each point; kept, not copied.
+	 */
+	void setDensity(double[] density) {
+		this.density = density;
+		if (boxedDensity.length == density.length) {
+			Arrays.fill(boxedDensity, null);
+		}
+		else {
+			boxedDensity = new Double[density.length];
+		}
+		notifyDataUpdated(new DataChangeEvent(this, 1, 0, null, null));
+	} // end method setDensity.
+	
+	/**
+	 * @return the largest density.
+	 */
+	double getPeak() {
+		double peak = 0;
+		for (double value : density) {
+			peak = Math.max(peak, value);
+		}
+		return peak;
+	} // end method getPeak.
+	
+	public Comparable<?> get(int col, int row) {
+		if (col == 0) {
+			return points[row];
+		}
+		Double value = boxedDensity[row];
+		if (value == null) {
+			value = density[row];
+			boxedDensity[row] = value;
+		}
+		return value;
+	}
+	
+	public int getRowCount() {
+		return points.length;
+	}
+
+} // end class DensitySeries.
@@ -0,0 +1,19 @@
+package edu.fit.estimator1D;
+
+/**
+ * Receives the density estimates produced while a stream of samples is processed.
+ * 
+ * @author Gedeon Nyengele & Daniel Weinand
+ */
+public interface DensitySink {
+	
+	/**
+	 * Called with the current density estimate at the configured update frequency.
+	 * The arrays are not reused by the caller, so a sink may keep them.
+	 * @param sampleIndex : number of samples read in so far.
+	 * @param points      : the points at which the density was estimated.
+	 * @param density     : the normalized density at each of the points.
+	 */
+	void densityUpdated(long sampleIndex, double[] points, double[] density);
+
+} // end interface DensitySink.
@@ -16,6 +16,7 @@ import java.awt.event.ActionListener;
 
 import javax.swing.JApplet;
 import javax.swing.JButton;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JTextField;
 
@@ -65,11 +66,6 @@ public class EstimatorGUI extends JApplet implements ActionListener {
 		setSize( WINDOW_WIDTH, WINDOW_HEIGHT );
 	
                 	
-    	// Initialize algorithm variables.
-    	Wavelet.init( Settings.waveletType ); 
-    	DensityHelper.initializeTranslates();
-    	DensityHelper.initializeCoefficients();
-    	
     	// Initialize the applet's GUI.
     	initializeGUI();
          
@@ -200,8 +196,8 @@ public class EstimatorGUI extends JApplet implements ActionListener {
             densityTable.add( x, y );
         }
         
-        // Initialize the density function to a zero function.
-        DensityHelper.updateDensity( densityTable );
+        // Initialize the density function using an estimator with no samples.
+        new DensityEstimator( Configuration.fromSettings() ).updateDensity( densityTable );
         
         // Add the density function to the plot.
         dataPlot.add( densityTable );
@@ -229,7 +225,19 @@ public class EstimatorGUI extends JApplet implements ActionListener {
 	 */
 	private void startDensityEstimation(){
 		
-		runner = new DensityRunner( sampleLabel, this.getWidth(), this.getHeight(), startButton, stopButton, settingsButton, dataPlot, dataPanel );
+		try
+		{
+			runner = new DensityRunner( sampleLabel, startButton, stopButton, settingsButton, dataPlot, dataPanel );
+		}
+		catch( IllegalArgumentException ex )
+		{
+			// Report the invalid settings and restore the buttons.
+			JOptionPane.showMessageDialog( this, ex.getMessage(), "Invalid settings", JOptionPane.ERROR_MESSAGE );
+			startButton.setEnabled( true );
+			settingsButton.setEnabled( true );
+			stopButton.setEnabled( false );
+			return;
+		}
 		runner.execute();
 	} // end method private void startDensityEstimation().
 	
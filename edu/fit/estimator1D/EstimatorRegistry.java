@@ -0,0 +1,646 @@
+package edu.fit.estimator1D;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Density estimators for many independent streams, one per key, which all
+ * share one configuration.
+ * 
+ * Each key's state (the shared scale, the sample count, the coefficients
+ * of every level and the window) is a fixed-size slot in a direct buffer
+ * outside the Java heap, and slots are carved from slabs holding many of
+ * them. Freed slots are reused, so the garbage collector sees a handful of
+ * slabs however many keys there are. Everything which does not depend on
+ * the data, the wavelet tables, the translate layout and the basis values
+ * used for snapshots, is shared by all keys.
+ * 
+ * Keys are locked in stripes: updates to keys in different stripes run in
+ * parallel, and each key is only ever updated under its stripe's lock.
+ * Keys which have not been used for a while can be evicted to a spill
+ * directory, and are read back the next time they are used. Their slots
+ * are copied out under the stripe locks and appended, many to a file,
+ * once the locks are released. Spill files are scratch space: they are
+ * not forced to disk, and any left in the directory by an earlier registry
+ * are deleted when a registry is created.
+ * 
+ * The coefficients follow exactly the updates DensityEstimator makes, as
+ * both share one UpdateKernel. The configuration's incremental, ingest
+ * thread and shard settings do not apply to the registry, which does not
+ * support time aging.
+ * 
+ * @author Daniel Weinand & Gedeon Nyengele
+ */
+public class EstimatorRegistry {
+	
+	// Number of lock stripes the keys are spread over.
+	private static final int STRIPES = 64;
+	
+	// Bytes in each slab of slots.
+	private static final int SLAB_BYTES = 1 << 20;
+	
+	// Byte offsets within a slot of the scale, the sample count and the coefficients.
+	private static final int SCALE = 0;
+	private static final int COUNT = 8;
+	private static final int COEFFICIENTS = 16;
+	
+	// Names of the spill files in the spill directory.
+	private static final String SPILL_PREFIX = "spill-";
+	private static final String SPILL_SUFFIX = ".slots";
+	
+	// Bytes of evicted slots appended to each spill file.
+	private static final int SPILL_BYTES = 1 << 22;
+	
+	/**
+	 * Where a key's state is kept: a slot while resident, a copy on the heap
+	 * while it is being evicted, and a place in a spill file once evicted.
+	 */
+	private static final class Entry {
+		int slot = -1;			// Slot holding the state, or -1 if evicted
+		ByteBuffer image;		// Copy of the slot not yet written, and its
+		int imageAt;			// byte offset within the copy
+		SpillFile spill;		// File holding the state once written, and its
+		long spillAt;			// byte offset within the file
+		long evictedCount;		// Sample count while evicted
+		long lastUsed;			// Time of the last update or snapshot, in milliseconds
+	}
+	
+	/**
+	 * A file of evicted slots, deleted once none of them are still evicted.
+	 */
+	private static final class SpillFile {
+		final Path path;
+		final FileChannel channel;
+		private int live = 1;	// Slots still to be read back, plus one while being written
+		
+		SpillFile(Path path) throws IOException {
+			this.path    = path;
+			this.channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		}
+		
+		synchronized void retain() {
+			live++;
+		}
+		
+		synchronized void release() {
+			if (--live == 0) {
+				try
+				{
+					channel.close();
+					Files.deleteIfExists(path);
+				}
+				catch (IOException ex) {
+					// The directory is cleared when the next registry is created
+				}
+			}
+		}
+	}
+	
+	private final Configuration configuration;	// The parameters shared by every key
+	private final Wavelet wavelet;				// The wavelet used
+	private final Transform layout;				// The translates of every level, never written
+	private final UpdateKernel kernel;			// The per-sample update of the coefficients
+	private final int levelCount;				// Number of coefficient levels, including the scaling functions
+	private final int[] levelStart;				// Index of each level's first coefficient within a slot
+	private final int coefficientCount;			// Coefficients in a slot
+	private final int windowStart;				// Byte offset within a slot of the window
+	private final int windowSize;				// Samples in the window, or 0 without window aging
+	private final int slotBytes;				// Bytes in a slot
+	private final int slotsPerSlab;				// Slots in a slab
+	private final File spillDirectory;			// Where evicted keys are written, or null
+	
+	private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	private final Object[] locks = new Object[STRIPES];
+	private final SlotStore[] stores = new SlotStore[STRIPES];	// Each stripe's view of its keys' slots
+	private BasisMatrix basis;					// The basis values at the grid points, built on the first snapshot
+	
+	private volatile ByteBuffer[] slabs = new ByteBuffer[0];	// The slabs, grown under the registry's lock
+	private int[] freeSlots = new int[16];		// Slots freed for reuse
+	private int freeCount;
+	private int nextSlot;						// First slot never used
+	
+	/**
+	 * Creates an empty registry.
+	 * @param configuration  : the estimator parameters shared by every key
+	 * @param spillDirectory : directory evicted keys are written to, or null if keys are never evicted.
+	 *                         Spill files left in it by an earlier registry are deleted.
+	 * @throws IllegalArgumentException if the configuration uses time aging
+	 */
+	public EstimatorRegistry(Configuration configuration, File spillDirectory) {
+		if (configuration.isTimeAged()) {
+			throw new IllegalArgumentException("Time aging is not supported by the registry");
+		}
+		this.configuration  = configuration;
+		this.wavelet        = Wavelet.getInstance(configuration.waveletType, configuration.interpolationFlag,
+				configuration.tableLevels);
+		this.layout         = new Transform(configuration, wavelet);
+		this.kernel         = new UpdateKernel(configuration, wavelet, layout);
+		this.spillDirectory = spillDirectory;
+		
+		// Lay the levels out one after another, scaling functions first
+		levelCount = kernel.getLevelCount();
+		levelStart = new int[levelCount];
+		int start = 0;
+		for (int level = 0; level < levelCount; level++) {
+			levelStart[level] = start;
+			start += kernel.getLevelSize(level);
+		}
+		coefficientCount = start;
+		
+		windowSize   = (configuration.agingFlag == Settings.windowAge) ? configuration.windowSize : 0;
+		windowStart  = COEFFICIENTS + 8 * coefficientCount;
+		slotBytes    = windowStart + 8 * windowSize;
+		slotsPerSlab = Math.max(1, SLAB_BYTES / slotBytes);
+		
+		for (int i = 0; i < STRIPES; i++) {
+			locks[i]  = new Object();
+			stores[i] = new SlotStore();
+		}
+		
+		// Spill files only outlive their registry if it was not shut down cleanly
+		File[] stale = (spillDirectory == null) ? null : spillDirectory.listFiles(new FilenameFilter() {
+			public boolean accept(File directory, String name) {
+				return name.startsWith(SPILL_PREFIX) && name.endsWith(SPILL_SUFFIX);
+			}
+		});
+		if (stale != null) {
+			for (File file : stale) {
+				file.delete();
+			}
+		}
+	}
+	
+	/**
+	 * @return the parameters shared by every key
+	 */
+	public Configuration getConfiguration() {
+		return configuration;
+	}
+	
+	/**
+	 * @return the number of keys, resident or evicted
+	 */
+	public int size() {
+		return entries.size();
+	}
+	
+	/**
+	 * @return the bytes of state kept outside the heap for each resident key
+	 */
+	public int getSlotBytes() {
+		return slotBytes;
+	}
+	
+	/**
+	 * Updates a key's coefficients with a new data point, creating the key
+	 * if it is new and reading it back if it was evicted.
+	 * @param key : the stream the data point belongs to
+	 * @param X   : the data point
+	 * @throws IOException if the key was evicted and cannot be read back
+	 */
+	public void update(String key, double X) throws IOException {
+		int stripe = stripeOf(key);
+		synchronized (locks[stripe]) {
+			Entry entry = resident(key, true);
+			SlotStore store = stores[stripe].at(entry.slot);
+			long N = store.getCount();
+			kernel.addPoint(store, N, X);
+			store.setCount(N + 1);
+		}
+	} // end update
+	
+	/**
+	 * Updates a key's coefficients with a block of data points, in order,
+	 * as DensityEstimator.updateCoefficients does for a block (see update).
+	 * @param key     : the stream the data points belong to
+	 * @param samples : array holding the data points
+	 * @param off     : index of the first data point to use
+	 * @param len     : number of data points to use
+	 * @throws IOException if the key was evicted and cannot be read back
+	 */
+	public void update(String key, double[] samples, int off, int len) throws IOException {
+		int stripe = stripeOf(key);
+		synchronized (locks[stripe]) {
+			Entry entry = resident(key, true);
+			SlotStore store = stores[stripe].at(entry.slot);
+			long N = store.getCount();
+			kernel.addPoints(store, N, samples, off, len);
+			store.setCount(N + len);
+		}
+	} // end update
+	
+	/**
+	 * Reads a key's sample count. An evicted key is not read back, and
+	 * the key does not count as used, so polling the counts does not keep
+	 * idle keys from being evicted.
+	 * @param key : the stream
+	 * @return the number of samples the key has read, 0 for an unknown key
+	 */
+	public long getSampleCount(String key) {
+		synchronized (lockFor(key)) {
+			Entry entry = entries.get(key);
+			if (entry == null) {
+				return 0;
+			}
+			return (entry.slot >= 0) ? slabFor(entry.slot).getLong(base(entry.slot) + COUNT) : entry.evictedCount;
+		}
+	} // end getSampleCount
+	
+	/**
+	 * Calculates a key's normalized density at each point of the density
+	 * domain (see DensityEstimator.getDensity). The key is only locked while
+	 * its coefficients are copied.
+	 * @param key : the stream
+	 * @return the density, or null for an unknown key
+	 * @throws IOException if the key was evicted and cannot be read back
+	 */
+	public double[] snapshot(String key) throws IOException {
+		
+		Transform transform = copyTransform(key);
+		if (transform == null) {
+			return null;
+		}
+		
+		double[] density = new double[basis().rows];
+		if (configuration.isThresholded()) {
+			basis().multiply(transform, new SparseCoefficients(transform, configuration), density,
+					configuration.parallelThreshold);
+		}
+		else {
+			basis().multiply(transform, density, configuration.parallelThreshold);
+		}
+		return DensityHelper.normalizeDensity(density, configuration);
+	} // end snapshot
+	
+	/**
+	 * Takes a key's current estimate as a density function, which answers
+	 * point queries (see DensityEstimator.getDensityFunction). The key is
+	 * only locked while its coefficients are copied.
+	 * @param key : the stream
+	 * @return the density function, or null for an unknown key
+	 * @throws IOException if the key was evicted and cannot be read back
+	 */
+	public DensityFunction getDensityFunction(String key) throws IOException {
+		
+		Transform transform = copyTransform(key);
+		return (transform == null) ? null : new DensityFunction(configuration, wavelet, transform);
+	} // end getDensityFunction
+	
+	/**
+	 * Copies a key's coefficients out of its slot.
+	 * @param key : the stream
+	 * @return the coefficients, or null for an unknown key
+	 * @throws IOException if the key was evicted and cannot be read back
+	 */
+	private Transform copyTransform(String key) throws IOException {
+		
+		Transform transform = new Transform(configuration, wavelet);
+		synchronized (lockFor(key)) {
+			Entry entry = resident(key, false);
+			if (entry == null) {
+				return null;
+			}
+			ByteBuffer slab = slabFor(entry.slot);
+			int base = base(entry.slot);
+			for (int level = 0; level < levelCount; level++) {
+				double[] coefficients = (level == 0) ? transform.scalingCoefficients : transform.waveletCoefficients[level - 1];
+				int at = base + COEFFICIENTS + 8 * levelStart[level];
+				for (int i = 0; i < coefficients.length; i++) {
+					coefficients[i] = slab.getDouble(at + 8 * i);
+				}
+			}
+			transform.scale = slab.getDouble(base + SCALE);
+		}
+		return transform;
+	} // end copyTransform
+	
+	/**
+	 * Forgets a key, freeing its slot or its place in a spill file.
+	 * @param key : the stream
+	 */
+	public void remove(String key) {
+		synchronized (lockFor(key)) {
+			Entry entry = entries.remove(key);
+			if (entry != null) {
+				if (entry.slot >= 0) {
+					freeSlot(entry.slot);
+				}
+				else if (entry.spill != null) {
+					entry.spill.release();
+				}
+				entry.image = null;
+				entry.spill = null;
+			}
+		}
+	} // end remove
+	
+	/**
+	 * Writes the keys which have not been updated or snapshot for a while
+	 * to the spill directory and frees their slots. Each key's slot is
+	 * copied out under its stripe's lock, and the copies are appended to
+	 * spill files after the locks are released, so updates to other keys
+	 * are not held up by the writes.
+	 * @param idleMillis : how long a key must have been unused, in milliseconds
+	 * @return the number of keys evicted
+	 * @throws IOException if a spill file cannot be written, in which case its keys are
+	 *                     kept on the heap until they are next used
+	 * @throws IllegalStateException if the registry has no spill directory
+	 */
+	public int evictIdle(long idleMillis) throws IOException {
+		
+		if (spillDirectory == null) {
+			throw new IllegalStateException("The registry has no spill directory");
+		}
+		long cutoff = System.currentTimeMillis() - idleMillis;
+		int keysPerFile = Math.max(1, SPILL_BYTES / slotBytes);
+		List<String> keys = new ArrayList<String>();
+		List<Entry> evicted = new ArrayList<Entry>();
+		ByteBuffer images = null;
+		int count = 0;
+		for (Map.Entry<String, Entry> keyed : entries.entrySet()) {
+			synchronized (lockFor(keyed.getKey())) {
+				Entry entry = keyed.getValue();
+				if (entry.slot >= 0 && entry.lastUsed <= cutoff && entries.get(keyed.getKey()) == entry) {
+					if (images == null) {
+						images = ByteBuffer.allocate(keysPerFile * slotBytes);
+					}
+					copySlot(entry.slot, images, evicted.size() * slotBytes, true);
+					entry.evictedCount = slabFor(entry.slot).getLong(base(entry.slot) + COUNT);
+					freeSlot(entry.slot);
+					entry.slot    = -1;
+					entry.image   = images;
+					entry.imageAt = evicted.size() * slotBytes;
+					keys.add(keyed.getKey());
+					evicted.add(entry);
+				}
+			}
+			if (evicted.size() == keysPerFile) {
+				writeSpill(keys, evicted, images);
+				count += evicted.size();
+				keys.clear();
+				evicted.clear();
+				images = null;
+			}
+		}
+		if (!evicted.isEmpty()) {
+			writeSpill(keys, evicted, images);
+			count += evicted.size();
+		}
+		return count;
+	} // end evictIdle
+	
+	/**
+	 * Appends copies of evicted slots to a new spill file, then points the
+	 * keys which are still evicted at their place in the file.
+	 * Pre: no stripe is locked
+	 */
+	private void writeSpill(List<String> keys, List<Entry> evicted, ByteBuffer images) throws IOException {
+		
+		SpillFile spill = new SpillFile(Files.createTempFile(spillDirectory.toPath(), SPILL_PREFIX, SPILL_SUFFIX));
+		try
+		{
+			ByteBuffer written = images.duplicate();
+			written.position(0).limit(evicted.size() * slotBytes);
+			while (written.hasRemaining()) {
+				spill.channel.write(written);
+			}
+			for (int i = 0; i < evicted.size(); i++) {
+				synchronized (lockFor(keys.get(i))) {
+					Entry entry = evicted.get(i);
+					if (entry.image == images) {
+						spill.retain();
+						entry.spill   = spill;
+						entry.spillAt = entry.imageAt;
+						entry.image   = null;
+					}
+				}
+			}
+		}
+		finally
+		{
+			spill.release();
+		}
+	} // end writeSpill
+	
+	/**
+	 * Finds a key's entry, making sure its state is in a slot.
+	 * Pre: the key's stripe is locked
+	 * @param create : whether to create the key if it is unknown
+	 * @return the entry, or null if the key is unknown and not created
+	 */
+	private Entry resident(String key, boolean create) throws IOException {
+		
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			if (!create) {
+				return null;
+			}
+			entry = new Entry();
+			entry.slot = allocateSlot();
+			clearSlot(entry.slot);
+			entries.put(key, entry);
+		}
+		else if (entry.slot < 0) {
+			load(entry);
+		}
+		entry.lastUsed = System.currentTimeMillis();
+		return entry;
+	} // end resident
+	
+	/**
+	 * Reads an evicted key's state back into a slot, from the heap if it
+	 * has not been written yet.
+	 */
+	private void load(Entry entry) throws IOException {
+		
+		int slot = allocateSlot();
+		try
+		{
+			if (entry.image != null) {
+				copySlot(slot, entry.image, entry.imageAt, false);
+			}
+			else {
+				ByteBuffer target = slabFor(slot).duplicate();
+				target.position(base(slot)).limit(base(slot) + slotBytes);
+				while (target.hasRemaining()) {
+					if (entry.spill.channel.read(target, entry.spillAt + target.position() - base(slot)) < 0) {
+						throw new EOFException("Spill file " + entry.spill.path + " is truncated");
+					}
+				}
+				entry.spill.release();
+			}
+		}
+		catch (IOException ex) {
+			freeSlot(slot);
+			throw ex;
+		}
+		entry.image = null;
+		entry.spill = null;
+		entry.slot  = slot;
+	} // end load
+	
+	/**
+	 * Copies a slot's bytes to or from a buffer.
+	 * @param out : whether to copy the slot into the buffer, rather than the buffer into the slot
+	 */
+	private void copySlot(int slot, ByteBuffer buffer, int at, boolean out) {
+		ByteBuffer inSlot = slabFor(slot).duplicate();
+		inSlot.position(base(slot)).limit(base(slot) + slotBytes);
+		ByteBuffer inBuffer = buffer.duplicate();
+		inBuffer.position(at).limit(at + slotBytes);
+		if (out) {
+			inBuffer.put(inSlot);
+		}
+		else {
+			inSlot.put(inBuffer);
+		}
+	} // end copySlot
+	
+	/**
+	 * Sets a slot to the state of a key which has read no samples.
+	 */
+	private void clearSlot(int slot) {
+		ByteBuffer slab = slabFor(slot);
+		int base = base(slot);
+		for (int at = base; at < base + slotBytes; at += 8) {
+			slab.putLong(at, 0L);
+		}
+		slab.putDouble(base + SCALE, 1.0);
+	} // end clearSlot
+	
+	/**
+	 * @return a free slot, adding a slab if every slot is in use
+	 */
+	private synchronized int allocateSlot() {
+		if (freeCount > 0) {
+			return freeSlots[--freeCount];
+		}
+		int slot = nextSlot++;
+		if (slot / slotsPerSlab >= slabs.length) {
+			ByteBuffer[] grown = new ByteBuffer[slabs.length + 1];
+			System.arraycopy(slabs, 0, grown, 0, slabs.length);
+			grown[slabs.length] = ByteBuffer.allocateDirect(slotsPerSlab * slotBytes).order(ByteOrder.nativeOrder());
+			slabs = grown;
+		}
+		return slot;
+	} // end allocateSlot
+	
+	/**
+	 * Returns a slot for reuse.
+	 */
+	private synchronized void freeSlot(int slot) {
+		if (freeCount == freeSlots.length) {
+			int[] grown = new int[2 * freeSlots.length];
+			System.arraycopy(freeSlots, 0, grown, 0, freeCount);
+			freeSlots = grown;
+		}
+		freeSlots[freeCount++] = slot;
+	} // end freeSlot
+	
+	/**
+	 * @return the slab holding a slot
+	 */
+	private ByteBuffer slabFor(int slot) {
+		return slabs[slot / slotsPerSlab];
+	}
+	
+	/**
+	 * @return the byte offset of a slot within its slab
+	 */
+	private int base(int slot) {
+		return (slot % slotsPerSlab) * slotBytes;
+	}
+	
+	/**
+	 * @return the stripe a key belongs to
+	 */
+	private int stripeOf(String key) {
+		return (key.hashCode() & 0x7fffffff) % STRIPES;
+	}
+	
+	/**
+	 * @return the lock of the stripe a key belongs to
+	 */
+	private Object lockFor(String key) {
+		return locks[stripeOf(key)];
+	}
+	
+	/**
+	 * @return the basis values at the grid points, shared by every key
+	 */
+	private synchronized BasisMatrix basis() {
+		if (basis == null) {
+			basis = BasisMatrix.getInstance(configuration, wavelet, layout);
+		}
+		return basis;
+	}
+	
+	/**
+	 * A slot as the update kernel sees it. Each stripe has its own, which
+	 * is pointed at a key's slot while the stripe is locked.
+	 */
+	private final class SlotStore extends UpdateKernel.Store {
+		
+		private ByteBuffer slab;	// The slab and byte offset of the slot
+		private int base;
+		
+		SlotStore at(int slot) {
+			slab = slabFor(slot);
+			base = base(slot);
+			return this;
+		}
+		
+		long getCount() {
+			return slab.getLong(base + COUNT);
+		}
+		
+		void setCount(long N) {
+			slab.putLong(base + COUNT, N);
+		}
+		
+		double getScale() {
+			return slab.getDouble(base + SCALE);
+		}
+		
+		void setScale(double scale) {
+			slab.putDouble(base + SCALE, scale);
+		}
+		
+		void addStored(int level, int index, double value) {
+			int at = base + COEFFICIENTS + 8 * (levelStart[level] + index);
+			slab.putDouble(at, slab.getDouble(at) + value);
+		}
+		
+		void rewriteStored(double factor) {
+			for (int i = 0; i < coefficientCount; i++) {
+				int at = base + COEFFICIENTS + 8 * i;
+				slab.putDouble(at, (factor == 0.0) ? 0.0 : slab.getDouble(at) * factor);
+			}
+		}
+		
+		double getWindowSample(int slot) {
+			return slab.getDouble(base + windowStart + 8 * slot);
+		}
+		
+		void setWindowSample(int slot, double X) {
+			slab.putDouble(base + windowStart + 8 * slot, X);
+		}
+		
+		void queueSample(double X, double weight) {
+			kernel.addSample(this, X, weight);
+		}
+	} // end SlotStore
+
+} // end class EstimatorRegistry.
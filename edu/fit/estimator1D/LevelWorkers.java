@@ -0,0 +1,219 @@
+package edu.fit.estimator1D;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Threads which add weighted samples to the coefficients, each thread owning
+ * a fixed set of resolution levels.
+ * 
+ * The levels share no coefficients, so every level's coefficients are only
+ * ever written by the one thread owning the level. Batches of samples, with
+ * the weights already worked out by the estimator, are handed to every
+ * thread through its own lock-free queue, and each thread adds the whole
+ * batch to its levels in order. A level therefore receives exactly the
+ * additions, in exactly the order, the estimator would have made itself.
+ * 
+ * At most MAX_BATCHES batches are outstanding at once: submitting another
+ * waits for the slowest thread to finish the oldest, so a producer faster
+ * than the threads cannot queue without bound. The arrays of finished
+ * batches are kept for the estimator to queue the next samples in.
+ * 
+ * The estimator must drain the threads before it reads or rewrites the
+ * coefficients.
+ * 
+ * @author Daniel Weinand & Gedeon Nyengele
+ */
+class LevelWorkers {
+	
+	/**
+	 * Adds weighted samples to the coefficients at one level.
+	 */
+	interface LevelUpdater {
+		
+		/**
+		 * @param level   : 0 for the scaling functions, or 1 onwards for the wavelet levels
+		 * @param samples : the data points
+		 * @param weights : the weight of each data point in the stored coefficients
+		 * @param count   : the number of data points to add
+		 */
+		void addToLevel(int level, double[] samples, double[] weights, int count);
+	}
+	
+	/**
+	 * A batch of weighted samples, shared read-only by the threads.
+	 */
+	private static final class Batch {
+		final double[] samples;
+		final double[] weights;
+		final int count;
+		final AtomicInteger remaining;	// Threads which have not yet added the batch
+		
+		Batch(double[] samples, double[] weights, int count, int threads) {
+			this.samples   = samples;
+			this.weights   = weights;
+			this.count     = count;
+			this.remaining = new AtomicInteger(threads);
+		}
+	}
+	
+	// Most batches submitted but not yet added by every thread.
+	static final int MAX_BATCHES = 8;
+	
+	private final LevelUpdater updater;			// Adds the samples to a level
+	private final int levels;					// Number of levels
+	private final Worker[] workers;				// The threads
+	private final AtomicInteger pending;		// Batches not yet added by every thread
+	private final ConcurrentLinkedQueue<Batch> finished;	// Added batches whose arrays can be reused
+	private volatile Thread waiter;				// Thread waiting for batches to be added
+	private volatile Throwable failure;			// First error thrown by one of the threads
+	private volatile boolean closed;			// Whether the threads should stop
+	
+	/**
+	 * Starts the threads. Level l is owned by thread l % threads.
+	 * @param levels  : number of levels, including the scaling functions
+	 * @param threads : number of threads, at most one per level is started
+	 * @param updater : adds the samples to a level
+	 */
+	LevelWorkers(int levels, int threads, LevelUpdater updater) {
+		this.updater = updater;
+		this.levels  = levels;
+		this.pending = new AtomicInteger();
+		this.finished = new ConcurrentLinkedQueue<Batch>();
+		this.workers = new Worker[Math.min(threads, levels)];
+		for (int i = 0; i < workers.length; i++) {
+			workers[i] = new Worker(i);
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+	}
+	
+	/**
+	 * Hands a batch of weighted samples to every thread, first waiting
+	 * while MAX_BATCHES batches are outstanding. The arrays must not be
+	 * changed afterwards, until they are handed back by reuse.
+	 * @param samples : the data points
+	 * @param weights : the weight of each data point in the stored coefficients
+	 * @param count   : the number of data points to add
+	 */
+	void submit(double[] samples, double[] weights, int count) {
+		awaitPending(MAX_BATCHES - 1);
+		Batch batch = new Batch(samples, weights, count, workers.length);
+		pending.incrementAndGet();
+		for (Worker worker : workers) {
+			worker.queue.offer(batch);
+			LockSupport.unpark(worker);
+		}
+	} // end submit
+	
+	/**
+	 * Hands back the arrays of a batch every thread has added, for the next
+	 * samples to be queued in.
+	 * @param capacity : the number of data points the arrays must hold
+	 * @return the samples and weights arrays, or null if no added batch's arrays are large enough
+	 */
+	double[][] reuse(int capacity) {
+		Batch batch;
+		while ((batch = finished.poll()) != null) {
+			if (batch.samples.length >= capacity) {
+				return new double[][] {batch.samples, batch.weights};
+			}
+		}
+		return null;
+	} // end reuse
+	
+	/**
+	 * Waits until every submitted batch has been added.
+	 * @throws IllegalStateException if one of the threads failed
+	 */
+	void drain() {
+		awaitPending(0);
+		if (failure != null) {
+			throw new IllegalStateException("Coefficient update failed", failure);
+		}
+	} // end drain
+	
+	/**
+	 * Waits until at most the given number of batches are outstanding.
+	 * @param most : the number of batches which may still be outstanding
+	 */
+	private void awaitPending(int most) {
+		if (pending.get() > most) {
+			waiter = Thread.currentThread();
+			while (pending.get() > most) {
+				LockSupport.park(this);
+			}
+			waiter = null;
+		}
+	} // end awaitPending
+	
+	/**
+	 * Waits for the submitted batches and stops the threads.
+	 */
+	void close() {
+		try
+		{
+			drain();
+		}
+		finally
+		{
+			closed = true;
+			for (Worker worker : workers) {
+				LockSupport.unpark(worker);
+			}
+		}
+	} // end close
+	
+	/**
+	 * A thread adding every batch to the levels it owns.
+	 */
+	private final class Worker extends Thread {
+		
+		final ConcurrentLinkedQueue<Batch> queue = new ConcurrentLinkedQueue<Batch>();
+		private final int index;
+		
+		Worker(int index) {
+			super("LevelWorker-" + index);
+			this.index = index;
+		}
+		
+		public void run() {
+			while (true) {
+				Batch batch = queue.poll();
+				if (batch == null) {
+					if (closed) {
+						return;
+					}
+					LockSupport.park(this);
+					continue;
+				}
+				
+				try
+				{
+					for (int level = index; level < levels; level += workers.length) {
+						updater.addToLevel(level, batch.samples, batch.weights, batch.count);
+					}
+				}
+				catch (RuntimeException ex) {
+					if (failure == null) failure = ex;
+				}
+				catch (Error ex) {
+					if (failure == null) failure = ex;
+				}
+				
+				// Once every thread has added the batch, keep its arrays
+				// and wake the estimator if it is waiting
+				if (batch.remaining.decrementAndGet() == 0) {
+					finished.offer(batch);
+					pending.decrementAndGet();
+					Thread waiting = waiter;
+					if (waiting != null) {
+						LockSupport.unpark(waiting);
+					}
+				}
+			}
+		}
+	} // end class Worker
+
+} // end class LevelWorkers.
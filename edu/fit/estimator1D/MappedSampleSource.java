@@ -0,0 +1,72 @@
+package edu.fit.estimator1D;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads samples written one per line from a file by mapping it into memory.
+ * 
+ * A mapped buffer holds at most 2 GB, so the file is mapped in chunks and
+ * any size of file can be read. Each chunk is mapped from the start of the
+ * line the previous chunk ended in. The operating system pages the file in
+ * as it is read, and the bytes are parsed where they lie, without copying.
+ * 
+ * @author Gedeon Nyengele & Daniel Weinand
+ */
+public class MappedSampleSource extends TextSampleSource {
+	
+	// Largest part of the file mapped at once.
+	static final int CHUNK_SIZE = 1 << 28;
+	
+	private final RandomAccessFile file;		// The file being read
+	private final FileChannel channel;			// Its channel, for mapping
+	private final long size;					// Its length in bytes
+	private final int chunkSize;				// Largest part of it mapped at once
+	private long chunkStart;					// Offset in the file of the mapped chunk
+	
+	/**
+	 * Constructor. Maps the first chunk of the file.
+	 * @param fileName : the file to read.
+	 * @throws IOException if the file cannot be opened.
+	 */
+	public MappedSampleSource(String fileName) throws IOException {
+		this(fileName, CHUNK_SIZE);
+	}
+	
+	/**
+	 * Constructor. Maps the first chunk of the file.
+	 * @param fileName  : the file to read.
+	 * @param chunkSize : the largest part of the file mapped at once, more than MAX_LINE bytes.
+	 * @throws IOException if the file cannot be opened.
+	 */
+	MappedSampleSource(String fileName, int chunkSize) throws IOException {
+		this.file      = new RandomAccessFile(fileName, "r");
+		this.channel   = file.getChannel();
+		this.size      = channel.size();
+		this.chunkSize = chunkSize;
+		this.chunkStart = 0;
+		this.buffer    = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(chunkSize, size));
+	}
+	
+	/**
+	 * Maps the next chunk of the file, starting from the unread bytes.
+	 */
+	protected boolean fill() throws IOException {
+		long start = chunkStart + buffer.position();
+		if (chunkStart + buffer.limit() >= size) {
+			return false;
+		}
+		chunkStart = start;
+		buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(chunkSize, size - start));
+		return true;
+	} // end method fill.
+	
+	/**
+	 * Closes the file. The mapped chunk is released once it is garbage collected.
+	 */
+	public void close() throws IOException {
+		file.close();
+	} // end method close.
+
+} // end class MappedSampleSource.
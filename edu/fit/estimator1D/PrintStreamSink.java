@@ -0,0 +1,51 @@
+package edu.fit.estimator1D;
+
+import java.io.PrintStream;
+
+/**
+ * Writes density estimates as comma separated rows.
+ * 
+ * The first row holds "sample" followed by the points at which the density
+ * is estimated. Each following row holds the sample index followed by the
+ * density at each of those points.
+ * 
+ * @author Gedeon Nyengele & Daniel Weinand
+ */
+public class PrintStreamSink implements DensitySink {
+	
+	private final PrintStream out;			// Where the rows are written
+	private boolean headerWritten = false;	// Whether the points have been written
+	
+	/**
+	 * Constructor.
+	 * @param out : stream to write the rows to, e.g. System.out or a file.
+	 */
+	public PrintStreamSink(PrintStream out) {
+		this.out = out;
+	}
+	
+	/**
+	 * Writes the density estimate as one row, preceded by the header row the first time.
+	 */
+	public void densityUpdated(long sampleIndex, double[] points, double[] density) {
+		
+		StringBuilder row = new StringBuilder(density.length * 24);
+		if (!headerWritten) {
+			row.append("sample");
+			for (int i = 0; i < points.length; i++) {
+				row.append(',').append(points[i]);
+			}
+			out.println(row);
+			row.setLength(0);
+			headerWritten = true;
+		}
+		
+		row.append(sampleIndex);
+		for (int i = 0; i < density.length; i++) {
+			row.append(',').append(density[i]);
+		}
+		out.println(row);
+		out.flush();
+	} // end method densityUpdated.
+
+} // end class PrintStreamSink.
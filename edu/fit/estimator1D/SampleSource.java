@@ -0,0 +1,39 @@
+package edu.fit.estimator1D;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A stream of samples read from a file or another input.
+ * 
+ * Input which cannot be read as a sample is skipped and counted, so that a
+ * few bad lines in a large capture do not end the run. The caller reports
+ * them once the input has been read.
+ * 
+ * @author Gedeon Nyengele & Daniel Weinand
+ */
+public interface SampleSource extends Closeable {
+	
+	/**
+	 * Reads the next samples into an array.
+	 * @param samples : array to store the samples in.
+	 * @param off     : index of the first sample to store.
+	 * @param len     : the largest number of samples to store.
+	 * @return the number of samples stored, which is less than len only
+	 *         once the input has ended.
+	 * @throws IOException if the input cannot be read.
+	 */
+	int read(double[] samples, int off, int len) throws IOException;
+	
+	/**
+	 * @return the number of lines skipped so far because they did not hold a number.
+	 */
+	long getMalformedCount();
+	
+	/**
+	 * @return the line number, counted from 1, of the first line skipped
+	 *         because it did not hold a number, or 0 if there is none.
+	 */
+	long getFirstMalformedLine();
+
+} // end interface SampleSource.
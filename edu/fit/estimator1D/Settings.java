@@ -23,30 +23,84 @@ public class Settings {
 	//      0: no aging.
 	//      1: Caudle aging method.
 	//      2: Window method.
+	//      3: Exponential decay in time, by exp(-decayRate * elapsed seconds).
+	//      4: Window of the samples from the last timeWindow seconds.
 	public static int agingFlag        = 2;
 	public static final int noAge      = 0;
 	public static final int caudleAge  = 1;
 	public static final int windowAge  = 2;
+	public static final int decayAge   = 3;
+	public static final int timeWindowAge = 4;
 	
-	// The distance between points in the density estimation plot
+	// Flag that determines how the wavelet look-up tables are interpolated.
+	//      0: linear interpolation.
+	//      1: cubic (Catmull-Rom) interpolation, more accurate but slower.
+	public static int interpolationFlag = 0;
+	public static final int linearInterp = 0;
+	public static final int cubicInterp  = 1;
+	
+	// Flag that determines how the density estimate is normalized.
+	//      0: exact water level, found in a single pass.
+	//      1: iterative procedure of Gajek (1986).
+	public static int normalizationFlag = 0;
+	public static final int exactNormalize     = 0;
+	public static final int iterativeNormalize = 1;
+	
+	// Flag that determines how the wavelet coefficients are thresholded
+	// when the density is evaluated (only used with the wavelet function).
+	// A thresholded density is evaluated in full, even with incremental updates.
+	//      0: no thresholding.
+	//      1: hard thresholding, dropping the coefficients below the threshold.
+	//      2: soft thresholding, also shrinking the others by the threshold.
+	public static int thresholdFlag = 0;
+	public static final int noThreshold   = 0;
+	public static final int hardThreshold = 1;
+	public static final int softThreshold = 2;
+	
+	// Flag that determines how the threshold is chosen.
+	//      0: fixed, given by thresholdValue.
+	//      1: universal, sigma * sqrt(2 ln n) for the n coefficients, with sigma
+	//         estimated from the finest level by the median absolute deviation.
+	//      2: level dependent, the universal threshold of each level on its own.
+	public static int thresholdRule = 1;
+	public static final int fixedThreshold     = 0;
+	public static final int universalThreshold = 1;
+	public static final int levelThreshold     = 2;
+	
+	// Threshold for the fixed threshold rule.
+	public static double thresholdValue = .01;
+	
+	// The distance between points in the density estimation plot. The basis
+	// values at the points (see BasisMatrix) take about 8 bytes per point for
+	// each level and each translate in the wavelet's support: 8 * levels *
+	// (range / discretization) * support width bytes, over 500 MB for dmey
+	// (support width 102) with ten levels at .0001 over a range of 7.
 	public static double discretization = .01; 
 	
 	// How many samples to wait in between plot updates
 	public static int updateFrequency = 100;
 	
-	// Size of the window for data aging using the window method.
+	// Size of the window for data aging using the window method. The window
+	// holds exactly this many of the latest samples.
 	public static int windowSize       = 1400;
 	
 	// Caudle and Wegman's aging theta.
 	public static double agingTheta    = .995;
 	
+	// Rate, per second, at which the weight of a sample decays for decay aging.
+	public static double decayRate     = .01;
+	
+	// Length in seconds of the window for time window aging.
+	public static double timeWindow    = 300;
+	
 	// Minimum and Maximum values on the domain of the density function.
 	public static double[] densityRange = {-3.5, 3.5};
 	
 	public static double getMinimumRange() { return (densityRange[0]); }
 	public static double getMaximumRange() { return (densityRange[1]); }
 	
-	// Minimum and Maximum values on the domain of the sample vector.
+	// Minimum and Maximum values on the domain of the sample vector,
+	// taken from the header of binary sample files and {0, 0} otherwise.
 	public static double[] sampleRange = {0, 0};
 	
 	// Flag that determines whether or not the wavelet function should also be used.
@@ -54,9 +108,35 @@ public class Settings {
 	//      true : wavelet is ON  -> density approximation done with both scaling and wavelet functions.
 	public static boolean waveletFlag      = false;
 	
-	// Path to the folder containing the look-up table for the wavelets.
+	// Flag that determines whether the un-normalized density is kept up to date
+	// as the coefficients change, rather than recomputed for every plot update.
+	public static boolean incrementalFlag  = false;
+	
+	// Number of density points from which the density is evaluated on several threads.
+	public static int parallelThreshold    = 16384;
+	
+	// Number of threads updating the resolution levels as samples arrive.
+	//      0: the levels are updated on the thread reading the samples.
+	public static int ingestThreads        = 0;
+	
+	// Number of estimators reading parts of the queued samples in parallel,
+	// which are merged in order when the density is next needed.
+	//      0: samples are not queued or split.
+	public static int shards               = 0;
+	
+	// Number of refinement levels of look-up tables generated from the wavelet's
+	// filter (see WaveletCascade); the table entries are 2^-tableLevels apart.
+	//      0: the precompiled tables are used, and generated at the same
+	//         spacing for types without them.
+	public static int tableLevels          = 0;
+	
+	// Path to the folder containing the look-up table CSVs for the wavelets,
+	// which WaveletTableCompiler compiles into the wavelet table file.
 	public static String waveletDataFolder = "/edu/fit/estimator1D/resources/waveletfiles/";
 	
+	// Path to the wavelet table file holding the look-up tables for every wavelet type.
+	public static String waveletTableFile  = "/edu/fit/estimator1D/resources/wavelets.bin";
+	
 	public static String dataFile = "";
 
 }
@@ -16,6 +16,7 @@ import javax.swing.JComboBox;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JSeparator;
 import javax.swing.JTextField;
@@ -30,13 +31,16 @@ public class SettingsUI extends JFrame{
 
 	private static final long serialVersionUID = 1L;
 	private JLabel startLevelLabel, stopLevelLabel, agingFlagLabel, discretizationLabel, windowSizeLabel, agingThetaLabel;
+	private JLabel decayRateLabel, timeWindowLabel;
 	private JLabel waveletFlagLabel, fileNameLabel, updateFrequencyLabel;
-	private JLabel densityFrom, densityTo, waveletTypeLabel;
+	private JLabel densityFrom, densityTo, waveletTypeLabel, interpolationLabel, normalizationLabel;
+	private JLabel thresholdLabel, thresholdRuleLabel, thresholdValueLabel;
 	private JTextField startLevel, stopLevel, discretization, windowSize, agingTheta, updateFrequency;
+	private JTextField decayRate, timeWindow, thresholdValue;
 	private JTextField densityRangeFrom, densityRangeTo;
-	private JComboBox<String> agingFlag, waveletType;
+	private JComboBox<String> agingFlag, waveletType, interpolation, normalization, threshold, thresholdRule;
 	private JPanel waveletPanel, plotPanel, dataPanel, densityRangePanel;
-	private JCheckBox waveletFlag;
+	private JCheckBox waveletFlag, incrementalFlag;
 	private JFileChooser fileChooser;
 	private JButton btnOpenFile, btnSaveSettings;
 	private JPanel content;
@@ -62,7 +66,7 @@ public class SettingsUI extends JFrame{
 	public SettingsUI()
 	{
 		super("Estimator Settings");
-		setSize(300, 480);
+		setSize(300, 670);
 		content = (JPanel) this.getContentPane();
 		init();
 	}
@@ -85,12 +89,19 @@ public class SettingsUI extends JFrame{
 		discretizationLabel  = new JLabel("Discretization: ");
 		windowSizeLabel      = new JLabel("Window Size: ");
 		agingThetaLabel      = new JLabel("Aging Theta: ");
+		decayRateLabel       = new JLabel("Decay Rate (1/s): ");
+		timeWindowLabel      = new JLabel("Time Window (s): ");
 		waveletFlagLabel     = new JLabel("Wavelet Flag: ");
 		updateFrequencyLabel = new JLabel("Plot Update Frequency: ");
 		fileNameLabel        = new JLabel("Sample Data File: ");
 		densityFrom          = new JLabel("From: ");
 		densityTo            = new JLabel("To: ");
 		waveletTypeLabel     = new JLabel("Wavelet Type: ");
+		interpolationLabel   = new JLabel("Interpolation: ");
+		normalizationLabel   = new JLabel("Normalization: ");
+		thresholdLabel       = new JLabel("Thresholding: ");
+		thresholdRuleLabel   = new JLabel("Threshold Rule: ");
+		thresholdValueLabel  = new JLabel("Fixed Threshold: ");
 		
 		// Initialize textFields.
 		startLevel           = new JTextField(Settings.startLevel + "" , 3);
@@ -98,19 +109,36 @@ public class SettingsUI extends JFrame{
 		discretization       = new JTextField(Settings.discretization + "" , 5);
 		windowSize			 = new JTextField(Settings.windowSize + "" , 10);
 		agingTheta           = new JTextField(Settings.agingTheta + "", 5);
+		decayRate            = new JTextField(Settings.decayRate + "", 5);
+		timeWindow           = new JTextField(Settings.timeWindow + "", 5);
+		thresholdValue       = new JTextField(Settings.thresholdValue + "", 5);
 		updateFrequency      = new JTextField(Settings.updateFrequency + "", 10);
 		densityRangeFrom     = new JTextField(Settings.densityRange[0] + "", 5);
 		densityRangeTo       = new JTextField(Settings.densityRange[1] + "", 5);
 		
 		// Initialize combo boxes.
-		String[] agingFlags  = {"No Aging", "Caudle", "Window"};
+		String[] agingFlags  = {"No Aging", "Caudle", "Window", "Time Decay", "Time Window"};
 		agingFlag            = new JComboBox<String>( agingFlags );
 		agingFlag.setSelectedIndex(Settings.windowAge);  // sets the default to window aging. windowAging is constant 2 in Settings class.
 		waveletType          = new JComboBox<String>( Settings.waveletTypes );
 		waveletType.setSelectedIndex(9);
+		String[] interpolations = {"Linear", "Cubic"};
+		interpolation        = new JComboBox<String>( interpolations );
+		interpolation.setSelectedIndex(Settings.interpolationFlag);
+		String[] normalizations = {"Exact", "Iterative"};
+		normalization        = new JComboBox<String>( normalizations );
+		normalization.setSelectedIndex(Settings.normalizationFlag);
+		String[] thresholds  = {"None", "Hard", "Soft"};
+		threshold            = new JComboBox<String>( thresholds );
+		threshold.setSelectedIndex(Settings.thresholdFlag);
+		String[] thresholdRules = {"Fixed", "Universal", "Level Dependent"};
+		thresholdRule        = new JComboBox<String>( thresholdRules );
+		thresholdRule.setSelectedIndex(Settings.thresholdRule);
 		
 		// Initialize check Boxes.
 		waveletFlag          = new JCheckBox("Enable wavelet.");
+		incrementalFlag      = new JCheckBox("Incremental updates.");
+		incrementalFlag.setSelected(Settings.incrementalFlag);
 		
 		// Initialize buttons.
 		btnOpenFile          = new JButton("Browse...");
@@ -133,7 +161,21 @@ public class SettingsUI extends JFrame{
 					java.io.File file = fileChooser.getSelectedFile();
 					try {
 						Settings.dataFile = file.getCanonicalPath();
-					} catch (IOException e1) {}
+						
+						// Binary sample files give the range of their samples in the header.
+						SampleSource samples = StreamRunner.openSamples(Settings.dataFile);
+						try {
+							StreamRunner.setSampleRange(samples);
+						} finally {
+							samples.close();
+						}
+					} catch (IOException e1) {
+						
+						// Report the unreadable file, and drop the range of the file chosen before it.
+						Settings.sampleRange = new double[] {0, 0};
+						JOptionPane.showMessageDialog(SettingsUI.this, e1.getMessage(), "Unreadable sample file",
+								JOptionPane.ERROR_MESSAGE);
+					}
 					
 				}
 			}
@@ -160,13 +202,21 @@ public class SettingsUI extends JFrame{
 		waveletPanel.add(discretizationLabel);    waveletPanel.add(discretization);
 		waveletPanel.add(windowSizeLabel);        waveletPanel.add(windowSize);
 		waveletPanel.add(agingThetaLabel);        waveletPanel.add(agingTheta);   
+		waveletPanel.add(decayRateLabel);         waveletPanel.add(decayRate);
+		waveletPanel.add(timeWindowLabel);        waveletPanel.add(timeWindow);
 		waveletPanel.add(waveletTypeLabel);       waveletPanel.add(waveletType);
+		waveletPanel.add(interpolationLabel);     waveletPanel.add(interpolation);
+		waveletPanel.add(normalizationLabel);     waveletPanel.add(normalization);
 		waveletPanel.add(waveletFlagLabel);       waveletPanel.add(waveletFlag);
+		waveletPanel.add(thresholdLabel);         waveletPanel.add(threshold);
+		waveletPanel.add(thresholdRuleLabel);     waveletPanel.add(thresholdRule);
+		waveletPanel.add(thresholdValueLabel);    waveletPanel.add(thresholdValue);
 		
 		
 		// Add plotPanel components.
-		plotPanel.setPreferredSize( new Dimension(270, 55) );
+		plotPanel.setPreferredSize( new Dimension(270, 80) );
 		plotPanel.add(updateFrequencyLabel);      plotPanel.add(updateFrequency);
+		plotPanel.add(incrementalFlag);
 		
 		// Add dataPanel components.
 		dataPanel.setPreferredSize( new Dimension(270, 60) );
@@ -203,14 +253,22 @@ public class SettingsUI extends JFrame{
 		// Process all real-valued settings.
 		Settings.discretization    = Double.parseDouble(discretization.getText());
 		Settings.agingTheta        = Double.parseDouble(agingTheta.getText());
+		Settings.decayRate         = Double.parseDouble(decayRate.getText());
+		Settings.timeWindow        = Double.parseDouble(timeWindow.getText());
+		Settings.thresholdValue    = Double.parseDouble(thresholdValue.getText());
 		Settings.densityRange[0]   = Double.parseDouble(densityRangeFrom.getText());
 		Settings.densityRange[1]   = Double.parseDouble(densityRangeTo.getText());
 		
 		// Process checkboxes.
 		Settings.waveletFlag       = waveletFlag.isSelected();
+		Settings.incrementalFlag   = incrementalFlag.isSelected();
 		
 		// Process comboboxes.
 		Settings.agingFlag         = agingFlag.getSelectedIndex();
+		Settings.interpolationFlag = interpolation.getSelectedIndex();
+		Settings.normalizationFlag = normalization.getSelectedIndex();
+		Settings.thresholdFlag     = threshold.getSelectedIndex();
+		Settings.thresholdRule     = thresholdRule.getSelectedIndex();
 		
 		// Process string-valued settings.
 		Settings.waveletType       = Settings.waveletTypes[waveletType.getSelectedIndex()];
@@ -0,0 +1,148 @@
+package edu.fit.estimator1D;
+
+import java.util.Arrays;
+
+/**
+ * The wavelet coefficients which survive thresholding, stored sparsely as
+ * the index and value of each survivor at each wavelet level.
+ * 
+ * Most wavelet coefficients of a density estimate are statistically zero,
+ * and only add noise to the estimate. Thresholding drops the coefficients
+ * whose magnitude is below a threshold (hard thresholding) and also shrinks
+ * the others towards zero by the threshold (soft thresholding), so the
+ * estimate is smoother and evaluating it touches only the survivors.
+ * 
+ * The threshold is fixed, or chosen from the coefficients themselves:
+ * the universal threshold sigma * sqrt(2 ln n) of Donoho and Johnstone,
+ * where sigma is estimated by the median absolute coefficient at the
+ * finest level divided by 0.6745 and n is the number of coefficients, or
+ * the same threshold worked out for each level on its own. Coefficients
+ * which no sample has reached are exactly zero, and are left out of these
+ * estimates.
+ * 
+ * @author Daniel Weinand & Gedeon Nyengele
+ */
+class SparseCoefficients {
+	
+	// Ratio of the median absolute deviation to the standard deviation of normal noise.
+	private static final double MAD_RATIO = 0.6745;
+	
+	// For each wavelet level, the threshold applied.
+	final double[] thresholds;
+	
+	// For each wavelet level, the indices of the surviving coefficients, in increasing order.
+	final int[][] indices;
+	
+	// For each wavelet level, the surviving (true, not stored) coefficients.
+	final double[][] values;
+	
+	
+	/**
+	 * Thresholds the wavelet coefficients of a transform.
+	 * @param transform     : the coefficients, with the wavelet function in use
+	 * @param configuration : the estimator's parameters, giving the threshold flag and rule
+	 */
+	SparseCoefficients(Transform transform, Configuration configuration) {
+		
+		double[][] levels = transform.waveletCoefficients;
+		thresholds = chooseThresholds(levels, transform.scale, configuration);
+		indices    = new int[levels.length][];
+		values     = new double[levels.length][];
+		
+		boolean soft = configuration.thresholdFlag == Settings.softThreshold;
+		for (int level = 0; level < levels.length; level++) {
+			double[] coefficients = levels[level];
+			double threshold = thresholds[level];
+			
+			int survivors = 0;
+			for (int k = 0; k < coefficients.length; k++) {
+				if (Math.abs(transform.scale * coefficients[k]) > threshold) {
+					survivors++;
+				}
+			}
+			
+			indices[level] = new int[survivors];
+			values[level]  = new double[survivors];
+			int next = 0;
+			for (int k = 0; k < coefficients.length; k++) {
+				double value = transform.scale * coefficients[k];
+				if (Math.abs(value) > threshold) {
+					indices[level][next] = k;
+					values[level][next]  = soft ? value - Math.signum(value) * threshold : value;
+					next++;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Works out the threshold of each wavelet level.
+	 * @param levels        : the stored coefficients at each wavelet level
+	 * @param scale         : the factor to multiply the stored coefficients by
+	 * @param configuration : the estimator's parameters
+	 * @return the threshold of each level
+	 */
+	private static double[] chooseThresholds(double[][] levels, double scale, Configuration configuration) {
+		
+		double[] chosen = new double[levels.length];
+		if (configuration.thresholdRule == Settings.fixedThreshold) {
+			Arrays.fill(chosen, configuration.thresholdValue);
+		}
+		else if (configuration.thresholdRule == Settings.universalThreshold) {
+			int n = 0;
+			for (double[] coefficients : levels) {
+				n += countNonZero(coefficients);
+			}
+			double sigma = medianAbsolute(levels[levels.length - 1], scale) / MAD_RATIO;
+			Arrays.fill(chosen, universal(sigma, n));
+		}
+		else {
+			for (int level = 0; level < levels.length; level++) {
+				double sigma = medianAbsolute(levels[level], scale) / MAD_RATIO;
+				chosen[level] = universal(sigma, countNonZero(levels[level]));
+			}
+		}
+		return chosen;
+	} // end chooseThresholds
+	
+	/**
+	 * @return the universal threshold for n coefficients with noise of the given deviation
+	 */
+	private static double universal(double sigma, int n) {
+		return (n > 1) ? sigma * Math.sqrt(2 * Math.log(n)) : 0.0;
+	} // end universal
+	
+	/**
+	 * @return the median magnitude of the non-zero coefficients times the scale, 0 if there are none
+	 */
+	private static double medianAbsolute(double[] coefficients, double scale) {
+		double[] magnitudes = new double[countNonZero(coefficients)];
+		int next = 0;
+		for (double coefficient : coefficients) {
+			if (coefficient != 0.0) {
+				magnitudes[next++] = Math.abs(scale * coefficient);
+			}
+		}
+		if (magnitudes.length == 0) {
+			return 0.0;
+		}
+		Arrays.sort(magnitudes);
+		int middle = magnitudes.length / 2;
+		return (magnitudes.length % 2 == 1) ? magnitudes[middle]
+				: 0.5 * (magnitudes[middle - 1] + magnitudes[middle]);
+	} // end medianAbsolute
+	
+	/**
+	 * @return the number of non-zero coefficients
+	 */
+	private static int countNonZero(double[] coefficients) {
+		int n = 0;
+		for (double coefficient : coefficients) {
+			if (coefficient != 0.0) {
+				n++;
+			}
+		}
+		return n;
+	} // end countNonZero
+
+} // end class SparseCoefficients.
@@ -0,0 +1,367 @@
+package edu.fit.estimator1D;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+
+/**
+ * Feeds a stream of samples to a density estimator without any user interface,
+ * passing the density estimate to a sink at the configured update frequency.
+ * 
+ * Samples are read from a SampleSource in blocks of the same size whatever
+ * the update frequency, and each block is given to the estimator in parts
+ * ending at the density updates, so the estimator runs at full speed
+ * between them. With time
+ * aging, the timestamps in a binary sample file are passed on as well. The runner may be
+ * paused, resumed and terminated from other threads.
+ * 
+ * @author Gedeon Nyengele & Daniel Weinand
+ */
+public class StreamRunner {
+	
+	// Number of samples read from the input at once.
+	private static final int MAX_BLOCK = 8192;
+	
+	// The default data set, used when no data file is given.
+	public static final String DEFAULT_DATA = "/edu/fit/estimator1D/resources/datafiles/skewUni2Claw.csv";
+	
+	private final DensityEstimator estimator;	// The estimator being fed
+	private final DensitySink sink;				// Where the density estimates go
+	private volatile boolean paused;			// Whether the runner should wait
+	private volatile boolean terminated;		// Whether the runner should stop
+	
+	/**
+	 * Constructor.
+	 * @param estimator : the estimator to feed the samples to.
+	 * @param sink      : receives the density estimate every update frequency samples.
+	 */
+	public StreamRunner(DensityEstimator estimator, DensitySink sink) {
+		this.estimator  = estimator;
+		this.sink       = sink;
+		this.paused     = false;
+		this.terminated = false;
+	}
+	
+	/**
+	 * Reads samples until the input ends or the runner is terminated.
+	 * A final density estimate is passed to the sink if samples were read
+	 * after the last update. Malformed lines are skipped and counted by the input.
+	 * Sample indexes carry on from the samples the estimator has already read,
+	 * e.g. before a checkpoint it was restored from.
+	 * @param input : the samples.
+	 * @return the number of samples read.
+	 * @throws IOException if the input cannot be read.
+	 */
+	public long run(SampleSource input) throws IOException {
+		
+		int updateFrequency = estimator.getConfiguration().updateFrequency;
+		double[] block = new double[MAX_BLOCK];
+		BinarySampleSource timedInput = null;
+		double[] times = null;
+		if (estimator.getConfiguration().isTimeAged() && input instanceof BinarySampleSource
+				&& ((BinarySampleSource) input).getHeader().timestamps) {
+			timedInput = (BinarySampleSource) input;
+			times = new double[block.length];
+		}
+		double[] points = estimator.getConfiguration().getGridPoints();
+		long firstIndex = estimator.getSampleCount();
+		long sampInd = firstIndex;
+		long lastUpdate = firstIndex;
+		boolean more = true;
+		
+		while (more && awaitResume()) {
+			
+			// Fill a block.
+			int count = (timedInput != null) ? timedInput.read(block, times, 0, block.length)
+					: input.read(block, 0, block.length);
+			more = (count == block.length);
+			
+			// Give the block to the estimator, stopping at each density update.
+			int from = 0;
+			while (from < count && awaitResume()) {
+				int size = (int) Math.min(count - from, updateFrequency - sampInd % updateFrequency);
+				if (timedInput != null) {
+					estimator.updateCoefficients(times, block, from, size);
+				}
+				else {
+					estimator.updateCoefficients(block, from, size);
+				}
+				from += size;
+				sampInd += size;
+				
+				// Pass on the density at the update frequency.
+				if (sampInd % updateFrequency == 0) {
+					sink.densityUpdated(sampInd, points.clone(), estimator.getDensity());
+					lastUpdate = sampInd;
+				}
+			}
+		}
+		
+		if (sampInd != lastUpdate && !terminated) {
+			sink.densityUpdated(sampInd, points.clone(), estimator.getDensity());
+		}
+		return sampInd - firstIndex;
+	} // end method run.
+	
+	/**
+	 * Opens the samples in a data file, or the default data set. Binary sample
+	 * files (see BinaryHeader) are recognized by their header, and any other
+	 * file is read as text, one sample per line.
+	 * @param dataFile : the file to read, "-" for standard input, or null for the default data set.
+	 * @return the samples.
+	 * @throws IOException if the file cannot be opened.
+	 */
+	public static SampleSource openSamples(String dataFile) throws IOException {
+		if (dataFile == null) {
+			return new StreamSampleSource(StreamRunner.class.getResourceAsStream(DEFAULT_DATA));
+		}
+		if (dataFile.equals("-")) {
+			return new StreamSampleSource(System.in);
+		}
+		if (BinaryHeader.read(dataFile) != null) {
+			return new BinarySampleSource(dataFile);
+		}
+		return new MappedSampleSource(dataFile);
+	} // end method openSamples.
+	
+	/**
+	 * Sets Settings.sampleRange from the header of a binary sample file,
+	 * or clears it for any other input.
+	 * @param input : the samples.
+	 */
+	public static void setSampleRange(SampleSource input) {
+		if (input instanceof BinarySampleSource) {
+			BinaryHeader header = ((BinarySampleSource) input).getHeader();
+			Settings.sampleRange = new double[] {header.minimum, header.maximum};
+		}
+		else {
+			Settings.sampleRange = new double[] {0, 0};
+		}
+	} // end method setSampleRange.
+	
+	/**
+	 * @param input : samples which have been read.
+	 * @return a description of the malformed lines skipped in the input, or null if there were none.
+	 */
+	public static String describeMalformed(SampleSource input) {
+		long malformed = input.getMalformedCount();
+		if (malformed == 0) {
+			return null;
+		}
+		return "Skipped " + malformed + (malformed == 1 ? " line" : " lines")
+				+ " which did not hold a number, the first being line " + input.getFirstMalformedLine();
+	} // end method describeMalformed.
+	
+	/**
+	 * Waits while the runner is paused.
+	 * @return false if the runner has been terminated.
+	 */
+	private boolean awaitResume() {
+		while (paused && !terminated) {
+			try
+			{
+				// Sleep while the Runner is still on pause.
+				Thread.sleep(500);
+			}
+			catch (InterruptedException ex) {
+				terminated = true;
+			}
+		}
+		return !terminated;
+	} // end method awaitResume.
+	
+	/**
+	 * Pauses the runner before the samples up to the next density update.
+	 */
+	public void pause() {
+		paused = true;
+	} // end method pause.
+	
+	/**
+	 * Resumes a paused runner.
+	 */
+	public void resume() {
+		paused = false;
+	} // end method resume.
+	
+	/**
+	 * Stops the runner before the next block of samples.
+	 */
+	public void terminate() {
+		terminated = true;
+	} // end method terminate.
+	
+	/**
+	 * Runs the estimator from the command line, writing the density estimates
+	 * as comma separated rows (see PrintStreamSink). Parameters not given on
+	 * the command line keep their values from Settings.
+	 * @param args : options followed by an optional data file ("-" for standard input).
+	 */
+	public static void main(String[] args) {
+		
+		String dataFile = null;
+		String outputFile = null;
+		String checkpointFile = null;
+		double checkpointInterval = 60;
+		
+		try
+		{
+			for (int i = 0; i < args.length; i++) {
+				String arg = args[i];
+				if (arg.equals("--start-level"))           Settings.startLevel = Integer.parseInt(args[++i]);
+				else if (arg.equals("--stop-level"))       Settings.stopLevel = Integer.parseInt(args[++i]);
+				else if (arg.equals("--wavelet"))          Settings.waveletType = args[++i];
+				else if (arg.equals("--wavelets"))         Settings.waveletFlag = true;
+				else if (arg.equals("--aging"))            Settings.agingFlag = parseAging(args[++i]);
+				else if (arg.equals("--window"))           Settings.windowSize = Integer.parseInt(args[++i]);
+				else if (arg.equals("--theta"))            Settings.agingTheta = Double.parseDouble(args[++i]);
+				else if (arg.equals("--decay-rate"))       Settings.decayRate = Double.parseDouble(args[++i]);
+				else if (arg.equals("--time-window"))      Settings.timeWindow = Double.parseDouble(args[++i]);
+				else if (arg.equals("--cubic"))            Settings.interpolationFlag = Settings.cubicInterp;
+				else if (arg.equals("--iterative"))        Settings.normalizationFlag = Settings.iterativeNormalize;
+				else if (arg.equals("--threshold"))        Settings.thresholdFlag = parseThreshold(args[++i]);
+				else if (arg.equals("--threshold-rule"))   Settings.thresholdRule = parseThresholdRule(args[++i]);
+				else if (arg.equals("--threshold-value"))  Settings.thresholdValue = Double.parseDouble(args[++i]);
+				else if (arg.equals("--incremental"))      Settings.incrementalFlag = true;
+				else if (arg.equals("--parallel-threshold")) Settings.parallelThreshold = Integer.parseInt(args[++i]);
+				else if (arg.equals("--ingest-threads"))   Settings.ingestThreads = Integer.parseInt(args[++i]);
+				else if (arg.equals("--shards"))           Settings.shards = Integer.parseInt(args[++i]);
+				else if (arg.equals("--table-levels"))     Settings.tableLevels = Integer.parseInt(args[++i]);
+				else if (arg.equals("--discretization"))   Settings.discretization = Double.parseDouble(args[++i]);
+				else if (arg.equals("--update-frequency")) Settings.updateFrequency = Integer.parseInt(args[++i]);
+				else if (arg.equals("--range")) {
+					Settings.densityRange[0] = Double.parseDouble(args[++i]);
+					Settings.densityRange[1] = Double.parseDouble(args[++i]);
+				}
+				else if (arg.equals("--output"))           outputFile = args[++i];
+				else if (arg.equals("--checkpoint"))       checkpointFile = args[++i];
+				else if (arg.equals("--checkpoint-interval")) checkpointInterval = Double.parseDouble(args[++i]);
+				else if (arg.startsWith("--") || dataFile != null) {
+					throw new IllegalArgumentException("Unexpected argument " + arg);
+				}
+				else                                       dataFile = arg;
+			}
+		}
+		catch (RuntimeException ex) {
+			System.err.println(ex.getMessage() == null ? "Missing option value" : ex.getMessage());
+			printUsage();
+			System.exit(2);
+			return;
+		}
+		
+		try
+		{
+			SampleSource input = openSamples(dataFile);
+			setSampleRange(input);
+			
+			PrintStream out = (outputFile == null) ? System.out
+					: new PrintStream(new FileOutputStream(outputFile), false, "UTF-8");
+			
+			DensityEstimator estimator = new DensityEstimator(Configuration.fromSettings());
+			if (checkpointFile != null) {
+				if (new File(checkpointFile).exists()) {
+					estimator.restoreCheckpoint(checkpointFile);
+					System.err.println("Restored " + estimator.getSampleCount() + " samples from " + checkpointFile);
+				}
+				if (checkpointInterval > 0) {
+					estimator.startCheckpointing(checkpointFile, (long) (checkpointInterval * 1000));
+				}
+			}
+			
+			new StreamRunner(estimator, new PrintStreamSink(out)).run(input);
+			estimator.close();
+			if (checkpointFile != null) {
+				estimator.saveCheckpoint(checkpointFile);
+			}
+			
+			input.close();
+			out.close();
+			
+			String malformed = describeMalformed(input);
+			if (malformed != null) {
+				System.err.println("Warning: " + malformed);
+			}
+		}
+		catch (IOException ex) {
+			System.err.println("Error: " + ex.getMessage());
+			System.exit(1);
+		}
+		catch (IllegalArgumentException ex) {
+			System.err.println("Error: " + ex.getMessage());
+			System.exit(1);
+		}
+	} // end method main.
+	
+	/**
+	 * @param name : the name of an aging method.
+	 * @return the aging flag for the name.
+	 */
+	private static int parseAging(String name) {
+		if (name.equals("none"))   return Settings.noAge;
+		if (name.equals("caudle")) return Settings.caudleAge;
+		if (name.equals("window")) return Settings.windowAge;
+		if (name.equals("decay"))  return Settings.decayAge;
+		if (name.equals("timewindow")) return Settings.timeWindowAge;
+		throw new IllegalArgumentException("Unknown aging method " + name);
+	} // end method parseAging.
+	
+	/**
+	 * @param name : the name of a thresholding method.
+	 * @return the threshold flag for the name.
+	 */
+	private static int parseThreshold(String name) {
+		if (name.equals("none")) return Settings.noThreshold;
+		if (name.equals("hard")) return Settings.hardThreshold;
+		if (name.equals("soft")) return Settings.softThreshold;
+		throw new IllegalArgumentException("Unknown thresholding method " + name);
+	} // end method parseThreshold.
+	
+	/**
+	 * @param name : the name of a threshold rule.
+	 * @return the threshold rule flag for the name.
+	 */
+	private static int parseThresholdRule(String name) {
+		if (name.equals("fixed"))     return Settings.fixedThreshold;
+		if (name.equals("universal")) return Settings.universalThreshold;
+		if (name.equals("level"))     return Settings.levelThreshold;
+		throw new IllegalArgumentException("Unknown threshold rule " + name);
+	} // end method parseThresholdRule.
+	
+	/**
+	 * Prints the command line options.
+	 */
+	private static void printUsage() {
+		System.err.println("Usage: java edu.fit.estimator1D.StreamRunner [options] [data file | -]");
+		System.err.println("  The data file holds one sample per line, or is a binary sample file (see BinarySampleWriter).");
+		System.err.println("  --start-level J        resolution start level");
+		System.err.println("  --stop-level J         resolution stop level");
+		System.err.println("  --wavelet TYPE         wavelet type, e.g. db6");
+		System.err.println("  --wavelets             use the wavelet functions as well as the scaling functions");
+		System.err.println("  --aging none|caudle|window|decay|timewindow");
+		System.err.println("  --window W             window size for window aging");
+		System.err.println("  --theta T              theta for Caudle aging");
+		System.err.println("  --decay-rate L         weights decay by exp(-L) per second for decay aging");
+		System.err.println("  --time-window T        seconds of samples kept for time window aging");
+		System.err.println("                         (samples are timed by a binary file's timestamps, else by arrival)");
+		System.err.println("  --cubic                use cubic interpolation of the wavelet tables");
+		System.err.println("  --iterative            normalize with Gajek's iteration instead of the exact water level");
+		System.err.println("  --threshold none|hard|soft  threshold the wavelet coefficients (with --wavelets)");
+		System.err.println("  --threshold-rule fixed|universal|level  how the threshold is chosen (default universal)");
+		System.err.println("  --threshold-value T    threshold for the fixed rule");
+		System.err.println("  --incremental          keep the density up to date as samples arrive");
+		System.err.println("  --parallel-threshold P density points from which the density is evaluated in parallel");
+		System.err.println("  --ingest-threads T     threads updating the resolution levels (0 for none)");
+		System.err.println("  --shards S             estimators reading parts of the queued samples in parallel (0 for none)");
+		System.err.println("  --table-levels L       generate the wavelet tables from the wavelet's filter with entries");
+		System.err.println("                         2^-L apart (0 for the precompiled tables)");
+		System.err.println("  --discretization D     distance between density points");
+		System.err.println("  --update-frequency F   samples between density estimates");
+		System.err.println("  --range MIN MAX        domain of the density function");
+		System.err.println("  --output FILE          write the estimates to FILE instead of standard output");
+		System.err.println("  --checkpoint FILE      carry on from FILE if it exists, and save the estimator to it");
+		System.err.println("                         periodically and at the end");
+		System.err.println("  --checkpoint-interval S seconds between checkpoints (default 60, 0 for only at the end)");
+	} // end method printUsage.
+
+} // end class StreamRunner.
@@ -0,0 +1,53 @@
+package edu.fit.estimator1D;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads samples written one per line from a stream, such as standard input
+ * or a resource, which cannot be mapped into memory. The bytes are read
+ * into one reused buffer and parsed there.
+ * 
+ * @author Gedeon Nyengele & Daniel Weinand
+ */
+public class StreamSampleSource extends TextSampleSource {
+	
+	// Size of the buffer the stream is read into.
+	private static final int BUFFER_SIZE = 1 << 16;
+	
+	private final ReadableByteChannel channel;	// The stream being read
+	
+	/**
+	 * Constructor.
+	 * @param in : the stream to read.
+	 */
+	public StreamSampleSource(InputStream in) {
+		this.channel = Channels.newChannel(in);
+		this.buffer  = ByteBuffer.allocate(BUFFER_SIZE);
+		buffer.limit(0);
+	}
+	
+	/**
+	 * Moves the unread bytes to the front of the buffer and reads more after them.
+	 */
+	protected boolean fill() throws IOException {
+		buffer.compact();
+		int read = 0;
+		while (read == 0 && buffer.hasRemaining()) {
+			read = channel.read(buffer);
+		}
+		buffer.flip();
+		return read > 0;
+	} // end method fill.
+	
+	/**
+	 * Closes the stream.
+	 */
+	public void close() throws IOException {
+		channel.close();
+	} // end method close.
+
+} // end class StreamSampleSource.
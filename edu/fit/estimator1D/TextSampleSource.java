@@ -0,0 +1,250 @@
+package edu.fit.estimator1D;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads samples written one per line as decimal text, parsing them straight
+ * from a buffer of bytes. The subclasses decide where the bytes come from.
+ * 
+ * Numbers with at most 15 significant digits and a decimal exponent within
+ * 22 of them are parsed exactly without creating any objects, which covers
+ * ordinary data files. Other lines (more digits, "NaN", hexadecimal, or
+ * lines which are not numbers at all) are passed to Double.parseDouble, and
+ * the ones it rejects are counted as malformed. Blank lines are skipped.
+ * 
+ * @author Gedeon Nyengele & Daniel Weinand
+ */
+abstract class TextSampleSource implements SampleSource {
+	
+	// Longest line read as a sample; longer lines are skipped as malformed.
+	static final int MAX_LINE = 4096;
+	
+	// Powers of ten which doubles hold exactly.
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+		1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+	
+	// The bytes being read, from position to limit.
+	protected ByteBuffer buffer;
+	
+	private final char[] slowLine = new char[MAX_LINE];	// Line handed to Double.parseDouble
+	private double value;						// The last number parsed
+	private boolean skipping;					// Whether the rest of an over-long line is being skipped
+	private long lineNumber;					// Lines read so far
+	private long malformedCount;				// Lines skipped as malformed
+	private long firstMalformedLine;			// First line skipped as malformed, or 0
+	
+	/**
+	 * Brings more bytes into the buffer, keeping the bytes from its position
+	 * to its limit. At least MAX_LINE bytes must be available afterwards
+	 * unless the input ends sooner.
+	 * @return false if the input has ended, in which case the buffer still
+	 *         holds the unread bytes.
+	 * @throws IOException if the input cannot be read.
+	 */
+	protected abstract boolean fill() throws IOException;
+	
+	public int read(double[] samples, int off, int len) throws IOException {
+		
+		int count = 0;
+		while (count < len) {
+			
+			// Find the end of the next line, reading more input if needed
+			int start = buffer.position();
+			int end = start;
+			int limit = buffer.limit();
+			while (end < limit && buffer.get(end) != '\n') {
+				end++;
+			}
+			if (end == limit) {
+				if (end - start > MAX_LINE) {
+					if (!skipping) {
+						malformed(lineNumber + 1);
+					}
+					skipping = true;
+					buffer.position(end);
+					continue;
+				}
+				if (fill()) {
+					continue;
+				}
+				
+				// The last line has no line break
+				start = buffer.position();
+				end = limit = buffer.limit();
+				if (start == limit) {
+					break;
+				}
+			}
+			buffer.position(Math.min(end + 1, limit));
+			lineNumber++;
+			
+			// Drop the end of an over-long line
+			if (skipping) {
+				skipping = false;
+				continue;
+			}
+			
+			// Trim surrounding white space, including a carriage return
+			while (start < end && buffer.get(start) <= ' ') {
+				start++;
+			}
+			while (end > start && buffer.get(end - 1) <= ' ') {
+				end--;
+			}
+			if (start == end) {
+				continue;
+			}
+			
+			if (end - start <= MAX_LINE && (parse(start, end) || parseSlowly(start, end))) {
+				samples[off + count++] = value;
+			}
+			else {
+				malformed(lineNumber);
+			}
+		}
+		return count;
+	} // end method read.
+	
+	/**
+	 * Parses a plain decimal number exactly, if it is simple enough.
+	 * @param from : index of the first byte of the number.
+	 * @param to   : index after the last byte of the number.
+	 * @return whether the number was parsed into value.
+	 */
+	private boolean parse(int from, int to) {
+		
+		int i = from;
+		boolean negative = false;
+		byte c = buffer.get(i);
+		if (c == '-' || c == '+') {
+			negative = (c == '-');
+			i++;
+		}
+		
+		// Digits beyond the 18th are dropped, so the mantissa cannot overflow
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean dropped = false;
+		boolean any = false;
+		while (i < to && (c = buffer.get(i)) >= '0' && c <= '9') {
+			int digit = c - '0';
+			if (mantissa != 0 || digit != 0) {
+				if (digits < 18) {
+					mantissa = 10 * mantissa + digit;
+					digits++;
+				}
+				else {
+					exponent++;
+					dropped |= (digit != 0);
+				}
+			}
+			any = true;
+			i++;
+		}
+		if (i < to && buffer.get(i) == '.') {
+			i++;
+			while (i < to && (c = buffer.get(i)) >= '0' && c <= '9') {
+				int digit = c - '0';
+				if (mantissa == 0 && digit == 0) {
+					exponent--;
+				}
+				else if (digits < 18) {
+					mantissa = 10 * mantissa + digit;
+					digits++;
+					exponent--;
+				}
+				else {
+					dropped |= (digit != 0);
+				}
+				any = true;
+				i++;
+			}
+		}
+		if (!any) {
+			return false;
+		}
+		
+		if (i < to && ((c = buffer.get(i)) == 'e' || c == 'E')) {
+			i++;
+			boolean negativeExponent = false;
+			if (i < to && ((c = buffer.get(i)) == '-' || c == '+')) {
+				negativeExponent = (c == '-');
+				i++;
+			}
+			int written = 0;
+			int digitCount = 0;
+			while (i < to && (c = buffer.get(i)) >= '0' && c <= '9') {
+				written = Math.min(10 * written + (c - '0'), 100000);
+				digitCount++;
+				i++;
+			}
+			if (digitCount == 0) {
+				return false;
+			}
+			exponent += negativeExponent ? -written : written;
+		}
+		if (i != to) {
+			return false;
+		}
+		
+		// Both the mantissa and the power of ten are exact, so one operation rounds correctly
+		double result;
+		if (mantissa == 0) {
+			result = 0.0;
+		}
+		else if (dropped || digits > 15 || exponent < -22 || exponent > 22) {
+			return false;
+		}
+		else if (exponent < 0) {
+			result = mantissa / POWERS_OF_TEN[-exponent];
+		}
+		else {
+			result = mantissa * POWERS_OF_TEN[exponent];
+		}
+		value = negative ? -result : result;
+		return true;
+	} // end method parse.
+	
+	/**
+	 * Parses a number parse could not, using Double.parseDouble.
+	 * @param from : index of the first byte of the number.
+	 * @param to   : index after the last byte of the number.
+	 * @return whether the number was parsed into value.
+	 */
+	private boolean parseSlowly(int from, int to) {
+		for (int i = from; i < to; i++) {
+			slowLine[i - from] = (char) (buffer.get(i) & 0xff);
+		}
+		try
+		{
+			value = Double.parseDouble(new String(slowLine, 0, to - from));
+			return true;
+		}
+		catch (NumberFormatException ex) {
+			return false;
+		}
+	} // end method parseSlowly.
+	
+	/**
+	 * Counts a malformed line.
+	 * @param line : the line number.
+	 */
+	private void malformed(long line) {
+		if (malformedCount++ == 0) {
+			firstMalformedLine = line;
+		}
+	} // end method malformed.
+	
+	public long getMalformedCount() {
+		return malformedCount;
+	}
+	
+	public long getFirstMalformedLine() {
+		return firstMalformedLine;
+	}
+
+} // end class TextSampleSource.
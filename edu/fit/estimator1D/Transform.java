@@ -1,29 +1,149 @@
 package edu.fit.estimator1D;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+
 /**
  * Contains the coefficients and translates of both the scaling and wavelet functions.
  * 
+ * The translates at each resolution level are consecutive integers, so they are
+ * stored implicitly: the coefficient at index i belongs to translate offset + i.
+ * 
  * @author Gedeon Nyengele & Daniel Weinand
  * 
  */
 public class Transform {
 	
 	// Scaling function's coefficients.
-	public static ArrayList<Double> scalingCoefficients;
+	public final double[] scalingCoefficients;
+	
+	// wavelet function's coefficients, one array per resolution level.
+	// This is null when the wavelet function is not used.
+	public final double[][] waveletCoefficients;
 	
-	// wavelet function's coefficients.
-	public static ArrayList<ArrayList<Double>> waveletCoefficients;
+	// Scaling function's first translate.
+	public final int scalingOffset;
 	
-	// Scaling function's translates.
-	public static ArrayList<Double> scalingTranslates;
+	// Number of scaling function translates.
+	public final int scalingCount;
 		
-	// wavelet function's translates.
-	public static ArrayList<ArrayList<Double>> waveletTranslates;
+	// wavelet function's first translate at each resolution level.
+	public final int[] waveletOffsets;
 	
+	// Number of wavelet function translates at each resolution level.
+	public final int[] waveletCounts;
 	
+	// Scale shared by all stored coefficients. The true coefficient is
+	// scale * stored, which lets aging decay every coefficient at once.
+	public double scale = 1.0;
 	
+	// Bounds on the scale before it is folded back into the coefficients.
+	static final double MIN_SCALE = 1e-64;
+	static final double MAX_SCALE = 1e64;
 	
+	// Number of times the stored coefficients have been rewritten in place
+	// by clearing or renormalizing, rather than changed by adding samples.
+	int rewrites = 0;
+	
+	
+	/**
+	 * Creates zeroed coefficients for the translates which can support
+	 * points in the density range, based off of the wavelet's support and
+	 * the resolution levels.
+	 * @param configuration : the estimator's parameters
+	 * @param wavelet       : the wavelet used
+	 */
+	public Transform(Configuration configuration, Wavelet wavelet) {
+		
+		double[] support = wavelet.getSupport();
+		
+		// Initialize the scaling translates
+		int startTranslate = (int) Math.floor((Math.pow(2,configuration.startLevel)*configuration.getMinimumRange())-support[1]);
+		int stopTranslate = (int) Math.ceil((Math.pow(2,configuration.startLevel)*configuration.getMaximumRange())-support[0]);
+		scalingOffset = startTranslate;
+		scalingCount  = stopTranslate - startTranslate + 1;
+		scalingCoefficients = new double[scalingCount];
+		
+		// Initialize the wavelet translates if wavelets are being used
+		if (configuration.waveletFlag) {
+			int levels = configuration.stopLevel - configuration.startLevel + 1;
+			waveletOffsets      = new int[levels];
+			waveletCounts       = new int[levels];
+			waveletCoefficients = new double[levels][];
+		
+			// Loop through resolutions
+			for (int j = configuration.startLevel; j <= configuration.stopLevel; j++){
+				
+				int startWTranslate = (int) Math.floor((Math.pow(2,j)*configuration.getMinimumRange())-support[1]);
+				int stopWTranslate = (int) Math.ceil((Math.pow(2,j)*configuration.getMaximumRange())-support[0]);
+				int level = j - configuration.startLevel;
+				waveletOffsets[level]      = startWTranslate;
+				waveletCounts[level]       = stopWTranslate - startWTranslate + 1;
+				waveletCoefficients[level] = new double[waveletCounts[level]];
+			}
+		}
+		else {
+			waveletOffsets      = null;
+			waveletCounts       = null;
+			waveletCoefficients = null;
+		}
+	}
+	
+	/**
+	 * Multiplies every stored coefficient by the given factor, leaving the
+	 * shared scale as it is. A zero factor clears the coefficients.
+	 * @param factor : the factor to multiply the stored coefficients by
+	 */
+	public void multiplyStored(double factor) {
+		if (factor == 0.0) {
+			Arrays.fill(scalingCoefficients, 0.0);
+		}
+		else {
+			for (int i = 0; i < scalingCoefficients.length; i++) {
+				scalingCoefficients[i] *= factor;
+			}
+		}
+		if (waveletCoefficients != null) {
+			for (double[] levelCoefficients : waveletCoefficients) {
+				if (factor == 0.0) {
+					Arrays.fill(levelCoefficients, 0.0);
+				}
+				else {
+					for (int i = 0; i < levelCoefficients.length; i++) {
+						levelCoefficients[i] *= factor;
+					}
+				}
+			}
+		}
+		rewrites++;
+	} // end multiplyStored
+	
+	/**
+	 * Replaces the coefficients with a weighted sum of these coefficients
+	 * and another transform's coefficients at the same translates.
+	 * 
+	 * Post: scale is 1 and the stored coefficients are the true coefficients
+	 * 
+	 * @param factor      : the factor to multiply these coefficients by
+	 * @param other       : the other coefficients, laid out as these are
+	 * @param otherFactor : the factor to multiply the other coefficients by
+	 */
+	public void combine(double factor, Transform other, double otherFactor) {
+		double a = scale * factor;
+		double b = other.scale * otherFactor;
+		for (int i = 0; i < scalingCoefficients.length; i++) {
+			scalingCoefficients[i] = a * scalingCoefficients[i] + b * other.scalingCoefficients[i];
+		}
+		if (waveletCoefficients != null) {
+			for (int level = 0; level < waveletCoefficients.length; level++) {
+				double[] levelCoefficients = waveletCoefficients[level];
+				double[] otherCoefficients = other.waveletCoefficients[level];
+				for (int i = 0; i < levelCoefficients.length; i++) {
+					levelCoefficients[i] = a * levelCoefficients[i] + b * otherCoefficients[i];
+				}
+			}
+		}
+		scale = 1.0;
+		rewrites++;
+	} // end combine
 	
-
 } // end class Tranform.
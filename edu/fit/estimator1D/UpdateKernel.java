@@ -0,0 +1,325 @@
+package edu.fit.estimator1D;
+
+/**
+ * The per-sample update of the coefficients, shared by DensityEstimator and
+ * EstimatorRegistry: the Caudle, no aging and window aging rules, the shared
+ * scale which lets aging decay every coefficient at once, and the loop over
+ * the translates supporting a data point.
+ * 
+ * The coefficients themselves are kept by a Store, which the estimator backs
+ * with its Transform and the registry with a slot of a direct buffer. The
+ * kernel holds only what does not depend on the data, so one kernel serves
+ * every store with the same configuration.
+ * 
+ * @author Daniel Weinand & Gedeon Nyengele
+ */
+final class UpdateKernel {
+	
+	/**
+	 * The coefficients of every level, stored under a shared scale: the
+	 * true coefficient is getScale() times the stored one. A store also
+	 * keeps the window of samples when window aging is used.
+	 */
+	abstract static class Store {
+		
+		/**
+		 * @return the scale shared by all stored coefficients
+		 */
+		abstract double getScale();
+		
+		/**
+		 * @param scale : the new scale shared by all stored coefficients
+		 */
+		abstract void setScale(double scale);
+		
+		/**
+		 * Adds a value to one stored coefficient.
+		 * @param level : 0 for the scaling functions, or 1 onwards for the wavelet levels
+		 * @param index : the index of the coefficient within the level
+		 * @param value : the value to add
+		 */
+		abstract void addStored(int level, int index, double value);
+		
+		/**
+		 * Multiplies every stored coefficient by a factor, or sets it to 0
+		 * if the factor is 0.
+		 * @param factor : the factor to multiply the stored coefficients by
+		 */
+		abstract void rewriteStored(double factor);
+		
+		/**
+		 * @param slot : the index of a sample in the window
+		 * @return the sample in that slot of the window
+		 */
+		abstract double getWindowSample(int slot);
+		
+		/**
+		 * @param slot : the index of a sample in the window
+		 * @param X    : the sample to keep in that slot
+		 */
+		abstract void setWindowSample(int slot, double X);
+		
+		/**
+		 * Adds a weighted data point to the stored coefficients, now or
+		 * later through addToLevel (the estimator queues it for its ingest
+		 * threads).
+		 * @param X      : the data point
+		 * @param weight : the weight of the point in the stored coefficients
+		 */
+		abstract void queueSample(double X, double weight);
+		
+		/**
+		 * Called before coefficients at one level are added to.
+		 * @param level : 0 for the scaling functions, or 1 onwards for the wavelet levels
+		 * @param first : the index of the first coefficient added to
+		 * @param last  : the index of the last coefficient added to
+		 */
+		void markChanged(int level, int first, int last) {
+		}
+	} // end Store
+	
+	private final Configuration configuration;	// The estimator's parameters
+	private final Wavelet wavelet;				// The wavelet used
+	private final double supportMin;			// The wavelet's support
+	private final double supportMax;
+	private final int levelCount;				// Number of coefficient levels, including the scaling functions
+	private final int[] levelOffsets;			// First translate of each level
+	private final int[] levelSizes;				// Number of translates of each level
+	private final double[] dyadicScales;		// 2^j for each level
+	private final double[] levelNormalizers;	// 2^(j/2) for each level
+	
+	/**
+	 * Creates the kernel for coefficients laid out as a transform's are.
+	 * @param configuration : the estimator's parameters
+	 * @param wavelet       : the wavelet used
+	 * @param layout        : the translates of every level
+	 */
+	UpdateKernel(Configuration configuration, Wavelet wavelet, Transform layout) {
+		this.configuration = configuration;
+		this.wavelet       = wavelet;
+		
+		double[] support = wavelet.getSupport();
+		supportMin = support[0];
+		supportMax = support[1];
+		
+		// The scaling functions use the start level, which is also the first wavelet level
+		levelCount       = configuration.waveletFlag ? configuration.stopLevel - configuration.startLevel + 2 : 1;
+		levelOffsets     = new int[levelCount];
+		levelSizes       = new int[levelCount];
+		dyadicScales     = new double[levelCount];
+		levelNormalizers = new double[levelCount];
+		for (int level = 0; level < levelCount; level++) {
+			int j = configuration.startLevel + Math.max(level - 1, 0);
+			levelOffsets[level]     = (level == 0) ? layout.scalingOffset : layout.waveletOffsets[level - 1];
+			levelSizes[level]       = (level == 0) ? layout.scalingCount : layout.waveletCounts[level - 1];
+			dyadicScales[level]     = Math.pow(2, j);
+			levelNormalizers[level] = Math.pow(2, j/2.0);
+		}
+	}
+	
+	/**
+	 * @return the number of coefficient levels, including the scaling functions
+	 */
+	int getLevelCount() {
+		return levelCount;
+	}
+	
+	/**
+	 * @param level : 0 for the scaling functions, or 1 onwards for the wavelet levels
+	 * @return the number of coefficients at the level
+	 */
+	int getLevelSize(int level) {
+		return levelSizes[level];
+	}
+	
+	/**
+	 * Adds a data point with Caudle, no or window aging.
+	 * 
+	 * Post: the coefficients and the window are updated as needed
+	 * 
+	 * @param store : the coefficients
+	 * @param N     : the number of data points added before this one
+	 * @param X     : the new data point
+	 */
+	void addPoint(Store store, long N, double X) {
+		
+		// Scale coefficients if Caudle aging is being used
+		if (configuration.agingFlag == Settings.caudleAge) {
+			rescale(store, configuration.agingTheta);
+			store.queueSample(X, (1 - configuration.agingTheta) / store.getScale());
+		}
+		
+		// Recursively compute coefficients if no aging is used
+		else if (configuration.agingFlag == Settings.noAge) {
+			rescale(store, N/(N+1.0));
+			store.queueSample(X, 1.0 / ((N+1) * store.getScale()));
+		}
+		
+		// Subtract old samples effect if window aging is used
+		else if (configuration.agingFlag == Settings.windowAge) {
+			double weight = 1.0 / configuration.windowSize;
+			int slot = (int) (N % configuration.windowSize);
+			
+			// Remove the oldest sample once the window is full, so it holds exactly windowSize samples
+			if (N >= configuration.windowSize) {
+				store.queueSample(store.getWindowSample(slot), -weight);
+			}
+			
+			store.setWindowSample(slot, X);
+			store.queueSample(X, weight);
+		}
+	} // end addPoint
+	
+	/**
+	 * Adds a block of data points with Caudle, no or window aging. This gives
+	 * the same coefficients as adding the points one at a time, but the aging
+	 * method is only examined once and the Caudle and no aging decays are
+	 * applied in closed form across the whole block.
+	 * 
+	 * Post: the coefficients and the window are updated as needed
+	 * 
+	 * @param store   : the coefficients
+	 * @param N       : the number of data points added before the block
+	 * @param samples : array holding the new data points
+	 * @param off     : index of the first data point to use
+	 * @param len     : number of data points to use
+	 */
+	void addPoints(Store store, long N, double[] samples, int off, int len) {
+		if (configuration.agingFlag == Settings.caudleAge) {
+			addCaudle(store, samples, off, len);
+		}
+		else if (configuration.agingFlag == Settings.noAge) {
+			addNoAge(store, N, samples, off, len);
+		}
+		else if (configuration.agingFlag == Settings.windowAge) {
+			for (int i = 0; i < len; i++) {
+				addPoint(store, N + i, samples[off + i]);
+			}
+		}
+	} // end addPoints
+	
+	/**
+	 * Applies a block of data points with Caudle aging. The i-th point of
+	 * a block (counting from 1) is aged by theta^i before it is added, so
+	 * it is added with weight (1 - theta) / (scale * theta^i) and the scale
+	 * is multiplied by theta^len once. Blocks are split where the scale
+	 * would otherwise have to be renormalized.
+	 */
+	private void addCaudle(Store store, double[] samples, int off, int len) {
+		
+		double theta = configuration.agingTheta;
+		double inverseTheta = 1.0 / theta;
+		
+		int i = off;
+		int end = off + len;
+		while (i < end) {
+			
+			// Number of points which can be applied before the scale needs renormalizing
+			int chunk = (int) Math.min(end - i,
+					Math.floor(Math.log(store.getScale() / Transform.MIN_SCALE) / -Math.log(theta)));
+			if (chunk <= 0) {
+				store.rewriteStored(store.getScale());
+				store.setScale(1.0);
+				continue;
+			}
+			
+			double weight = (1 - theta) / store.getScale();
+			for (int last = i + chunk; i < last; i++) {
+				weight *= inverseTheta;
+				store.queueSample(samples[i], weight);
+			}
+			store.setScale(store.getScale() * Math.pow(theta, chunk));
+		}
+	} // end addCaudle
+	
+	/**
+	 * Applies a block of data points without aging. After the first point
+	 * the coefficients are the mean of the points' basis values, so every
+	 * point in the block is added with the same weight 1 / (N * scale) and
+	 * the scale is multiplied by N / (N + len) once.
+	 */
+	private void addNoAge(Store store, long N, double[] samples, int off, int len) {
+		
+		// The first point replaces the (zero) coefficients
+		if (N == 0 && len > 0) {
+			addPoint(store, 0, samples[off]);
+			N++;
+			off++;
+			len--;
+		}
+		if (len == 0) {
+			return;
+		}
+		
+		double weight = 1.0 / (N * store.getScale());
+		for (int i = off; i < off + len; i++) {
+			store.queueSample(samples[i], weight);
+		}
+		rescale(store, N / ((double) N + len));
+	} // end addNoAge
+	
+	/**
+	 * Multiplies every coefficient by the given factor by adjusting the
+	 * shared scale. The stored coefficients are only rewritten when the
+	 * scale drifts far enough to risk underflow or overflow, or cleared
+	 * when the factor is 0, which the scale cannot represent.
+	 * 
+	 * @param store  : the coefficients
+	 * @param factor : the factor to multiply all coefficients by
+	 */
+	void rescale(Store store, double factor) {
+		double scale = store.getScale() * factor;
+		if (factor == 0.0 || scale < Transform.MIN_SCALE || scale > Transform.MAX_SCALE) {
+			store.rewriteStored(scale);
+			scale = 1.0;
+		}
+		store.setScale(scale);
+	} // end rescale
+	
+	/**
+	 * Adds the basis function values at the data point, times the given
+	 * weight, to the coefficients at every level.
+	 * 
+	 * @param store  : the coefficients
+	 * @param X      : the data point
+	 * @param weight : the weight of the point in the stored coefficients
+	 */
+	void addSample(Store store, double X, double weight) {
+		for (int level = 0; level < levelCount; level++) {
+			addToLevel(store, level, X, weight);
+		}
+	} // end addSample
+	
+	/**
+	 * Adds the basis function values at a data point, times the given
+	 * weight, to the coefficients of the translates which support it at
+	 * one level.
+	 * 
+	 * @param store  : the coefficients
+	 * @param level  : 0 for the scaling functions, or 1 onwards for the wavelet levels
+	 * @param X      : the data point
+	 * @param weight : the weight of the point in the stored coefficients
+	 */
+	void addToLevel(Store store, int level, double X, double weight) {
+		
+		boolean wavelets = level > 0;
+		double scaledX = dyadicScales[level] * X;
+		double levelWeight = levelNormalizers[level] * weight;
+		int offset = levelOffsets[level];
+		int firstInd = DensityHelper.firstRelevantIndex(scaledX, offset, supportMax);
+		int lastInd  = DensityHelper.lastRelevantIndex(scaledX, offset, levelSizes[level], supportMin);
+		if (firstInd <= lastInd) {
+			store.markChanged(level, firstInd, lastInd);
+		}
+		
+		for (int ind = firstInd; ind <= lastInd; ind++) {
+			
+			// Get the translated & scaled data point
+			double xScaled = scaledX - (offset + ind);
+			
+			// Update the coefficient
+			store.addStored(level, ind, levelWeight * (wavelets ? wavelet.getPsiAt(xScaled) : wavelet.getPhiAt(xScaled)));
+		}
+	} // end addToLevel
+
+} // end class UpdateKernel.
@@ -1,104 +1,158 @@
 package edu.fit.estimator1D;
 
-import java.util.ArrayList;
-import java.io.*;
-import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
-import au.com.bytecode.opencsv.CSVReader;
 /**
  * Represents the wavelet including both the scaling and wavelet functions.
  * 
+ * Instances are immutable. The look-up tables for each wavelet type are
+ * read from the wavelet table file (see WaveletTableFile), or generated
+ * from the wavelet's filter at a chosen resolution (see WaveletCascade),
+ * the first time the type is used at that resolution, and shared
+ * read-only between all instances of that type and resolution.
+ * 
  * @author Gedeon Nyengele & Daniel Weinand
  * 
  */
 public class Wavelet {
 	
-	// The domain for the wavelet used.
-	// This called "supp" in the MATLAB implementation.
-	private static ArrayList<Double> domain;
+	// Loaded wavelets by type and table levels, shared between all estimators.
+	private static final ConcurrentHashMap<String, Wavelet> loaded = new ConcurrentHashMap<String, Wavelet>();
+	
+	// Position of the first entry in the look-up tables.
+	// The tables are sampled on a uniform grid starting here
+	// (this grid is called "supp" in the MATLAB implementation).
+	private final double domainStart;
+	
+	// Reciprocal of the spacing between look-up table entries.
+	private final double inverseStep;
 	
 	// The wavelet function for the wavelet used.
-	private static ArrayList<Double> psi;
+	private final double[] psi;
 	
 	// The scaling function for the wavelet used.
-	private static ArrayList<Double> phi;
+	private final double[] phi;
+	
+	// The integrals of the wavelet and scaling functions from the start of
+	// their tables to each table entry, of the linearly interpolated tables.
+	private final double[] psiIntegral;
+	private final double[] phiIntegral;
 	
 	// The support of the wavelet used.
-	private static double[] waveletSupport;
+	private final double[] waveletSupport;
+	
+	// How the look-up tables are interpolated (see Settings.interpolationFlag).
+	private final int interpolationFlag;
 	
 	
 	/**
-	 * Initializes the wavelet
-	 * @param wavType : string for the wavelet type
-	 * @throws IOException 
+	 * Returns the wavelet of the given type with its precompiled look-up tables.
+	 * @param wavType           : string for the wavelet type
+	 * @param interpolationFlag : how the look-up tables are interpolated
+	 * @return the wavelet, sharing its tables with every other instance of the type
+	 * @throws IllegalArgumentException if there are no tables for the wavelet type
+	 * @throws IllegalStateException if the wavelet table file cannot be read
 	 */
-	public static void init(String wavType){
-		
-		// Find the support for the given wavelet.
-		initializeSupport(wavType);
-		
-		// Load phi function data.
-		Wavelet.phi    = loadFunctionData( Settings.waveletDataFolder + wavType + "PHI.csv" );
+	public static Wavelet getInstance(String wavType, int interpolationFlag) {
+		return getInstance(wavType, interpolationFlag, 0);
+	} // end getInstance method.
 		
-		// Load psi function data
-		Wavelet.psi    = loadFunctionData( Settings.waveletDataFolder + wavType + "PSI.csv" );
+	/**
+	 * Returns the wavelet of the given type, loading or generating its
+	 * look-up tables the first time the type is requested at the given levels.
+	 * @param wavType           : string for the wavelet type
+	 * @param interpolationFlag : how the look-up tables are interpolated
+	 * @param tableLevels       : refinement levels of generated tables, 0 for the precompiled ones
+	 *                            (see Settings.tableLevels)
+	 * @return the wavelet, sharing its tables with every other instance of the type and levels
+	 * @throws IllegalArgumentException if there are no tables or filter for the wavelet type
+	 * @throws IllegalStateException if the wavelet table file cannot be read
+	 */
+	public static Wavelet getInstance(String wavType, int interpolationFlag, int tableLevels) {
 		
-		// Load domain
-		Wavelet.domain = loadFunctionData( Settings.waveletDataFolder + wavType + "SUPP.csv" );
+		String key = (tableLevels == 0) ? wavType : wavType + "/" + tableLevels;
+		Wavelet base = loaded.get(key);
+		if (base == null) {
+			Wavelet created = load(wavType, tableLevels);
+			base = loaded.putIfAbsent(key, created);
+			if (base == null) {
+				base = created;
+			}
+		}
 		
-	} // end init method.
+		if (base.interpolationFlag == interpolationFlag) {
+			return base;
+		}
+		return new Wavelet(base, interpolationFlag);
+	} // end getInstance method.
 	
+	/**
+	 * Creates a view of the given wavelet's tables with a different interpolation.
+	 * @param base              : the wavelet whose tables are shared
+	 * @param interpolationFlag : how the look-up tables are interpolated
+	 */
+	private Wavelet(Wavelet base, int interpolationFlag) {
+		this.domainStart       = base.domainStart;
+		this.inverseStep       = base.inverseStep;
+		this.psi               = base.psi;
+		this.phi               = base.phi;
+		this.psiIntegral       = base.psiIntegral;
+		this.phiIntegral       = base.phiIntegral;
+		this.waveletSupport    = base.waveletSupport;
+		this.interpolationFlag = interpolationFlag;
+	}
 	
 	/**
-	 * Initializes the support to the appropriate size given
-	 * a valid wavelet type.
-	 * 
-	 * Post: support is set
-	 * @param wavType     : character name for the wavelet to be used.
+	 * Creates a linearly interpolated wavelet from its loaded tables.
 	 */
-	private static void initializeSupport(String wavType) {
-		String waveFamily = "";
-		
-		// Create the string for the wavelet family
-		int ordBegin = -1;
-		for (int i = 0; i < wavType.length(); i++) {
-			char currentChar = wavType.charAt(i);
-			if (Character.isDigit(currentChar)) {
-				ordBegin = i;
-				break;
-			}
-			else {
-				waveFamily += currentChar;
-			}
-			
+	private Wavelet(double[] waveletSupport, double[] phi, double[] psi, double domainStart, double inverseStep) {
+		this.domainStart       = domainStart;
+		this.inverseStep       = inverseStep;
+		this.psi               = psi;
+		this.phi               = phi;
+		this.psiIntegral       = cumulate(psi, inverseStep);
+		this.phiIntegral       = cumulate(phi, inverseStep);
+		this.waveletSupport    = waveletSupport;
+		this.interpolationFlag = Settings.linearInterp;
+	}
+	
+	/**
+	 * Integrates a linearly interpolated look-up table by the trapezoidal rule.
+	 * @param funData     : look-up table for the function
+	 * @param inverseStep : reciprocal of the spacing between table entries
+	 * @return the integral from the first table entry to each table entry
+	 */
+	private static double[] cumulate(double[] funData, double inverseStep) {
+		double[] integral = new double[funData.length];
+		for (int i = 1; i < funData.length; i++) {
+			integral[i] = integral[i - 1] + 0.5 * (funData[i - 1] + funData[i]) / inverseStep;
 		}
-		
-		int order = -1;
-		// Determine wavelet order if appropriate
-		if (ordBegin != -1) {
-			order = Integer.parseInt(wavType.substring(ordBegin));
+		return integral;
+	} // end cumulate method.
+	
+	/**
+	 * Loads the look-up tables for the wavelet from the wavelet table file,
+	 * or generates them from the wavelet's filter.
+	 * @param wavType : string for the wavelet type
+	 * @param tableLevels : refinement levels of generated tables, 0 for the precompiled ones
+	 * @return the linearly interpolated wavelet
+	 * @throws IllegalArgumentException if there are no tables or filter for the wavelet type
+	 * @throws IllegalStateException if the wavelet table file cannot be read
+	 */
+	private static Wavelet load(String wavType, int tableLevels){
+		WaveletTableFile.Entry tables;
+		if (tableLevels > 0) {
+			tables = WaveletCascade.generate(wavType, tableLevels);
 		}
-		
-		switch (waveFamily) {
-			case "db" :
-				waveletSupport = new double[] {0, 2*order - 1};
-				break;
-			case "sym" :
-				waveletSupport = new double[] {0, 2*order - 1};
-				break;
-			case "coif" :
-				waveletSupport = new double[] {0, 6*order - 1};
-				break;
-			case "dmey" :
-				waveletSupport = new double[] {0, 101};
-				break;
-			default :
-				// Unsupported wavelet type
-				boolean unsupportedWavelet = true;
-				assert(!unsupportedWavelet);
-				break;
+		else if (WaveletTableFile.contains(wavType) || WaveletFilters.get(wavType) == null) {
+			tables = WaveletTableFile.load(wavType);
 		}
-	}
+		else {
+			tables = WaveletCascade.generate(wavType, WaveletCascade.DEFAULT_LEVELS);
+		}
+		return new Wavelet(tables.support, tables.phi, tables.psi, tables.domainStart, tables.inverseStep);
+	} // end load method.
+	
 	
 	/**
 	 * Returns the support of the given wavelet.
@@ -106,8 +160,8 @@ public class Wavelet {
 	 * @param None.
 	 * @return Two-element array with the endpoints of the wavelet support.
 	 */
-	public static double[] getSupport() {
-		return waveletSupport;
+	public double[] getSupport() {
+		return waveletSupport.clone();
 	}// end method getSupport().
 	
 	/**
@@ -116,8 +170,8 @@ public class Wavelet {
 	 * @param position: the result from (2^j)*x - k for a given level j and translate k.
 	 * @return the interpolated value of phi at the location.
 	 */
-	public static double getPhiAt(double position) {
-		return interpolate(position, Wavelet.domain, Wavelet.phi);
+	public double getPhiAt(double position) {
+		return interpolate(position, phi);
 	}// end method getPhiAt().
 	
 	/**
@@ -126,10 +180,50 @@ public class Wavelet {
 	 * @param position: the result from (2^j)*x - k for a given level j and translate k.
 	 * @return the interpolated value of psi at the location.
 	 */
-	public static double getPsiAt(double position) {
-		return interpolate(position, Wavelet.domain, Wavelet.psi);
+	public double getPsiAt(double position) {
+		return interpolate(position, psi);
 	} // end method getPsiAt().
 	
+	/**
+	 * Returns the integral of the scaling function phi up to the given position.
+	 * @param position: the result from (2^j)*x - k for a given level j and translate k.
+	 * @return the integral of phi from the start of its support to the location.
+	 */
+	public double getPhiIntegralAt(double position) {
+		return integrate(position, phi, phiIntegral);
+	} // end method getPhiIntegralAt().
+	
+	/**
+	 * Returns the integral of the wavelet function psi up to the given position.
+	 * @param position: the result from (2^j)*x - k for a given level j and translate k.
+	 * @return the integral of psi from the start of its support to the location.
+	 */
+	public double getPsiIntegralAt(double position) {
+		return integrate(position, psi, psiIntegral);
+	} // end method getPsiIntegralAt().
+	
+	/**
+	 * Adds weighted values of the scaling function phi at a block of positions to their sums.
+	 * @param positions : the result from (2^j)*x - k for each point of the block.
+	 * @param weights   : the weight of each point's value.
+	 * @param sums      : the sums each weighted value is added to.
+	 * @param count     : the number of points in the block.
+	 */
+	void addPhiAt(double[] positions, double[] weights, double[] sums, int count) {
+		accumulate(positions, weights, sums, count, phi);
+	} // end method addPhiAt().
+	
+	/**
+	 * Adds weighted values of the wavelet function psi at a block of positions to their sums.
+	 * @param positions : the result from (2^j)*x - k for each point of the block.
+	 * @param weights   : the weight of each point's value.
+	 * @param sums      : the sums each weighted value is added to.
+	 * @param count     : the number of points in the block.
+	 */
+	void addPsiAt(double[] positions, double[] weights, double[] sums, int count) {
+		accumulate(positions, weights, sums, count, psi);
+	} // end method addPsiAt().
+	
 	
 	/**
 	 * Checks if the given sample is in the domain of the wavelet or not.
@@ -137,87 +231,130 @@ public class Wavelet {
 	 * @return True  : if sample is in the domain.
 	 *         False : if sample is not in the domain.
 	 */
-	public static boolean inSupport(double x){
-		return x >= Wavelet.waveletSupport[0] && x <= Wavelet.waveletSupport[1];		
+	public boolean inSupport(double x){
+		return x >= waveletSupport[0] && x <= waveletSupport[1];		
 		
 	} // end inSupport method.
 	
 	
 	/**
-	 * Returns the look-up table for the function expanded in the given csv file.
-	 * @param filename : name of the file where function data is located.
-	 * @return an arraylist of doubles containing the function data.
+	 * Returns the interpolated value of a look-up table at the given position.
+	 * The table is sampled on a uniform grid, so the neighbouring entries are
+	 * found by index arithmetic rather than by searching the domain.
+	 * Linear or cubic (Catmull-Rom) interpolation is used depending on
+	 * the interpolation flag of this wavelet.
+	 * @param x           : point of interpolation.
+	 * @param funData     : look-up table for the function
+	 * @return	interpolated value, or 0 outside of the tabulated domain.
 	 */
-	private static ArrayList<Double> loadFunctionData( String filename ) {
+	private double interpolate(double x, double[] funData ){
 		
-		ArrayList<Double> fnData = new ArrayList<Double>();
+		int last = funData.length - 1;
+		double position = (x - domainStart) * inverseStep;
 		
-		try
+		// The function vanishes outside of the tabulated domain.
+		if (!(position >= 0 && position <= last))
 		{
-			java.io.InputStream in = Wavelet.class.getResourceAsStream(filename);
-			CSVReader reader = new CSVReader(new InputStreamReader(in));
-			
-			List<String[]> myEntries = reader.readAll();
-			
-			
-			for(int i = 0; i < myEntries.size(); i++)
-			{
-				String[] content = myEntries.get(i);
-				
-				for(int j = 0; j< content.length; j++)
-				{
-					fnData.add( Double.parseDouble( content[j]) );
-				}
-			}
-			
-			reader.close();
-			
-			
+			return 0;
 		}
 		
-		catch(Exception ex){}
+		int index = (int) position;
+		if (index == last)
+		{
+			return funData[last];
+		}
 		
-		return fnData;
+		double t  = position - index;
+		double y1 = funData[index];
+		double y2 = funData[index + 1];
 		
+		if (interpolationFlag == Settings.cubicInterp)
+		{
+			// Catmull-Rom spline, repeating the end points at the table edges.
+			double y0 = (index > 0) ? funData[index - 1] : y1;
+			double y3 = (index + 2 <= last) ? funData[index + 2] : y2;
+			return y1 + 0.5 * t * ( (y2 - y0)
+					+ t * ( (2*y0 - 5*y1 + 4*y2 - y3)
+					+ t * ( 3*(y1 - y2) + y3 - y0 ) ) );
+		}
 		
-	}// end loadFunctionData method.
+		// Using linear interpolation.
+		return y1 + t * (y2 - y1);
+		
+	}// end interpolate method.
+	
 	
 	/**
-	 * Returns the interpolated value using linear interpolation.
-	 * @param x           : point of interpolation.
-	 * @param wavSupport  : domain of given function
-	 * @param funData     : look-up table for the function
-	 * @return	interpolated value.
+	 * Interpolates a look-up table at a block of positions, adding each
+	 * weighted value to a sum. The values do not depend on each other, so
+	 * the look-ups of different positions overlap in the processor rather
+	 * than each waiting on the last.
+	 * @param positions : positions at which the function is interpolated.
+	 * @param weights   : the weight of each value.
+	 * @param sums      : the sums each weighted value is added to.
+	 * @param count     : the number of positions.
+	 * @param funData   : look-up table for the function
 	 */
-	private static double interpolate(double x, ArrayList<Double> wavSupport, ArrayList<Double> funData ){
-		double interpValue = 0;
-		int index = -1;
+	private void accumulate(double[] positions, double[] weights, double[] sums, int count, double[] funData) {
+		
+		if (interpolationFlag == Settings.cubicInterp)
+		{
+			for (int p = 0; p < count; p++) {
+				sums[p] += weights[p] * interpolate(positions[p], funData);
+			}
+			return;
+		}
 		
-		for(int i = 0; i < wavSupport.size(); i++){
-			if(wavSupport.get(i) == x)
+		// Linear interpolation, as in interpolate, without its branches
+		// between the interior of the table and its last entry.
+		int last = funData.length - 1;
+		for (int p = 0; p < count; p++) {
+			double position = (positions[p] - domainStart) * inverseStep;
+			if (position >= 0 && position < last)
 			{
-				return funData.get(i);
+				int index = (int) position;
+				double y1 = funData[index];
+				sums[p] += weights[p] * (y1 + (position - index) * (funData[index + 1] - y1));
 			}
-			else if(wavSupport.get(i) > x)
+			else if (position == last)
 			{
-				index = i;
-				break;
+				sums[p] += weights[p] * funData[last];
 			}
-				
-		} // end int i = 0; i < wavSupport.size(); i++
+		}
 		
-		if(index != -1)
-		{
-			// Using linear interpolation.
-			double slope = ( funData.get(index) - funData.get(index - 1) ) / ( wavSupport.get(index) - wavSupport.get(index - 1) );
-			interpValue = funData.get(index) + slope * (x - wavSupport.get(index));
-		}// end if(index != -1)
+	}// end accumulate method.
+	
+	
+	/**
+	 * Returns the integral of a linearly interpolated look-up table from the
+	 * start of the tabulated domain to the given position, which is exact
+	 * for the linearly interpolated function (and close to the cubic one).
+	 * @param x           : end point of the integral.
+	 * @param funData     : look-up table for the function
+	 * @param integral    : the integral up to each table entry (see cumulate)
+	 * @return	the integral, 0 before the tabulated domain and the whole integral after it.
+	 */
+	private double integrate(double x, double[] funData, double[] integral) {
 		
-		return interpValue;
+		int last = funData.length - 1;
+		double position = (x - domainStart) * inverseStep;
 		
+		if (!(position > 0))
+		{
+			return 0;
+		}
+		if (position >= last)
+		{
+			return integral[last];
+		}
 		
+		int index = (int) position;
+		double t  = position - index;
+		double y1 = funData[index];
+		double y2 = funData[index + 1];
+		return integral[index] + t * (y1 + 0.5 * t * (y2 - y1)) / inverseStep;
 		
-	}// end interpolate method.
+	}// end integrate method.
 	
 	
 
@@ -0,0 +1,155 @@
+package edu.fit.estimator1D;
+
+/**
+ * Generates the look-up tables of a wavelet type from its scaling filter
+ * (see WaveletFilters) by dyadic refinement, at a chosen resolution.
+ * 
+ * The scaling function satisfies phi(x) = sqrt(2) sum_k h_k phi(2x - k).
+ * Its values at the integers are the eigenvector of this equation for
+ * eigenvalue 1, normalized to sum to 1; the equation then gives its
+ * values half way between known values, one level at a time. After J
+ * levels phi is known exactly (up to rounding) at every multiple of
+ * 2^-J, and psi(x) = sqrt(2) sum_k g_k phi(2x - k) follows from those
+ * values with g_k = (-1)^k h_(L-1-k). The tables are sampled on the
+ * uniform grid the estimator looks them up on, starting at 0.
+ * 
+ * @author Gedeon Nyengele & Daniel Weinand
+ */
+final class WaveletCascade {
+	
+	// Refinement levels matching the spacing (1/256) of the precompiled tables.
+	static final int DEFAULT_LEVELS = 8;
+	
+	// Most refinement levels, at which the widest tables hold almost two million entries.
+	static final int MAX_LEVELS = 16;
+	
+	private WaveletCascade() {
+	}
+	
+	/**
+	 * Generates the tables of a wavelet type.
+	 * @param type   : the wavelet type.
+	 * @param levels : number of refinement levels; the table entries are 2^-levels apart.
+	 * @return the type's support and tables.
+	 * @throws IllegalArgumentException if the type has no scaling filter or the levels are out of range.
+	 */
+	static WaveletTableFile.Entry generate(String type, int levels) {
+		
+		double[] h = WaveletFilters.get(type);
+		if (h == null) {
+			throw new IllegalArgumentException("No scaling filter for wavelet type " + type);
+		}
+		if (levels < 1 || levels > MAX_LEVELS) {
+			throw new IllegalArgumentException("Table levels must lie between 1 and " + MAX_LEVELS);
+		}
+		
+		int taps = h.length;
+		int scale = 1 << levels;
+		int length = (taps - 1) * scale + 1;
+		double root2 = Math.sqrt(2);
+		
+		// Values at the integers, which lie every scale entries.
+		double[] phi = new double[length];
+		double[] atIntegers = integerValues(h);
+		for (int n = 0; n < atIntegers.length; n++) {
+			phi[n * scale] = atIntegers[n];
+		}
+		
+		// Fill in the points half way between those already known.
+		for (int step = scale / 2; step >= 1; step /= 2) {
+			for (int i = step; i < length; i += 2 * step) {
+				phi[i] = root2 * refine(h, phi, 2 * i, scale);
+			}
+		}
+		
+		// psi at x needs phi at 2x - k, which the finished table holds.
+		double[] g = new double[taps];
+		for (int k = 0; k < taps; k++) {
+			g[k] = ((k % 2 == 0) ? 1 : -1) * h[taps - 1 - k];
+		}
+		double[] psi = new double[length];
+		for (int i = 0; i < length; i++) {
+			psi[i] = root2 * refine(g, phi, 2 * i, scale);
+		}
+		
+		double[] support = {0, taps - 1};
+		return new WaveletTableFile.Entry(type, support, 0, scale, phi, psi, length, 0);
+	} // end method generate.
+	
+	/**
+	 * Sums a filter against phi at the points 2x - k.
+	 * @param filter : the filter taps.
+	 * @param phi    : the scaling function, known wherever it is read.
+	 * @param twice  : the table index of 2x.
+	 * @param scale  : the number of table entries per unit.
+	 * @return sum_k filter_k phi(2x - k), with phi taken as 0 outside of its table.
+	 */
+	private static double refine(double[] filter, double[] phi, int twice, int scale) {
+		
+		// Only translates with 0 <= 2x - k <= L - 1 contribute.
+		int first = Math.max(0, (twice - phi.length + scale) / scale);
+		int last  = Math.min(filter.length - 1, twice / scale);
+		double sum = 0;
+		for (int k = first; k <= last; k++) {
+			sum += filter[k] * phi[twice - k * scale];
+		}
+		return sum;
+	} // end method refine.
+	
+	/**
+	 * Solves for the scaling function at the integers 0 .. L - 1, where it
+	 * satisfies phi(n) = sqrt(2) sum_m h_(2n-m) phi(m) and sums to 1.
+	 * The equations of the interior points are dependent (each column of
+	 * the refinement matrix sums to 1), so the last one is replaced by the
+	 * normalization. phi vanishes at both ends for the wavelets here.
+	 * @param h : the scaling filter.
+	 * @return phi at each integer of the support.
+	 */
+	private static double[] integerValues(double[] h) {
+		
+		int taps = h.length;
+		int size = taps - 2;
+		double root2 = Math.sqrt(2);
+		double[][] system = new double[size][size + 1];
+		for (int n = 0; n < size - 1; n++) {
+			for (int m = 0; m < size; m++) {
+				int k = 2 * (n + 1) - (m + 1);
+				system[n][m] = (k >= 0 && k < taps) ? root2 * h[k] : 0;
+			}
+			system[n][n] -= 1;
+		}
+		for (int m = 0; m < size; m++) {
+			system[size - 1][m] = 1;
+		}
+		system[size - 1][size] = 1;
+		
+		// Gaussian elimination with partial pivoting.
+		for (int col = 0; col < size; col++) {
+			int pivot = col;
+			for (int row = col + 1; row < size; row++) {
+				if (Math.abs(system[row][col]) > Math.abs(system[pivot][col])) {
+					pivot = row;
+				}
+			}
+			double[] swap = system[col];
+			system[col] = system[pivot];
+			system[pivot] = swap;
+			for (int row = col + 1; row < size; row++) {
+				double factor = system[row][col] / system[col][col];
+				for (int c = col; c <= size; c++) {
+					system[row][c] -= factor * system[col][c];
+				}
+			}
+		}
+		double[] values = new double[taps];
+		for (int row = size - 1; row >= 0; row--) {
+			double sum = system[row][size];
+			for (int c = row + 1; c < size; c++) {
+				sum -= system[row][c] * values[c + 1];
+			}
+			values[row + 1] = sum / system[row][row];
+		}
+		return values;
+	} // end method integerValues.
+
+} // end class WaveletCascade.
@@ -0,0 +1,141 @@
+package edu.fit.estimator1D;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The scaling filters (low-pass reconstruction filters) of the Daubechies,
+ * Symlet and Coiflet wavelets, from which WaveletCascade generates the
+ * look-up tables of these wavelet types.
+ * 
+ * The filters are normalized so that their taps sum to sqrt(2), and are
+ * ordered so that the scaling function is supported on [0, L - 1] for a
+ * filter of L taps. They were computed by spectral factorization (db and
+ * sym, choosing the least asymmetric factor for sym) and by solving the
+ * orthonormality and vanishing moment conditions (coif), then refined
+ * until those conditions hold to double precision.
+ * 
+ * @author Gedeon Nyengele & Daniel Weinand
+ */
+final class WaveletFilters {
+	
+	// Filter taps by wavelet type.
+	private static final Map<String, double[]> FILTERS = new HashMap<String, double[]>();
+	
+	static {
+		FILTERS.put("coif1", new double[] {
+			-0.07273261951252645, 0.33789766245748176, 0.8525720202116004, 0.3848648468648577,
+			-0.07273261951252645, -0.015655728135791993});
+		FILTERS.put("coif2", new double[] {
+			0.01638733646320364, -0.04146493678687178, -0.0673725547237256, 0.38611006682276283,
+			0.8127236354494135, 0.41700518442323903, -0.07648859907828076, -0.059434418646431085,
+			0.02368017194684777, 0.005611434819368834, -0.001823208870911032, -0.000720549445520347});
+		FILTERS.put("coif3", new double[] {
+			-0.0037935128643808015, 0.0077825964256727454, 0.023452696142077165, -0.06577191128146936,
+			-0.06112339000297254, 0.4051769024091182, 0.7937772226260872, 0.42848347637737,
+			-0.07179982161915484, -0.08230192710629981, 0.03455502757329773, 0.015880544863669452,
+			-0.009007976136730624, -0.002574517688136797, 0.0011175187708306303, 0.0004662169598204029,
+			-7.0983302506379e-05, -3.4599773197272774e-05});
+		FILTERS.put("coif4", new double[] {
+			0.000892313902537003, -0.0016294924252267858, -0.00734616793626805, 0.016068947131575025,
+			0.026682304669604834, -0.08126671024919373, -0.05607731960356926, 0.41530842700068227,
+			0.7822389344242826, 0.43438603311435653, -0.06662747236681715, -0.09622042453595264,
+			0.03933442260558915, 0.025082253337949608, -0.015211728187697211, -0.0056582838001308835,
+			0.003751434697146086, 0.0012665610789256603, -0.0005890202246332164, -0.0002599743371222568,
+			6.233885431278718e-05, 3.1229861599195265e-05, -3.2596479400307506e-06, -1.7849909144933466e-06});
+		FILTERS.put("coif5", new double[] {
+			-0.000212081862067494, 0.0003585777411617577, 0.0021782943778456947, -0.004159312627578639,
+			-0.010131584846900275, 0.023408322118927783, 0.028169744270532353, -0.09192158806008609,
+			-0.05204667025355476, 0.42157126673075435, 0.7742936228603274, 0.4379823066591633,
+			-0.06203775157498195, -0.10556315130733723, 0.041287530472117834, 0.03267479946705735,
+			-0.019758391600965465, -0.009159507338676163, 0.006761520220620417, 0.0024315754425382886,
+			-0.0016616273039298788, -0.0006375589261258812, 0.00030185794166824473, 0.00014035632812373243,
+			-4.12198619242655e-05, -2.1270221672515614e-05, 3.7007277113394796e-06, 2.0612203985788783e-06,
+			-1.6237995172048335e-07, -9.604010112767892e-08});
+		FILTERS.put("db2", new double[] {
+			0.48296291314453416, 0.8365163037378079, 0.22414386804201336, -0.1294095225512604});
+		FILTERS.put("db3", new double[] {
+			0.3326705529500826, 0.8068915093110925, 0.4598775021184916, -0.13501102001025456,
+			-0.08544127388202664, 0.03522629188570955});
+		FILTERS.put("db4", new double[] {
+			0.23037781330889642, 0.7148465705529157, 0.630880767929859, -0.027983769416859778,
+			-0.1870348117190931, 0.03084138183556074, 0.0328830116668852, -0.010597401785069037});
+		FILTERS.put("db5", new double[] {
+			0.16010239797419296, 0.6038292697971898, 0.7243085284377729, 0.1384281459013206,
+			-0.24229488706638203, -0.03224486958463842, 0.0775714938400457, -0.006241490212798251,
+			-0.012580751999082065, 0.0033357252854737244});
+		FILTERS.put("db6", new double[] {
+			0.11154074335010905, 0.49462389039845184, 0.7511339080210954, 0.3152503517091996,
+			-0.22626469396543936, -0.129766867567263, 0.09750160558732308, 0.027522865530306098,
+			-0.031582039317486155, 0.0005538422011614504, 0.0047772575109455515, -0.0010773010853084792});
+		FILTERS.put("db7", new double[] {
+			0.07785205408500857, 0.3965393194819158, 0.7291320908462348, 0.46978228740519523,
+			-0.14390600392856345, -0.22403618499387584, 0.07130921926682965, 0.08061260915108347,
+			-0.038029936935014295, -0.01657454163066693, 0.012550998556099844, 0.00042957797292134196,
+			-0.0018016407040474676, 0.0003537137999745447});
+		FILTERS.put("db8", new double[] {
+			0.05441584224309433, 0.31287159091426725, 0.6756307362972683, 0.5853546836542453,
+			-0.015829105256299714, -0.2840155429615561, 0.0004724845738864261, 0.12874742662048455,
+			-0.01736930100179683, -0.04408825393079881, 0.013981027917395618, 0.008746094047407485,
+			-0.00487035299345132, -0.0003917403733773279, 0.0006754494064506398, -0.00011747678412470371});
+		FILTERS.put("db9", new double[] {
+			0.03807794736389728, 0.24383467461266617, 0.6048231236901881, 0.6572880780512352,
+			0.13319738582485535, -0.2932737832791945, -0.09684078322289048, 0.1485407493381161,
+			0.030725681479291764, -0.06763282906132859, 0.00025094711484649777, 0.02236166212367611,
+			-0.004723204757754808, -0.004281503682462209, 0.001847646883056581, 0.00023038576352299672,
+			-0.0002519631889427101, 3.9347320316278325e-05});
+		FILTERS.put("db10", new double[] {
+			0.02667005790058352, 0.18817680007781815, 0.5272011889318962, 0.6884590394535512,
+			0.281172343660277, -0.24984642432745033, -0.1959462743772162, 0.12736934033588077,
+			0.09305736460348119, -0.07139414716642987, -0.029457536821830083, 0.03321267405934577,
+			0.0036065535669390185, -0.010733175483328401, 0.0013953517470570334, 0.001992405295183573,
+			-0.0006858566949601946, -0.00011646685512891824, 9.358867032004685e-05, -1.3264202894574457e-05});
+		FILTERS.put("sym4", new double[] {
+			0.032223100604051515, -0.01260396726203144, -0.0992195435766342, 0.29785779560530523,
+			0.8037387518051319, 0.4976186676327757, -0.02963552764600161, -0.0757657147895019});
+		FILTERS.put("sym5", new double[] {
+			0.027333068344998695, 0.029519490925706295, -0.03913424930231307, 0.19939753397685675,
+			0.7234076904040411, 0.6339789634567913, 0.016602105764509774, -0.175328089908057,
+			-0.021101834024688855, 0.019538882735250226});
+		FILTERS.put("sym6", new double[] {
+			-0.00780070832503252, 0.0017677118642532006, 0.04472490177078059, -0.02106029251237108,
+			-0.07263752278638284, 0.33792942172815216, 0.7876411410286482, 0.49105594192798774,
+			-0.0483117425856878, -0.11799011114851973, 0.0034907120842217884, 0.015404109327045236});
+		FILTERS.put("sym7", new double[] {
+			0.012015419283549253, 0.01721337630080572, -0.0649080035471851, -0.06413128980738778,
+			0.36021846090624643, 0.7819215932917236, 0.4836109156822845, -0.05680447688965954,
+			-0.1010109208684293, 0.044742349468351254, 0.020464207577549392, -0.018126605131339867,
+			-0.0032832978474675698, 0.002291833954054209});
+		FILTERS.put("sym8", new double[] {
+			0.001889950332768398, -0.0003029205147252475, -0.014952258337081817, 0.003808752013845207,
+			0.04913717967366055, -0.02721902991727087, -0.05194583810828189, 0.3644418948357303,
+			0.7771857516996017, 0.4813596512595127, -0.06127335906732468, -0.14329423835106808,
+			0.0076074873249934345, 0.031695087811522506, -0.0005421323317880141, -0.0033824159509988788});
+		FILTERS.put("sym9", new double[] {
+			0.001400915525925998, 0.0006197808890292352, -0.013271967781790427, -0.011528210207732049,
+			0.030224878858274323, 0.0005834627459561558, -0.054568958432181194, 0.23876091460494694,
+			0.7178970827635514, 0.6173384491428694, 0.035272488037793544, -0.19155083129643552,
+			-0.01823377077980867, 0.062077789302552956, 0.008859267493469406, -0.01026406402753144,
+			-0.0004731544986866741, 0.0010694900328920049});
+		FILTERS.put("sym10", new double[] {
+			-0.00041011591579852795, 0.0003401492663191742, 0.005071649198536152, -0.0011404297950897294,
+			-0.023005461353465543, -0.0008687521104415918, 0.03384235466285711, -0.06708990780795772,
+			-0.08787871151344372, 0.3402160130187854, 0.7669548365593828, 0.5137098733526073,
+			-0.015019238836081548, -0.12155210554927684, 0.026240365058470484, 0.04968612664810714,
+			0.0005956827840044158, -0.007056764062783676, 0.0007154205420859981, 0.0008625782262781416});
+	}
+	
+	private WaveletFilters() {
+	}
+	
+	/**
+	 * Returns the scaling filter of a wavelet type.
+	 * @param type : the wavelet type.
+	 * @return a copy of the filter taps, or null if the type is not a Daubechies, Symlet or Coiflet wavelet.
+	 */
+	static double[] get(String type) {
+		double[] taps = FILTERS.get(type);
+		return (taps == null) ? null : taps.clone();
+	} // end method get.
+
+} // end class WaveletFilters.
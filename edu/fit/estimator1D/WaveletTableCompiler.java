@@ -0,0 +1,168 @@
+package edu.fit.estimator1D;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import au.com.bytecode.opencsv.CSVReader;
+
+/**
+ * Compiles the wavelet look-up tables kept as CSV files (one PHI, PSI and
+ * SUPP file per wavelet type, as exported from MATLAB) into the single
+ * wavelet table file the estimator reads (see WaveletTableFile).
+ * 
+ * @author Gedeon Nyengele & Daniel Weinand
+ */
+public class WaveletTableCompiler {
+	
+	private WaveletTableCompiler() {
+	}
+	
+	/**
+	 * Reads the tables of a wavelet type from its CSV files.
+	 * @param folder : the folder holding the CSV files.
+	 * @param type   : the wavelet type.
+	 * @return the type's support and tables, or null if the folder has no tables for the type.
+	 * @throws IOException if the files cannot be read or do not hold matching tables.
+	 */
+	static WaveletTableFile.Entry compile(File folder, String type) throws IOException {
+		
+		File phiFile    = new File(folder, type + "PHI.csv");
+		File psiFile    = new File(folder, type + "PSI.csv");
+		File domainFile = new File(folder, type + "SUPP.csv");
+		if (!phiFile.exists() && !psiFile.exists() && !domainFile.exists()) {
+			return null;
+		}
+		
+		double[] phi    = readTable(phiFile);
+		double[] psi    = readTable(psiFile);
+		double[] domain = readTable(domainFile);
+		if (domain.length < 2 || phi.length != domain.length || psi.length != domain.length) {
+			throw new IOException("The tables for " + type + " have " + phi.length + ", " + psi.length
+					+ " and " + domain.length + " entries");
+		}
+		
+		// The stored domain values are rounded, so the spacing is
+		// recovered from the endpoints rather than from neighbouring entries.
+		double domainStart = domain[0];
+		double inverseStep = (domain.length - 1) / (domain[domain.length - 1] - domain[0]);
+		
+		return new WaveletTableFile.Entry(type, support(type), domainStart, inverseStep, phi, psi, phi.length, 0);
+	} // end method compile.
+	
+	/**
+	 * Returns the support of a wavelet type, which follows from its family and order.
+	 * @param type : the wavelet type.
+	 * @return Two-element array with the endpoints of the wavelet support.
+	 * @throws IOException if the family is not known.
+	 */
+	static double[] support(String type) throws IOException {
+		
+		int orderBegin = 0;
+		while (orderBegin < type.length() && !Character.isDigit(type.charAt(orderBegin))) {
+			orderBegin++;
+		}
+		String family = type.substring(0, orderBegin);
+		int order = (orderBegin < type.length()) ? Integer.parseInt(type.substring(orderBegin)) : -1;
+		
+		switch (family) {
+			case "db" :
+			case "sym" :
+				return new double[] {0, 2*order - 1};
+			case "coif" :
+				return new double[] {0, 6*order - 1};
+			case "dmey" :
+				return new double[] {0, 101};
+			default :
+				throw new IOException("Unknown wavelet family " + family);
+		}
+	} // end method support.
+	
+	/**
+	 * Reads every value in a CSV file, row by row.
+	 * @param file : the file.
+	 * @return the values.
+	 * @throws IOException if the file cannot be read or holds something other than numbers.
+	 */
+	private static double[] readTable(File file) throws IOException {
+		
+		List<String[]> rows;
+		CSVReader reader;
+		try
+		{
+			reader = new CSVReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.US_ASCII));
+		}
+		catch (FileNotFoundException ex) {
+			throw new IOException("Missing look-up table " + file);
+		}
+		try
+		{
+			rows = reader.readAll();
+		}
+		finally
+		{
+			reader.close();
+		}
+		
+		int size = 0;
+		for (String[] row : rows) {
+			size += row.length;
+		}
+		double[] values = new double[size];
+		int index = 0;
+		for (String[] row : rows) {
+			for (String value : row) {
+				try
+				{
+					values[index++] = Double.parseDouble(value);
+				}
+				catch (NumberFormatException ex) {
+					throw new IOException(file + " holds " + value + ", which is not a number");
+				}
+			}
+		}
+		return values;
+	} // end method readTable.
+	
+	/**
+	 * Compiles the CSV tables of every type in Settings.waveletTypes into a wavelet table file.
+	 * Types without CSV tables are skipped.
+	 * @param args : the folder holding the CSV files and the wavelet table file to write.
+	 */
+	public static void main(String[] args) {
+		
+		if (args.length != 2) {
+			System.err.println("Usage: java edu.fit.estimator1D.WaveletTableCompiler <csv folder> <wavelet table file>");
+			System.err.println("  e.g. edu/fit/estimator1D/resources/waveletfiles edu/fit/estimator1D/resources/wavelets.bin");
+			System.exit(2);
+			return;
+		}
+		
+		try
+		{
+			File folder = new File(args[0]);
+			List<WaveletTableFile.Entry> entries = new ArrayList<WaveletTableFile.Entry>();
+			for (String type : Settings.waveletTypes) {
+				WaveletTableFile.Entry entry = compile(folder, type);
+				if (entry == null) {
+					System.err.println("Skipped " + type + ", which has no tables in " + folder);
+				}
+				else {
+					entries.add(entry);
+				}
+			}
+			WaveletTableFile.write(args[1], entries);
+			System.err.println("Wrote the tables of " + entries.size() + " wavelet types to " + args[1]);
+		}
+		catch (IOException ex) {
+			System.err.println("Error: " + ex.getMessage());
+			System.exit(1);
+		}
+	} // end method main.
+
+} // end class WaveletTableCompiler.
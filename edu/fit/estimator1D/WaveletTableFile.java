@@ -0,0 +1,293 @@
+package edu.fit.estimator1D;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The wavelet table file, which holds the look-up tables of every wavelet
+ * type in one indexed resource (see Settings.waveletTableFile). It is
+ * written by WaveletTableCompiler.
+ * 
+ * The file holds, in little-endian order:
+ * 
+ *   bytes  0-3   magic number 0x89 'W' 'L' 'T'
+ *   bytes  4-5   format version
+ *   bytes  6-7   number of wavelet types T
+ *   T index entries of ENTRY_SIZE bytes, each holding
+ *     bytes  0-15  the type's name in ASCII, padded with zeros
+ *     bytes 16-31  the endpoints of the wavelet's support
+ *     bytes 32-47  the position of the first table entry and the reciprocal of the spacing
+ *     bytes 48-51  number of entries L in each table
+ *     bytes 52-55  zero
+ *     bytes 56-63  offset in the file of the tables
+ *   and at each offset the L values of phi followed by the L values of psi, as doubles.
+ * 
+ * The index is read once, and the tables of a type are read in bulk the
+ * first time the type is used.
+ * 
+ * @author Gedeon Nyengele & Daniel Weinand
+ */
+final class WaveletTableFile {
+	
+	// The current format version.
+	static final short VERSION = 1;
+	
+	// Bytes before the index.
+	static final int HEADER_SIZE = 8;
+	
+	// Bytes in each index entry.
+	static final int ENTRY_SIZE = 64;
+	
+	// Longest wavelet type name.
+	static final int NAME_SIZE = 16;
+	
+	// The first bytes of every wavelet table file.
+	private static final byte[] MAGIC = {(byte) 0x89, 'W', 'L', 'T'};
+	
+	// The index of Settings.waveletTableFile, read on first use.
+	private static Map<String, Entry> index;
+	
+	/**
+	 * The tables of one wavelet type.
+	 */
+	static final class Entry {
+		final String type;				// The wavelet type
+		final double[] support;			// The endpoints of the wavelet's support
+		final double domainStart;		// Position of the first table entry
+		final double inverseStep;		// Reciprocal of the spacing between entries
+		final double[] phi;				// The scaling function, or null in an index entry
+		final double[] psi;				// The wavelet function, or null in an index entry
+		final int length;				// Number of entries in each table
+		final long offset;				// Offset of the tables in the file
+		
+		Entry(String type, double[] support, double domainStart, double inverseStep,
+				double[] phi, double[] psi, int length, long offset) {
+			this.type        = type;
+			this.support     = support;
+			this.domainStart = domainStart;
+			this.inverseStep = inverseStep;
+			this.phi         = phi;
+			this.psi         = psi;
+			this.length      = length;
+			this.offset      = offset;
+		}
+	} // end class Entry.
+	
+	private WaveletTableFile() {
+	}
+	
+	/**
+	 * Reads the tables of a wavelet type from Settings.waveletTableFile.
+	 * @param type : the wavelet type.
+	 * @return the type's support and tables.
+	 * @throws IllegalArgumentException if the file has no tables for the type.
+	 * @throws IllegalStateException if the file cannot be read or is damaged.
+	 */
+	static Entry load(String type) {
+		
+		Entry entry = getIndex().get(type);
+		if (entry == null) {
+			throw new IllegalArgumentException("No look-up tables for wavelet type " + type);
+		}
+		
+		byte[] bytes = new byte[16 * entry.length];
+		DataInputStream in = open();
+		try
+		{
+			skipFully(in, entry.offset);
+			in.readFully(bytes);
+		}
+		catch (IOException ex) {
+			throw damaged(ex);
+		}
+		finally
+		{
+			close(in);
+		}
+		
+		double[] phi = new double[entry.length];
+		double[] psi = new double[entry.length];
+		ByteBuffer tables = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+		tables.asDoubleBuffer().get(phi);
+		tables.position(8 * entry.length);
+		tables.asDoubleBuffer().get(psi);
+		return new Entry(type, entry.support, entry.domainStart, entry.inverseStep, phi, psi, entry.length, entry.offset);
+	} // end method load.
+	
+	/**
+	 * @param type : the wavelet type.
+	 * @return whether Settings.waveletTableFile has tables for the type.
+	 * @throws IllegalStateException if the file cannot be read or is damaged.
+	 */
+	static boolean contains(String type) {
+		return getIndex().containsKey(type);
+	} // end method contains.
+	
+	/**
+	 * @return the index of Settings.waveletTableFile by wavelet type, read the first time it is needed.
+	 * @throws IllegalStateException if the file cannot be read or is damaged.
+	 */
+	private static synchronized Map<String, Entry> getIndex() {
+		
+		if (index != null) {
+			return index;
+		}
+		
+		DataInputStream in = open();
+		try
+		{
+			byte[] header = new byte[HEADER_SIZE];
+			in.readFully(header);
+			ByteBuffer bytes = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+			for (int i = 0; i < MAGIC.length; i++) {
+				if (bytes.get() != MAGIC[i]) {
+					throw new IOException("not a wavelet table file");
+				}
+			}
+			short version = bytes.getShort();
+			if (version != VERSION) {
+				throw new IOException("unsupported version " + version);
+			}
+			int count = bytes.getShort() & 0xffff;
+			
+			byte[] entries = new byte[count * ENTRY_SIZE];
+			in.readFully(entries);
+			bytes = ByteBuffer.wrap(entries).order(ByteOrder.LITTLE_ENDIAN);
+			Map<String, Entry> read = new HashMap<String, Entry>();
+			for (int i = 0; i < count; i++) {
+				byte[] name = new byte[NAME_SIZE];
+				bytes.get(name);
+				int nameLength = 0;
+				while (nameLength < NAME_SIZE && name[nameLength] != 0) {
+					nameLength++;
+				}
+				String type = new String(name, 0, nameLength, StandardCharsets.US_ASCII);
+				double[] support = {bytes.getDouble(), bytes.getDouble()};
+				double domainStart = bytes.getDouble();
+				double inverseStep = bytes.getDouble();
+				int length = bytes.getInt();
+				bytes.getInt();
+				long offset = bytes.getLong();
+				if (length < 2 || length > Integer.MAX_VALUE / 16 || offset < HEADER_SIZE + entries.length) {
+					throw new IOException("bad index entry for " + type);
+				}
+				read.put(type, new Entry(type, support, domainStart, inverseStep, null, null, length, offset));
+			}
+			index = read;
+			return index;
+		}
+		catch (IOException ex) {
+			throw damaged(ex);
+		}
+		finally
+		{
+			close(in);
+		}
+	} // end method getIndex.
+	
+	/**
+	 * Writes a wavelet table file.
+	 * @param fileName : the file to write.
+	 * @param entries  : the tables of each wavelet type, with phi and psi of the same length.
+	 * @throws IOException if the file cannot be written.
+	 */
+	static void write(String fileName, List<Entry> entries) throws IOException {
+		
+		long offset = HEADER_SIZE + (long) ENTRY_SIZE * entries.size();
+		ByteBuffer head = ByteBuffer.allocate((int) offset).order(ByteOrder.LITTLE_ENDIAN);
+		head.put(MAGIC);
+		head.putShort(VERSION);
+		head.putShort((short) entries.size());
+		for (Entry entry : entries) {
+			byte[] name = entry.type.getBytes(StandardCharsets.US_ASCII);
+			if (name.length > NAME_SIZE) {
+				throw new IllegalArgumentException("Wavelet type name " + entry.type + " is too long");
+			}
+			head.put(name);
+			head.position(head.position() + NAME_SIZE - name.length);
+			head.putDouble(entry.support[0]);
+			head.putDouble(entry.support[1]);
+			head.putDouble(entry.domainStart);
+			head.putDouble(entry.inverseStep);
+			head.putInt(entry.phi.length);
+			head.putInt(0);
+			head.putLong(offset);
+			offset += 16L * entry.phi.length;
+		}
+		
+		RandomAccessFile file = new RandomAccessFile(fileName, "rw");
+		try
+		{
+			file.setLength(0);
+			file.write(head.array());
+			for (Entry entry : entries) {
+				ByteBuffer tables = ByteBuffer.allocate(16 * entry.phi.length).order(ByteOrder.LITTLE_ENDIAN);
+				tables.asDoubleBuffer().put(entry.phi).put(entry.psi);
+				file.write(tables.array());
+			}
+		}
+		finally
+		{
+			file.close();
+		}
+	} // end method write.
+	
+	/**
+	 * @return a stream of Settings.waveletTableFile.
+	 * @throws IllegalStateException if the resource is missing.
+	 */
+	private static DataInputStream open() {
+		InputStream in = WaveletTableFile.class.getResourceAsStream(Settings.waveletTableFile);
+		if (in == null) {
+			throw new IllegalStateException("Wavelet table file " + Settings.waveletTableFile + " is missing");
+		}
+		return new DataInputStream(in);
+	} // end method open.
+	
+	/**
+	 * Skips the given number of bytes of a stream.
+	 * @throws EOFException if the stream ends first.
+	 */
+	private static void skipFully(InputStream in, long count) throws IOException {
+		while (count > 0) {
+			long skipped = in.skip(count);
+			if (skipped <= 0) {
+				if (in.read() < 0) {
+					throw new EOFException();
+				}
+				skipped = 1;
+			}
+			count -= skipped;
+		}
+	} // end method skipFully.
+	
+	/**
+	 * @return the exception reporting a failure to read Settings.waveletTableFile.
+	 */
+	private static IllegalStateException damaged(IOException cause) {
+		return new IllegalStateException("Could not read wavelet table file " + Settings.waveletTableFile
+				+ ": " + (cause instanceof EOFException ? "it is truncated" : cause.getMessage()), cause);
+	} // end method damaged.
+	
+	/**
+	 * Closes a stream, ignoring failures, since it has only been read.
+	 */
+	private static void close(InputStream in) {
+		try
+		{
+			in.close();
+		}
+		catch (IOException ex) {
+		}
+	} // end method close.
+
+} // end class WaveletTableFile.